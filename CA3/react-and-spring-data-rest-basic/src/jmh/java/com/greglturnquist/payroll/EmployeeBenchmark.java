@@ -0,0 +1,163 @@
+package com.greglturnquist.payroll;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the {@link Employee} operations that run on every deserialized request body and every collection
+ * operation: construction with its validation, each validating setter, equals, hashCode and toString.
+ *
+ * <p>Each invocation picks the next of {@link #POOL} employees built from varied names, descriptions and
+ * emails, so neither branch prediction nor the JIT can specialise on a single value.
+ * Run with ./gradlew jmh, results are written to build/reports/jmh/results.json
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmployeeBenchmark {
+
+    /**
+     * Number of distinct employees cycled through, a power of two
+     */
+    static final int POOL = 1024;
+
+    static final String[] FIRST_NAMES = { "Frodo", "Samwise", "Meriadoc", "Peregrin", "Ada", "Grace", "Alan",
+            "Edsger", "Barbara", "Donald", "Margaret", "Ken", "Dennis", "Radia", "Tim", "Katherine" };
+
+    static final String[] LAST_NAMES = { "Baggins", "Gamgee", "Brandybuck", "Took", "Lovelace", "Hopper",
+            "Turing", "Dijkstra", "Liskov", "Knuth", "Hamilton", "Thompson", "Ritchie", "Perlman", "Berners-Lee",
+            "Johnson" };
+
+    static final String[] DESCRIPTIONS = { "ring bearer", "gardener", "software engineer", "senior accountant",
+            "head of payroll operations", "intern", "database administrator", "regional sales manager" };
+
+    static final String[] DOMAINS = { "gmail.com", "example.com", "shire.me", "payroll.company.co.uk" };
+
+    String[] firstNames = new String[POOL];
+    String[] lastNames = new String[POOL];
+    String[] descriptions = new String[POOL];
+    Integer[] jobYears = new Integer[POOL];
+    String[] emails = new String[POOL];
+
+    Employee[] employees = new Employee[POOL];
+
+    /**
+     * Equal to the employee at the same index, but built from other String instances, as a deserialized copy is
+     */
+    Employee[] copies = new Employee[POOL];
+
+    /**
+     * Differs from the employee at the same index in the email only, the last field equals compares
+     */
+    Employee[] almostEqual = new Employee[POOL];
+
+    int next;
+
+    @Setup(Level.Trial)
+    public void createEmployees() {
+        Random random = new Random(42);
+        for (int i = 0; i < POOL; i++) {
+            firstNames[i] = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            lastNames[i] = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            descriptions[i] = DESCRIPTIONS[random.nextInt(DESCRIPTIONS.length)];
+            jobYears[i] = random.nextInt(45);
+            emails[i] = firstNames[i].toLowerCase() + "." + lastNames[i].toLowerCase() + i + "@"
+                    + DOMAINS[random.nextInt(DOMAINS.length)];
+
+            employees[i] = employee(i, emails[i]);
+            copies[i] = new Employee(new String(firstNames[i]), new String(lastNames[i]),
+                    new String(descriptions[i]), Integer.valueOf(jobYears[i]), new String(emails[i]));
+            copies[i].setId(1000L + i);
+            almostEqual[i] = employee(i, "x" + emails[i]);
+        }
+    }
+
+    private Employee employee(int i, String email) {
+        Employee employee = new Employee(firstNames[i], lastNames[i], descriptions[i], jobYears[i], email);
+        employee.setId(1000L + i);
+        return employee;
+    }
+
+    private int next() {
+        return next = (next + 1) & (POOL - 1);
+    }
+
+    @Benchmark
+    public Employee construct() {
+        int i = next();
+        return new Employee(firstNames[i], lastNames[i], descriptions[i], jobYears[i], emails[i]);
+    }
+
+    @Benchmark
+    public Employee setFirstName() {
+        int i = next();
+        employees[i].setFirstName(firstNames[i]);
+        return employees[i];
+    }
+
+    @Benchmark
+    public Employee setLastName() {
+        int i = next();
+        employees[i].setLastName(lastNames[i]);
+        return employees[i];
+    }
+
+    @Benchmark
+    public Employee setDescription() {
+        int i = next();
+        employees[i].setDescription(descriptions[i]);
+        return employees[i];
+    }
+
+    @Benchmark
+    public Employee setJobYears() {
+        int i = next();
+        employees[i].setJobYears(jobYears[i]);
+        return employees[i];
+    }
+
+    @Benchmark
+    public Employee setEmail() {
+        int i = next();
+        employees[i].setEmail(emails[i]);
+        return employees[i];
+    }
+
+    @Benchmark
+    public boolean equalsEqual() {
+        int i = next();
+        return employees[i].equals(copies[i]);
+    }
+
+    @Benchmark
+    public boolean equalsDifferent() {
+        int i = next();
+        return employees[i].equals(almostEqual[i]);
+    }
+
+    @Benchmark
+    public int hashCodeOf() {
+        return employees[next()].hashCode();
+    }
+
+    @Benchmark
+    public String toStringOf() {
+        return employees[next()].toString();
+    }
+
+}
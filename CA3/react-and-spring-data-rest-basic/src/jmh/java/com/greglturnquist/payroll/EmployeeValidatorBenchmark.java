@@ -0,0 +1,88 @@
+package com.greglturnquist.payroll;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link EmployeeValidator} against the trim and regex checks it replaced, on a realistic email and on an
+ * adversarial one of {@link #length} characters that makes the regex backtrack, plus a batch of import rows.
+ * Run with ./gradlew jmh -PjmhIncludes=EmployeeValidatorBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmployeeValidatorBenchmark {
+
+    /**
+     * Length of the adversarial email
+     */
+    @Param({ "16", "256", "4096" })
+    int length;
+
+    String realistic = "frodo.baggins42@shire.example.com";
+
+    /**
+     * An {@code @} run ending in a line terminator: every split point of the regex is tried and fails
+     */
+    String adversarial;
+
+    List<EmployeeImportService.Row> rows = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void createInputs() {
+        adversarial = "a" + "@".repeat(length - 2) + "\n";
+        for (int i = 0; i < 500; i++) {
+            rows.add(new EmployeeImportService.Row("Frodo", "Baggins", "ring bearer", i, "frodo" + i + "@shire.me"));
+        }
+    }
+
+    static boolean legacyIsValidEmail(String email) {
+        return email != null && !email.trim().isEmpty() && email.matches("^.+@.+.$");
+    }
+
+    @Benchmark
+    public boolean realisticLegacy() {
+        return legacyIsValidEmail(realistic);
+    }
+
+    @Benchmark
+    public EmployeeValidator.Code realisticValidator() {
+        return EmployeeValidator.validateEmail(realistic);
+    }
+
+    @Benchmark
+    public boolean adversarialLegacy() {
+        return legacyIsValidEmail(adversarial);
+    }
+
+    @Benchmark
+    public EmployeeValidator.Code adversarialValidator() {
+        return EmployeeValidator.validateEmail(adversarial);
+    }
+
+    /**
+     * One import batch at the default {@code payroll.import.batch-size}
+     */
+    @Benchmark
+    public List<EmployeeValidator.Violation> validateAllBatch() {
+        return EmployeeValidator.validateAll(rows);
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * At most {@code limit} holders at a time, with up to {@code queueCapacity} callers waiting in arrival order
+ * for at most {@code maxWait} each. Used per {@link RequestClass} for requests and for pooled connections.
+ */
+// tag::code[]
+public class Bulkhead {
+
+	private final int limit;
+	private final int queueCapacity;
+	private final long maxWaitNanos;
+	private final Semaphore permits;
+	private final AtomicInteger queued = new AtomicInteger();
+
+	public Bulkhead(int limit, int queueCapacity, Duration maxWait) {
+		this.limit = limit;
+		this.queueCapacity = queueCapacity;
+		this.maxWaitNanos = maxWait.toNanos();
+		this.permits = new Semaphore(limit, true);
+	}
+
+	/**
+	 * Takes a place, waiting for one if needed. Every successful call must be followed by {@link #release()}.
+	 *
+	 * @return {@code false} if the queue was full, {@code maxWait} passed or the thread was interrupted
+	 */
+	public boolean acquire() {
+		try {
+			// Unlike tryAcquire(), a zero timeout does not overtake the callers already waiting
+			if (permits.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+				return true;
+			}
+			if (queued.incrementAndGet() > queueCapacity) {
+				queued.decrementAndGet();
+				return false;
+			}
+			try {
+				return permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+			}
+			finally {
+				queued.decrementAndGet();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public void release() {
+		permits.release();
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getActive() {
+		return limit - permits.availablePermits();
+	}
+
+	public int getQueued() {
+		return queued.get();
+	}
+
+}
+// end::code[]
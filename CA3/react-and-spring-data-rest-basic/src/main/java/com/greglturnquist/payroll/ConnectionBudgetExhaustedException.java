@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.sql.SQLTransientException;
+
+/**
+ * Thrown by {@link RequestClassDataSource} when a {@link RequestClass} waited too long for one of its
+ * connections. Unlike an exhausted pool this says nothing about the database, so the
+ * {@link DatabaseResilienceInterceptor} neither counts it against the circuit breaker nor retries it.
+ */
+// tag::code[]
+public class ConnectionBudgetExhaustedException extends SQLTransientException {
+
+	public ConnectionBudgetExhaustedException(RequestClass requestClass, int budget) {
+		super("All " + budget + " connections of " + requestClass.tag() + " requests are in use");
+	}
+
+	static boolean isCauseOf(Throwable failure) {
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			if (cause instanceof ConnectionBudgetExhaustedException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
+// end::code[]
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker over the outcomes of the last {@code window} database calls.
+ *
+ * <p>While {@link State#CLOSED} every call is let through. Once at least {@code minimumCalls} are recorded and
+ * the share of failed calls, or of calls slower than {@code slowCall}, reaches its threshold, the circuit opens
+ * and {@link #tryAcquire()} refuses every call for {@code openFor}. It then lets {@code halfOpenCalls} probe
+ * calls through: if all of them succeed quickly the circuit closes with an empty window, otherwise it opens
+ * again.
+ */
+// tag::code[]
+public class DatabaseCircuitBreaker {
+
+	private static final Logger log = LoggerFactory.getLogger(DatabaseCircuitBreaker.class);
+
+	private static final byte FAILED = 1;
+	private static final byte SLOW = 2;
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int minimumCalls;
+	private final int failureRate;
+	private final int slowCallRate;
+	private final long slowCallNanos;
+	private final long openForNanos;
+	private final int halfOpenCalls;
+	private final LongSupplier nanoTime;
+
+	// Guarded by this
+	private final byte[] outcomes;
+	private int next;
+	private int recorded;
+	private int failed;
+	private int slow;
+	private volatile State state = State.CLOSED;
+	private long openedAt;
+	private int probesLeft;
+	private int probesPassed;
+
+	/**
+	 * @param failureRate percentage of failed calls in the window that opens the circuit
+	 * @param slowCallRate percentage of calls slower than {@code slowCall} in the window that opens the circuit
+	 */
+	public DatabaseCircuitBreaker(int window, int minimumCalls, int failureRate, int slowCallRate, Duration slowCall,
+			Duration openFor, int halfOpenCalls) {
+		this(window, minimumCalls, failureRate, slowCallRate, slowCall, openFor, halfOpenCalls, System::nanoTime);
+	}
+
+	DatabaseCircuitBreaker(int window, int minimumCalls, int failureRate, int slowCallRate, Duration slowCall,
+			Duration openFor, int halfOpenCalls, LongSupplier nanoTime) {
+		if (minimumCalls > window) {
+			throw new IllegalArgumentException("minimumCalls must not exceed the window of " + window + " calls");
+		}
+		this.outcomes = new byte[window];
+		this.minimumCalls = minimumCalls;
+		this.failureRate = failureRate;
+		this.slowCallRate = slowCallRate;
+		this.slowCallNanos = slowCall.toNanos();
+		this.openForNanos = openFor.toNanos();
+		this.halfOpenCalls = halfOpenCalls;
+		this.nanoTime = nanoTime;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Whether a call may go to the database now. Every call let through must be {@linkplain #record(long, boolean)
+	 * recorded}.
+	 */
+	public synchronized boolean tryAcquire() {
+		if (state == State.OPEN) {
+			if (nanoTime.getAsLong() - openedAt < openForNanos) {
+				return false;
+			}
+			transition(State.HALF_OPEN);
+			probesLeft = halfOpenCalls;
+			probesPassed = 0;
+		}
+		if (state == State.HALF_OPEN) {
+			if (probesLeft == 0) {
+				return false;
+			}
+			probesLeft--;
+		}
+		return true;
+	}
+
+	/**
+	 * Records a call let through by {@link #tryAcquire()}.
+	 *
+	 * @param failed whether the database could not serve it, as opposed to a call it answered with an error
+	 */
+	public synchronized void record(long durationNanos, boolean failed) {
+		boolean slowCall = durationNanos >= slowCallNanos;
+		if (state == State.HALF_OPEN) {
+			if (failed || slowCall) {
+				open();
+			}
+			else if (++probesPassed == halfOpenCalls) {
+				reset();
+				transition(State.CLOSED);
+			}
+			return;
+		}
+		if (state == State.OPEN) {
+			// Let through before the circuit opened
+			return;
+		}
+		byte outcome = (byte) ((failed ? FAILED : 0) | (slowCall ? SLOW : 0));
+		if (recorded == outcomes.length) {
+			forget(outcomes[next]);
+		}
+		else {
+			recorded++;
+		}
+		outcomes[next] = outcome;
+		next = (next + 1) % outcomes.length;
+		this.failed += (outcome & FAILED) != 0 ? 1 : 0;
+		this.slow += (outcome & SLOW) != 0 ? 1 : 0;
+		if (recorded >= minimumCalls
+				&& (100 * this.failed >= failureRate * recorded || 100 * this.slow >= slowCallRate * recorded)) {
+			log.warn("Opening the database circuit: {} of the last {} calls failed and {} were slow",
+					this.failed, recorded, this.slow);
+			open();
+		}
+	}
+
+	private void forget(byte outcome) {
+		failed -= (outcome & FAILED) != 0 ? 1 : 0;
+		slow -= (outcome & SLOW) != 0 ? 1 : 0;
+	}
+
+	private void open() {
+		openedAt = nanoTime.getAsLong();
+		reset();
+		transition(State.OPEN);
+	}
+
+	private void reset() {
+		next = 0;
+		recorded = 0;
+		failed = 0;
+		slow = 0;
+	}
+
+	private void transition(State to) {
+		if (state != to) {
+			log.info("Database circuit {} -> {}", state, to);
+			state = to;
+		}
+	}
+
+}
+// end::code[]
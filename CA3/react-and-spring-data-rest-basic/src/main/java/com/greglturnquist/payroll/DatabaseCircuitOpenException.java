@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+
+/**
+ * Thrown instead of calling the database while the {@link DatabaseCircuitBreaker} is open; answered with 503
+ * like any other unreachable database.
+ */
+// tag::code[]
+public class DatabaseCircuitOpenException extends DataAccessResourceFailureException {
+
+	public DatabaseCircuitOpenException() {
+		super("The database circuit is open");
+	}
+
+}
+// end::code[]
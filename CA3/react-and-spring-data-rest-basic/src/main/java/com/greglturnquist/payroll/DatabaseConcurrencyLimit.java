@@ -0,0 +1,131 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive limit on the number of database calls in flight, after the gradient algorithm of Netflix's
+ * concurrency-limits library.
+ *
+ * <p>Every {@code window} completed calls, the mean latency of the window is compared with a baseline: the
+ * lowest window mean seen so far, raised by 1% every window so that it follows a database that got slower for
+ * good. While the window stays within {@code rttTolerance} times the baseline, the limit grows by its square
+ * root, the number of calls allowed to queue for a connection. Once calls queue up and the latency grows, the
+ * limit is scaled down by the ratio of the two, but never by more than half per window. Windows in which fewer
+ * than half the allowed calls were in flight only update the baseline.
+ */
+// tag::code[]
+public class DatabaseConcurrencyLimit {
+
+	private static final double BASELINE_DRIFT = 1.01;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double rttTolerance;
+	private final double smoothing;
+	private final int window;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile int limit;
+
+	// Guarded by this
+	private double estimatedLimit;
+	private double baselineRtt;
+	private long windowRttSum;
+	private int windowCount;
+	private int windowMaxInFlight;
+
+	/**
+	 * @param rttTolerance how many times slower than the baseline calls may get before the limit drops
+	 * @param smoothing share of each new estimate in the limit, from 0 (never changes) to 1 (no smoothing)
+	 */
+	public DatabaseConcurrencyLimit(int initialLimit, int minLimit, int maxLimit, double rttTolerance,
+			double smoothing, int window) {
+		if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+			throw new IllegalArgumentException("Expected 1 <= minLimit <= initialLimit <= maxLimit");
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.rttTolerance = rttTolerance;
+		this.smoothing = smoothing;
+		this.window = window;
+		this.limit = initialLimit;
+		this.estimatedLimit = initialLimit;
+	}
+
+	/**
+	 * Takes a slot for a call, unless {@link #getLimit()} calls are already in flight. Every successful call must
+	 * be followed by one of the {@code release} methods.
+	 */
+	public boolean tryAcquire() {
+		while (true) {
+			int current = inFlight.get();
+			if (current >= limit) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Releases the slot of a call that reached the database and took {@code rttNanos}.
+	 */
+	public void release(long rttNanos) {
+		int current = inFlight.getAndDecrement();
+		sample(rttNanos, current);
+	}
+
+	/**
+	 * Releases the slot of a call whose latency says nothing about the database, such as one that never reached it.
+	 */
+	public void release() {
+		inFlight.decrementAndGet();
+	}
+
+	private synchronized void sample(long rttNanos, int current) {
+		windowRttSum += rttNanos;
+		windowMaxInFlight = Math.max(windowMaxInFlight, current);
+		if (++windowCount < window) {
+			return;
+		}
+		double windowRtt = (double) windowRttSum / windowCount;
+		boolean appLimited = windowMaxInFlight < estimatedLimit / 2;
+		windowRttSum = 0;
+		windowCount = 0;
+		windowMaxInFlight = 0;
+		baselineRtt = baselineRtt == 0 ? windowRtt : Math.min(baselineRtt * BASELINE_DRIFT, windowRtt);
+		if (appLimited) {
+			return;
+		}
+		double gradient = Math.max(0.5, Math.min(1.0, rttTolerance * baselineRtt / windowRtt));
+		double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+		newLimit = estimatedLimit * (1 - smoothing) + newLimit * smoothing;
+		estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+		limit = (int) estimatedLimit;
+	}
+
+	public int getLimit() {
+		return limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+}
+// end::code[]
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Adaptive limit on the {@link EmployeeRepository} calls in flight (see {@code payroll.db.concurrency.*} in
+ * application.properties). Calls over the limit are answered with 503 at once instead of queueing for a
+ * pooled connection, so the latency of the calls that are let through stays close to that of an idle database.
+ */
+// tag::code[]
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "payroll.db.concurrency.enabled", matchIfMissing = true)
+public class DatabaseConcurrencyLimitConfiguration {
+
+	@Bean
+	public DatabaseConcurrencyLimit databaseConcurrencyLimit(MeterRegistry meterRegistry,
+			@Value("${payroll.db.concurrency.initial-limit:10}") int initialLimit,
+			@Value("${payroll.db.concurrency.min-limit:2}") int minLimit,
+			@Value("${payroll.db.concurrency.max-limit:40}") int maxLimit,
+			@Value("${payroll.db.concurrency.rtt-tolerance:1.5}") double rttTolerance,
+			@Value("${payroll.db.concurrency.smoothing:0.2}") double smoothing,
+			@Value("${payroll.db.concurrency.window:20}") int window) {
+		DatabaseConcurrencyLimit limit = new DatabaseConcurrencyLimit(initialLimit, minLimit, maxLimit, rttTolerance,
+				smoothing, window);
+		Gauge.builder("payroll.db.concurrency.limit", limit, DatabaseConcurrencyLimit::getLimit)
+				.description("Repository calls currently allowed in flight")
+				.register(meterRegistry);
+		Gauge.builder("payroll.db.concurrency.in_flight", limit, DatabaseConcurrencyLimit::getInFlight)
+				.description("Repository calls in flight")
+				.register(meterRegistry);
+		return limit;
+	}
+
+	@Bean
+	DatabaseConcurrencyLimitInterceptor databaseConcurrencyLimitInterceptor(DatabaseConcurrencyLimit limit,
+			MeterRegistry meterRegistry) {
+		return new DatabaseConcurrencyLimitInterceptor(limit, meterRegistry);
+	}
+
+	/**
+	 * Placed just outside the {@link DatabaseResilienceInterceptor}, so retries hold on to the slot of their call.
+	 */
+	@Bean
+	public static BeanPostProcessor databaseConcurrencyLimitEmployeeRepositoryPostProcessor(
+			ObjectProvider<DatabaseConcurrencyLimitInterceptor> interceptors) {
+		return EmployeeRepositoryAdvice.outerPostProcessor(invocation -> interceptors.getObject().invoke(invocation),
+				Ordered.LOWEST_PRECEDENCE - 1);
+	}
+
+}
+// end::code[]
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sheds {@link EmployeeRepository} calls beyond the {@link DatabaseConcurrencyLimit} and feeds it the latency of
+ * the others.
+ *
+ * <p>Runs outside the repository transaction and the {@link DatabaseResilienceInterceptor}, so the measured
+ * latency covers waiting for a pooled connection as well as the statements. Calls inside a transaction of the
+ * caller already hold their connection and are let through uncounted. Calls that failed because the database
+ * could not be reached, including those refused by the circuit breaker, are not sampled: their latency is that
+ * of a timeout or of no call at all.
+ */
+// tag::code[]
+class DatabaseConcurrencyLimitInterceptor implements MethodInterceptor {
+
+	private final DatabaseConcurrencyLimit limit;
+	private final Counter rejected;
+
+	DatabaseConcurrencyLimitInterceptor(DatabaseConcurrencyLimit limit, MeterRegistry meterRegistry) {
+		this.limit = limit;
+		this.rejected = Counter.builder("payroll.db.concurrency.rejected")
+				.description("Repository calls shed because the database concurrency limit was reached")
+				.register(meterRegistry);
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			return invocation.proceed();
+		}
+		if (!limit.tryAcquire()) {
+			rejected.increment();
+			throw new DatabaseOverloadedException(limit.getLimit());
+		}
+		long start = System.nanoTime();
+		try {
+			Object result = invocation.proceed();
+			limit.release(System.nanoTime() - start);
+			return result;
+		}
+		catch (Throwable failure) {
+			if (DatabaseUnavailableAdvice.isUnavailable(failure)) {
+				limit.release();
+			}
+			else {
+				limit.release(System.nanoTime() - start);
+			}
+			throw failure;
+		}
+	}
+
+}
+// end::code[]
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Thrown instead of calling the database while the {@link DatabaseConcurrencyLimit} is reached; answered with
+ * 503 and a short {@code Retry-After}, since the database is up, only busy.
+ */
+// tag::code[]
+public class DatabaseOverloadedException extends TransientDataAccessResourceException {
+
+	public DatabaseOverloadedException(int limit) {
+		super("More than " + limit + " database calls in flight");
+	}
+
+}
+// end::code[]
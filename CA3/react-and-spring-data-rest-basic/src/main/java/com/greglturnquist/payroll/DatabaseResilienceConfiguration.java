@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Statement timeouts, circuit breaker and retries around {@link EmployeeRepository} (see
+ * {@code payroll.db.*} in application.properties), so that a slow or unreachable database turns into fast
+ * 503 responses instead of request threads piling up behind JDBC calls.
+ */
+// tag::code[]
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "payroll.db.resilience.enabled", matchIfMissing = true)
+public class DatabaseResilienceConfiguration {
+
+	@Bean
+	public DatabaseCircuitBreaker databaseCircuitBreaker(MeterRegistry meterRegistry,
+			@Value("${payroll.db.circuit.window:50}") int window,
+			@Value("${payroll.db.circuit.minimum-calls:20}") int minimumCalls,
+			@Value("${payroll.db.circuit.failure-rate:50}") int failureRate,
+			@Value("${payroll.db.circuit.slow-call-rate:80}") int slowCallRate,
+			@Value("${payroll.db.circuit.slow-call:1s}") Duration slowCall,
+			@Value("${payroll.db.circuit.open-for:10s}") Duration openFor,
+			@Value("${payroll.db.circuit.half-open-calls:5}") int halfOpenCalls) {
+		DatabaseCircuitBreaker circuitBreaker = new DatabaseCircuitBreaker(window, minimumCalls, failureRate,
+				slowCallRate, slowCall, openFor, halfOpenCalls);
+		for (DatabaseCircuitBreaker.State state : DatabaseCircuitBreaker.State.values()) {
+			Gauge.builder("payroll.db.circuit.state", circuitBreaker, breaker -> breaker.getState() == state ? 1 : 0)
+					.description("1 for the current state of the database circuit breaker")
+					.tag("state", state.name().toLowerCase())
+					.register(meterRegistry);
+		}
+		return circuitBreaker;
+	}
+
+	@Bean
+	DatabaseResilienceInterceptor databaseResilienceInterceptor(DatabaseCircuitBreaker circuitBreaker,
+			MeterRegistry meterRegistry, DataSource dataSource,
+			ObjectProvider<ReplicatedDataSourceConfiguration.DataSources> replicated,
+			@Value("${payroll.db.retry.attempts:3}") int attempts,
+			@Value("${payroll.db.retry.initial-backoff:50ms}") Duration initialBackoff,
+			@Value("${payroll.db.retry.max-backoff:1s}") Duration maxBackoff) throws SQLException {
+		List<HikariDataSource> pools = connectionPools(dataSource, replicated.getIfAvailable());
+		return new DatabaseResilienceInterceptor(circuitBreaker, attempts, initialBackoff, maxBackoff,
+				() -> pools.forEach(DatabaseResilienceConfiguration::softEvictConnections), meterRegistry);
+	}
+
+	/**
+	 * The HikariCP pools behind the application's {@link DataSource}: the primary's and, with the
+	 * {@code replicated} profile, every replica's.
+	 */
+	static List<HikariDataSource> connectionPools(DataSource dataSource,
+			ReplicatedDataSourceConfiguration.DataSources replicated) throws SQLException {
+		List<DataSource> candidates = new ArrayList<>();
+		if (replicated != null) {
+			candidates.add(replicated.primary());
+			candidates.addAll(replicated.replicas().values());
+		}
+		else {
+			candidates.add(dataSource);
+		}
+		List<HikariDataSource> pools = new ArrayList<>();
+		for (DataSource candidate : candidates) {
+			if (candidate.isWrapperFor(HikariDataSource.class)) {
+				pools.add(candidate.unwrap(HikariDataSource.class));
+			}
+		}
+		return pools;
+	}
+
+	private static void softEvictConnections(HikariDataSource pool) {
+		// Null until the pool has handed out its first connection
+		HikariPoolMXBean mxBean = pool.getHikariPoolMXBean();
+		if (mxBean != null) {
+			mxBean.softEvictConnections();
+		}
+	}
+
+	@Bean
+	public static BeanPostProcessor databaseResilienceEmployeeRepositoryPostProcessor(
+			ObjectProvider<DatabaseResilienceInterceptor> interceptors) {
+		return EmployeeRepositoryAdvice.outerPostProcessor(invocation -> interceptors.getObject().invoke(invocation),
+				Ordered.LOWEST_PRECEDENCE);
+	}
+
+	@Bean
+	public static BeanPostProcessor employeeRepositoryTransactionTimeouts(
+			@Value("${payroll.db.read-timeout:2s}") Duration readTimeout,
+			@Value("${payroll.db.write-timeout:5s}") Duration writeTimeout) {
+		return EmployeeRepositoryAdvice.transactionTimeouts(readTimeout, writeTimeout);
+	}
+
+}
+// end::code[]
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.hibernate.TransactionException;
+
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.TransactionTimedOutException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Guards {@link EmployeeRepository} calls with the {@link DatabaseCircuitBreaker} and retries the ones that
+ * failed before reaching the database.
+ *
+ * <p>Runs outside the repository transaction. A call that could not begin its transaction because its pooled
+ * connection turned out to be broken is retried, up to {@code attempts} times in all, after a random pause of
+ * up to {@code initialBackoff} doubled on every attempt and capped at {@code maxBackoff} ("full jitter", so
+ * that callers failing together do not retry together). The pool does not recognise every broken connection:
+ * HikariCP only drops one on an {@code 08xxx} SQLSTATE, and H2 reports a lost connection as {@code 90067}. So
+ * after any failure to reach the database other than a timeout the pooled connections are evicted, idle ones
+ * at once and the others when they are returned, and the retry opens a new one. Calls inside a transaction of
+ * the caller, and calls that timed out waiting for a connection or a statement, are never retried: the first
+ * would need the whole transaction to be retried, the second would only add load to a database that is
+ * already slow. Calls that ran out of their {@link RequestClass}'s connection budget are neither retried nor
+ * counted as failed, since the database itself is fine.
+ */
+// tag::code[]
+class DatabaseResilienceInterceptor implements MethodInterceptor {
+
+	private static final String HIBERNATE_TIMEOUT_EXPIRED = "transaction timeout expired";
+
+	private final DatabaseCircuitBreaker circuitBreaker;
+	private final int attempts;
+	private final long initialBackoffNanos;
+	private final long maxBackoffNanos;
+	private final Counter retries;
+	private final Counter rejected;
+	private final Counter statementTimeouts;
+	private final Counter connectionTimeouts;
+	private final Runnable evictConnections;
+	private final Counter evictions;
+
+	DatabaseResilienceInterceptor(DatabaseCircuitBreaker circuitBreaker, int attempts, Duration initialBackoff,
+			Duration maxBackoff, Runnable evictConnections, MeterRegistry meterRegistry) {
+		this.circuitBreaker = circuitBreaker;
+		this.evictConnections = evictConnections;
+		this.attempts = attempts;
+		this.initialBackoffNanos = initialBackoff.toNanos();
+		this.maxBackoffNanos = maxBackoff.toNanos();
+		this.retries = Counter.builder("payroll.db.retries")
+				.description("Repository calls retried after failing to begin their transaction")
+				.register(meterRegistry);
+		this.rejected = Counter.builder("payroll.db.circuit.rejected")
+				.description("Repository calls refused because the database circuit was open")
+				.register(meterRegistry);
+		this.evictions = Counter.builder("payroll.db.evictions")
+				.description("Times the pooled connections were evicted after a repository call could not reach the database")
+				.register(meterRegistry);
+		this.statementTimeouts = timeouts("statement", meterRegistry);
+		this.connectionTimeouts = timeouts("connection", meterRegistry);
+	}
+
+	private static Counter timeouts(String kind, MeterRegistry meterRegistry) {
+		return Counter.builder("payroll.db.timeouts")
+				.description("Repository calls that timed out waiting for a JDBC statement or a pooled connection")
+				.tag("kind", kind)
+				.register(meterRegistry);
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		boolean retryable = !TransactionSynchronizationManager.isActualTransactionActive();
+		for (int attempt = 1; ; attempt++) {
+			if (!circuitBreaker.tryAcquire()) {
+				rejected.increment();
+				throw new DatabaseCircuitOpenException();
+			}
+			// Every attempt runs on a copy, since proceeding moves an invocation past the interceptors it ran
+			MethodInvocation call = ((ProxyMethodInvocation) invocation).invocableClone();
+			long start = System.nanoTime();
+			try {
+				Object result = call.proceed();
+				circuitBreaker.record(System.nanoTime() - start, false);
+				return result;
+			}
+			catch (Throwable failure) {
+				if (ConnectionBudgetExhaustedException.isCauseOf(failure)) {
+					circuitBreaker.record(System.nanoTime() - start, false);
+					throw failure;
+				}
+				boolean timedOut = countTimeout(failure);
+				boolean unavailable = DatabaseUnavailableAdvice.isUnavailable(failure);
+				circuitBreaker.record(System.nanoTime() - start, timedOut || unavailable);
+				if (unavailable && !timedOut) {
+					// The connection may be broken without the pool knowing: make every call, this retry included, open a new one
+					evictConnections.run();
+					evictions.increment();
+				}
+				if (!retryable || timedOut || attempt == attempts || !(failure instanceof CannotCreateTransactionException)) {
+					throw failure;
+				}
+				retries.increment();
+				if (!pause(attempt)) {
+					throw failure;
+				}
+			}
+		}
+	}
+
+	private boolean countTimeout(Throwable failure) {
+		if (failure instanceof QueryTimeoutException || failure instanceof TransactionTimedOutException) {
+			statementTimeouts.increment();
+			return true;
+		}
+		for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+			// Thrown by Hibernate instead of running a statement with less than a second left
+			if (cause instanceof TransactionException
+					&& HIBERNATE_TIMEOUT_EXPIRED.equals(cause.getMessage())) {
+				statementTimeouts.increment();
+				return true;
+			}
+			// Thrown by the connection pool once connectionTimeout has passed without a usable connection
+			if (cause instanceof SQLTransientConnectionException) {
+				connectionTimeouts.increment();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return {@code false} if interrupted
+	 */
+	private boolean pause(int attempt) {
+		long ceiling = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempt - 1, 30));
+		try {
+			TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+			return true;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+}
+// end::code[]
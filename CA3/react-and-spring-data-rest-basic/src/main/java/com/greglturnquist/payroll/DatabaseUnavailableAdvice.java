@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.TransactionTimedOutException;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Answers {@code 503 Service Unavailable} with a {@code Retry-After} header, instead of 500, to requests that
+ * failed because the database could not be reached, or did not answer within the statement timeout. Requests
+ * shed by the {@link DatabaseConcurrencyLimit} are told to come back sooner.
+ */
+// tag::code[]
+@RestControllerAdvice
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class DatabaseUnavailableAdvice {
+
+	static final String RETRY_AFTER_SECONDS = "5";
+
+	static final String OVERLOADED_RETRY_AFTER_SECONDS = "1";
+
+	/**
+	 * Whether {@code failure} means the database could not be reached, as opposed to a failed statement.
+	 */
+	static boolean isUnavailable(Throwable failure) {
+		return failure instanceof DataAccessResourceFailureException
+				|| failure instanceof CannotCreateTransactionException;
+	}
+
+	@ExceptionHandler({ DataAccessResourceFailureException.class, CannotCreateTransactionException.class,
+			QueryTimeoutException.class, TransactionTimedOutException.class })
+	public ResponseEntity<Void> databaseUnavailable() {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+				.build();
+	}
+
+	@ExceptionHandler(DatabaseOverloadedException.class)
+	public ResponseEntity<Void> databaseOverloaded() {
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, OVERLOADED_RETRY_AFTER_SECONDS)
+				.build();
+	}
+
+}
+// end::code[]
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.sql.SQLException;
+
+import org.h2.tools.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Co-located database for the {@code embedded} profile: the datasource opens the H2 file directly in this
+ * JVM (see application-embedded.properties), so repository calls no longer cross the network to the db VM.
+ *
+ * <p>An H2 TCP server is still started in the same process so the console, backups and other tools can
+ * reach the very same database at {@code jdbc:h2:tcp://<web host>:<port>/./jpadb}. It only accepts connections
+ * from this host unless {@code payroll.h2.tcp-allow-others} is set, which is refused while the database user has
+ * no password.
+ */
+// tag::code[]
+@Configuration(proxyBeanMethods = false)
+@Profile("embedded")
+public class EmbeddedDatabaseConfiguration {
+
+	private static final Logger log = LoggerFactory.getLogger(EmbeddedDatabaseConfiguration.class);
+
+	@Bean(destroyMethod = "stop")
+	public Server h2TcpServer(@Value("${payroll.h2.tcp-port:9092}") int port,
+			@Value("${payroll.h2.tcp-allow-others:false}") boolean allowOthers,
+			@Value("${spring.datasource.password:}") String password) throws SQLException {
+		if (allowOthers && password.isEmpty()) {
+			throw new IllegalStateException("payroll.h2.tcp-allow-others requires spring.datasource.password, "
+					+ "otherwise any host could open the database without a password");
+		}
+		Server server = allowOthers
+				? Server.createTcpServer("-tcpPort", Integer.toString(port), "-tcpDaemon", "-tcpAllowOthers")
+				: Server.createTcpServer("-tcpPort", Integer.toString(port), "-tcpDaemon");
+		server.start();
+		log.info("H2 TCP server for the embedded database listening on port {}", server.getPort());
+		return server;
+	}
+
+}
+// end::code[]
@@ -17,30 +17,46 @@ package com.greglturnquist.payroll;
 
 import java.util.Objects;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
+import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.SequenceGenerator;
+import jakarta.persistence.Table;
+import jakarta.persistence.Version;
+import org.hibernate.annotations.ColumnDefault;
 
 /**
  * @author Greg Turnquist
  */
 // tag::code[]
 @Entity // <1>
+@Table(indexes = {
+	@Index(name = "idx_employee_email", columnList = "email"),
+	@Index(name = "idx_employee_last_name", columnList = "lastName"),
+	@Index(name = "idx_employee_job_years", columnList = "jobYears")
+})
 public class Employee {
 
-	private @Id @GeneratedValue Long id; // <2>
+	// Pooled sequence: one round trip to the database hands out a block of 50 ids
+	private @Id @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "employee_seq")
+	@SequenceGenerator(name = "employee_seq", sequenceName = "employee_seq", allocationSize = 50) Long id; // <2>
 	private String firstName;
 	private String lastName;
 	private String description;
 	private Integer jobYears;
 	private String email;
 
+	// Optimistic locking; Spring Data REST also turns it into the ETag of the item resource
+	// The default lets ddl-auto=update add the column to existing rows
+	private @Version @ColumnDefault("0") @JsonIgnore Long version;
+
 	private Employee() {}
 
 	public Employee(String firstName, String lastName, String description, Integer jobYears, String email) throws IllegalArgumentException {
-		if (!isValidArguments(firstName, lastName, description, jobYears, email)) {
-			throw new IllegalArgumentException("Invalid Employee arguments");
-		}
+		EmployeeValidator.check(EmployeeValidator.validate(firstName, lastName, description, jobYears, email));
 		this.firstName = firstName;
 		this.lastName = lastName;
 		this.description = description;
@@ -48,13 +64,23 @@ public class Employee {
 		this.email = email;
 	}
 
-	private boolean isValidArguments(String firstName, String lastName, String description, Integer jobYears, String email) {
-		return isValidName(firstName) &&
-				isValidName(lastName) &&
-				isValidDescription(description) &&
-				isValidJobYears(jobYears) &&
-				isValidEmail(email);
+	/**
+	 * An employee as it is stored, built without validation the way JPA loads one, so that a row written before
+	 * a rule existed, such as one with a NULL {@code job_years}, can still be read. Used by stores that bypass JPA.
+	 */
+	static Employee stored(long id, String firstName, String lastName, String description, Integer jobYears,
+			String email, long version) {
+		Employee employee = new Employee();
+		employee.id = id;
+		employee.firstName = firstName;
+		employee.lastName = lastName;
+		employee.description = description;
+		employee.jobYears = jobYears;
+		employee.email = email;
+		employee.version = version;
+		return employee;
 	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -68,19 +94,6 @@ public class Employee {
 			Objects.equals(email, employee.email);
 	}
 
-	private boolean isValidName(String name) {
-		return (name != null && !name.trim().isEmpty());
-	}
-	private boolean isValidDescription(String description) {
-		return (description != null && !description.trim().isEmpty());
-	}
-	private boolean isValidJobYears(Integer jobYears) {
-		return jobYears != null;
-	}
-	private boolean isValidEmail(String email) {
-		return (email != null && !email.trim().isEmpty() && email.matches("^.+@.+.$"));
-	}
-
 	@Override
 	public int hashCode() {
 
@@ -95,14 +108,22 @@ public class Employee {
 		this.id = id;
 	}
 
+	// Not part of the JSON representation; used by stores that bypass JPA, see ShardedEmployeeStore
+	Long getVersion() {
+		return version;
+	}
+
+	void setVersion(Long version) {
+		this.version = version;
+	}
+
 	public String getFirstName() {
 		return firstName;
 	}
 
 	public void setFirstName(String firstName) throws IllegalArgumentException {
-		if (!isValidName(firstName)) {
-			throw new IllegalArgumentException("Invalid first name");
-		}
+		EmployeeValidator.check(EmployeeValidator.validateText(firstName, EmployeeValidator.Code.FIRST_NAME_BLANK));
+		EmployeeValidator.check(EmployeeValidator.validateLength(firstName, EmployeeValidator.Code.FIRST_NAME_TOO_LONG));
 		this.firstName = firstName;
 	}
 	public String getLastName() {
@@ -110,9 +131,8 @@ public class Employee {
 	}
 
 	public void setLastName(String lastName) throws IllegalArgumentException {
-		if (!isValidName(lastName)) {
-			throw new IllegalArgumentException("Invalid last name");
-		}
+		EmployeeValidator.check(EmployeeValidator.validateText(lastName, EmployeeValidator.Code.LAST_NAME_BLANK));
+		EmployeeValidator.check(EmployeeValidator.validateLength(lastName, EmployeeValidator.Code.LAST_NAME_TOO_LONG));
 		this.lastName = lastName;
 	}
 	public String getDescription() {
@@ -120,9 +140,8 @@ public class Employee {
 	}
 
 	public void setDescription(String description) throws IllegalArgumentException {
-		if (!isValidDescription(description)) {
-			throw new IllegalArgumentException("Invalid description");
-		}
+		EmployeeValidator.check(EmployeeValidator.validateText(description, EmployeeValidator.Code.DESCRIPTION_BLANK));
+		EmployeeValidator.check(EmployeeValidator.validateLength(description, EmployeeValidator.Code.DESCRIPTION_TOO_LONG));
 		this.description = description;
 	}
 
@@ -131,8 +150,8 @@ public class Employee {
 	}
 
 	public void setJobYears(Integer jobYears) throws IllegalArgumentException {
-		if (!isValidJobYears(jobYears)) {
-			throw new IllegalArgumentException("Invalid job years");
+		if (jobYears == null) {
+			throw new InvalidEmployeeException(EmployeeValidator.Code.JOB_YEARS_MISSING);
 		}
 		this.jobYears = jobYears;
 	}
@@ -142,9 +161,8 @@ public class Employee {
 	}
 
 	public void setEmail(String email) throws IllegalArgumentException {
-		if (!isValidEmail(email)) {
-			throw new IllegalArgumentException("Invalid email");
-		}
+		EmployeeValidator.check(EmployeeValidator.validateEmail(email));
+		EmployeeValidator.check(EmployeeValidator.validateLength(email, EmployeeValidator.Code.EMAIL_TOO_LONG));
 		this.email = email;
 	}
 	@Override
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.HandleBeforeSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Keeps the {@value #CACHE} cache in front of {@link EmployeeRepository#findById(Long)} consistent with writes
+ * made through the REST API.
+ *
+ * <p>Size and time based eviction are configured with {@code spring.cache.caffeine.spec} and show up in the
+ * {@code cache.evictions} metric, while invalidations triggered by writes are counted by
+ * {@code cache.invalidations}.
+ */
+// tag::code[]
+@Component
+@RepositoryEventHandler(Employee.class)
+public class EmployeeCacheEventHandler {
+
+	public static final String CACHE = "employees";
+
+	private final Cache cache;
+	private final Counter invalidations;
+
+	public EmployeeCacheEventHandler(CacheManager cacheManager, MeterRegistry meterRegistry) {
+		this.cache = cacheManager.getCache(CACHE);
+		this.invalidations = Counter.builder("cache.invalidations")
+				.description("Entries evicted because the employee was written through the API")
+				.tag("cache", CACHE)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Evicting before the save as well keeps readers from seeing an entry for a write that then fails.
+	 */
+	@HandleBeforeSave
+	@HandleAfterSave
+	public void onSave(Employee employee) {
+		evict(employee);
+	}
+
+	@HandleAfterDelete
+	public void onDelete(Employee employee) {
+		evict(employee);
+	}
+
+	private void evict(Employee employee) {
+		if (employee.getId() != null) {
+			cache.evict(employee.getId());
+			invalidations.increment();
+		}
+	}
+
+	/**
+	 * Only GET and HEAD requests share cached instances, since they never modify them.
+	 */
+	public static boolean isSafeRequest() {
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if (!(attributes instanceof ServletRequestAttributes servletAttributes)) {
+			return false;
+		}
+		String method = servletAttributes.getRequest().getMethod();
+		return HttpMethod.GET.matches(method) || HttpMethod.HEAD.matches(method);
+	}
+
+}
+// end::code[]
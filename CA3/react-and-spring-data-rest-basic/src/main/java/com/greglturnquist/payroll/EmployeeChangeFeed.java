@@ -0,0 +1,218 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.rest.core.event.AbstractRepositoryEventListener;
+import org.springframework.data.rest.webmvc.support.RepositoryEntityLinks;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Publishes employee creates, updates and deletes made through the REST API to Server-Sent Events subscribers.
+ *
+ * <p>Every subscriber gets a queue of {@code payroll.changes.buffer-size} events. Publishing never blocks: when
+ * a subscriber's queue is full it is considered too slow and is disconnected. No history is kept and
+ * {@code Last-Event-ID} is not replayed, so a client must reload the list whenever its {@code EventSource}
+ * reconnects, as app.js does; this also covers the {@code payroll.changes.timeout}. Events are rendered once and
+ * shared by all subscribers.
+ */
+// tag::code[]
+@Component
+public class EmployeeChangeFeed extends AbstractRepositoryEventListener<Employee> {
+
+	private static final Logger log = LoggerFactory.getLogger(EmployeeChangeFeed.class);
+
+	public record Change(String type, Long id, String href, Employee employee) {
+	}
+
+	private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final ExecutorService dispatcher;
+	private final ScheduledExecutorService heartbeat;
+	private final RepositoryEntityLinks entityLinks;
+	private final ObjectMapper objectMapper;
+	private final int bufferSize;
+	private final long timeoutMillis;
+
+	public EmployeeChangeFeed(RepositoryEntityLinks entityLinks, ObjectMapper objectMapper,
+			@Value("${payroll.changes.buffer-size:256}") int bufferSize,
+			@Value("${payroll.changes.timeout:30m}") Duration timeout,
+			@Value("${payroll.changes.dispatcher-threads:2}") int dispatcherThreads) {
+		this.entityLinks = entityLinks;
+		this.objectMapper = objectMapper;
+		this.bufferSize = bufferSize;
+		this.timeoutMillis = timeout.toMillis();
+		this.dispatcher = Executors.newFixedThreadPool(dispatcherThreads, daemonThreads("employee-changes-"));
+		this.heartbeat = Executors.newSingleThreadScheduledExecutor(daemonThreads("employee-changes-heartbeat-"));
+		this.heartbeat.scheduleAtFixedRate(this::sendHeartbeat, 15, 15, TimeUnit.SECONDS);
+	}
+
+	public SseEmitter subscribe() {
+		SseEmitter emitter = new SseEmitter(timeoutMillis);
+		Subscriber subscriber = new Subscriber(emitter, new ArrayBlockingQueue<>(bufferSize));
+		emitter.onCompletion(() -> subscribers.remove(subscriber));
+		emitter.onTimeout(() -> subscribers.remove(subscriber));
+		emitter.onError(e -> subscribers.remove(subscriber));
+		subscribers.add(subscriber);
+		return emitter;
+	}
+
+	public int getSubscriberCount() {
+		return subscribers.size();
+	}
+
+	@Override
+	protected void onAfterCreate(Employee employee) {
+		publish("created", employee);
+	}
+
+	@Override
+	protected void onAfterSave(Employee employee) {
+		publish("updated", employee);
+	}
+
+	@Override
+	protected void onAfterDelete(Employee employee) {
+		publish("deleted", employee);
+	}
+
+	/**
+	 * Tells subscribers to reload instead of sending one event per row, used after bulk writes.
+	 */
+	public void publishReset() {
+		publish(new Change("reset", null, null, null));
+	}
+
+	private void publish(String type, Employee employee) {
+		String href = entityLinks.linkToItemResource(Employee.class, employee.getId()).getHref();
+		publish(new Change(type, employee.getId(), href, "deleted".equals(type) ? null : employee));
+	}
+
+	private void publish(Change change) {
+		if (subscribers.isEmpty()) {
+			return;
+		}
+		String data;
+		try {
+			data = objectMapper.writeValueAsString(change);
+		}
+		catch (JsonProcessingException e) {
+			log.warn("Could not render change event for employee {}", change.id(), e);
+			return;
+		}
+		offer(SseEmitter.event()
+				.id(Long.toString(sequence.incrementAndGet()))
+				.name(change.type())
+				.data(data, MediaType.APPLICATION_JSON)
+				.build());
+	}
+
+	private void sendHeartbeat() {
+		if (!subscribers.isEmpty()) {
+			offer(SseEmitter.event().comment("heartbeat").build());
+		}
+	}
+
+	private void offer(Set<DataWithMediaType> event) {
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.queue.offer(event)) {
+				subscriber.schedule();
+			}
+			else {
+				log.debug("Dropping slow change feed subscriber");
+				subscribers.remove(subscriber);
+				subscriber.emitter.complete();
+			}
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		heartbeat.shutdownNow();
+		dispatcher.shutdownNow();
+		subscribers.forEach(subscriber -> subscriber.emitter.complete());
+	}
+
+	private static CustomizableThreadFactory daemonThreads(String prefix) {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+		threadFactory.setDaemon(true);
+		return threadFactory;
+	}
+
+	private class Subscriber {
+
+		private final SseEmitter emitter;
+		private final BlockingQueue<Set<DataWithMediaType>> queue;
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		Subscriber(SseEmitter emitter, BlockingQueue<Set<DataWithMediaType>> queue) {
+			this.emitter = emitter;
+			this.queue = queue;
+		}
+
+		void schedule() {
+			if (scheduled.compareAndSet(false, true)) {
+				dispatcher.execute(this::drain);
+			}
+		}
+
+		private void drain() {
+			Set<DataWithMediaType> event;
+			try {
+				while ((event = queue.poll()) != null) {
+					emitter.send(event);
+				}
+			}
+			catch (IOException | IllegalStateException e) {
+				subscribers.remove(this);
+				emitter.completeWithError(e);
+				return;
+			}
+			finally {
+				scheduled.set(false);
+			}
+			// An event offered between the last poll and the reset above still needs a drain
+			if (!queue.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+
+}
+// end::code[]
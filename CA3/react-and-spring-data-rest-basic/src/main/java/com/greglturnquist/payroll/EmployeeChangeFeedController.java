@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import org.springframework.data.rest.webmvc.RepositoryRestController;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * {@code GET /api/employees/changes} is a {@code text/event-stream} of {@code created}, {@code updated},
+ * {@code deleted} and {@code reset} events, see {@link EmployeeChangeFeed}.
+ */
+// tag::code[]
+@RepositoryRestController
+public class EmployeeChangeFeedController {
+
+	private final EmployeeChangeFeed changeFeed;
+
+	public EmployeeChangeFeedController(EmployeeChangeFeed changeFeed) {
+		this.changeFeed = changeFeed;
+	}
+
+	@GetMapping("/employees/changes")
+	public SseEmitter changes() {
+		return changeFeed.subscribe();
+	}
+
+}
+// end::code[]
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.rest.core.config.RepositoryRestConfiguration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Conditional GET for the employee collection resource.
+ *
+ * <p>The ETag is derived from {@link EmployeeCollectionVersion} plus the query string and {@code Accept} header,
+ * so a matching {@code If-None-Match} is answered with {@code 304 Not Modified} before the repository is called.
+ * Item resources get their ETag from {@link Employee}'s version column through Spring Data REST itself.
+ * Turned off with {@code payroll.collection-etag.enabled=false}.
+ */
+// tag::code[]
+@Component
+@ConditionalOnProperty(name = "payroll.collection-etag.enabled", matchIfMissing = true)
+public class EmployeeCollectionETagFilter extends OncePerRequestFilter {
+
+	private final EmployeeCollectionVersion collectionVersion;
+	private final String collectionPath;
+
+	public EmployeeCollectionETagFilter(EmployeeCollectionVersion collectionVersion,
+			RepositoryRestConfiguration restConfiguration) {
+		this.collectionVersion = collectionVersion;
+		this.collectionPath = restConfiguration.getBasePath().getPath() + "/employees";
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		String method = request.getMethod();
+		if (!HttpMethod.GET.matches(method) && !HttpMethod.HEAD.matches(method)) {
+			return true;
+		}
+		return !collectionPath.equals(request.getRequestURI().substring(request.getContextPath().length()));
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+
+		// Read the version before the query runs: a concurrent write can only make the tag older than the body
+		String etag = etag(request);
+		response.setHeader(HttpHeaders.ETAG, etag);
+		response.setHeader(HttpHeaders.CACHE_CONTROL, "no-cache");
+
+		if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		chain.doFilter(request, response);
+	}
+
+	private String etag(HttpServletRequest request) {
+		int variant = 31 * String.valueOf(request.getQueryString()).hashCode()
+				+ String.valueOf(request.getHeader(HttpHeaders.ACCEPT)).hashCode();
+		return "W/\"" + collectionVersion.current() + "." + Integer.toHexString(variant) + "\"";
+	}
+
+	/**
+	 * Weak comparison, as {@code If-None-Match} requires: {@code W/"x"} and {@code "x"} match each other.
+	 */
+	static boolean matches(String ifNoneMatch, String etag) {
+		if (!StringUtils.hasText(ifNoneMatch)) {
+			return false;
+		}
+		String opaqueTag = opaque(etag);
+		for (String candidate : StringUtils.commaDelimitedListToStringArray(ifNoneMatch)) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || opaque(candidate).equals(opaqueTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String opaque(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+}
+// end::code[]
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Table-level version of the employee collection, bumped after every committed write made through this
+ * application. It answers "has anything changed?" without touching a single row.
+ *
+ * <p>Writes made behind the application's back (the H2 console, another web node) are not observed; the
+ * {@link #current()} value starts from the boot time so a restart never reuses an old version.
+ */
+// tag::code[]
+@Component
+@RepositoryEventHandler(Employee.class)
+public class EmployeeCollectionVersion {
+
+	private final long epoch = System.currentTimeMillis();
+	private final AtomicLong generation = new AtomicLong();
+
+	public String current() {
+		return Long.toString(epoch, 36) + "." + generation.get();
+	}
+
+	@HandleAfterCreate
+	@HandleAfterSave
+	@HandleAfterDelete
+	public void onWrite(Employee employee) {
+		generation.incrementAndGet();
+	}
+
+	@EventListener
+	public void onImport(EmployeesImportedEvent event) {
+		generation.incrementAndGet();
+	}
+
+}
+// end::code[]
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.data.rest.webmvc.RepositoryRestController;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * {@code GET /api/employees/export?format=ndjson|csv} streams every employee to the client for the payroll system.
+ */
+// tag::code[]
+@RepositoryRestController
+public class EmployeeExportController {
+
+	private final EmployeeExportService exportService;
+
+	public EmployeeExportController(EmployeeExportService exportService) {
+		this.exportService = exportService;
+	}
+
+	@GetMapping("/employees/export")
+	public void export(@RequestParam(value = "format", defaultValue = "ndjson") String format,
+			HttpServletResponse response) throws IOException {
+
+		EmployeeExportService.Format exportFormat;
+		try {
+			exportFormat = EmployeeExportService.Format.valueOf(format.toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported export format: " + format);
+			return;
+		}
+
+		response.setContentType(exportFormat.getContentType());
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+				"attachment; filename=\"employees." + exportFormat.name().toLowerCase() + "\"");
+		exportService.export(exportFormat, response.getOutputStream());
+	}
+
+}
+// end::code[]
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Writes the whole employee table to an output stream, one row at a time.
+ *
+ * <p>Rows come from {@link EmployeeRepository#streamAllByOrderByIdAsc()} and are detached from the persistence
+ * context as soon as they are written, so the heap holds one fetch window no matter how large the table is.
+ * Writes go straight to the given stream: when the client reads slowly the write blocks, which in turn stops
+ * the cursor from being advanced.
+ */
+// tag::code[]
+@Service
+public class EmployeeExportService {
+
+	public enum Format {
+		NDJSON("application/x-ndjson"), CSV("text/csv");
+
+		private final String contentType;
+
+		Format(String contentType) {
+			this.contentType = contentType;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+	}
+
+	static final String CSV_HEADER = "id,firstName,lastName,description,jobYears,email\r\n";
+
+	private final EmployeeRepository repository;
+	private final EntityManager entityManager;
+	private final ObjectMapper objectMapper;
+
+	public EmployeeExportService(EmployeeRepository repository, EntityManager entityManager, ObjectMapper objectMapper) {
+		this.repository = repository;
+		this.entityManager = entityManager;
+		this.objectMapper = objectMapper;
+	}
+
+	@Transactional(readOnly = true)
+	public void export(Format format, OutputStream out) throws IOException {
+		try (Stream<Employee> employees = repository.streamAllByOrderByIdAsc()) {
+			switch (format) {
+				case NDJSON -> writeNdjson(employees, out);
+				case CSV -> writeCsv(employees, out);
+			}
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private void writeNdjson(Stream<Employee> employees, OutputStream out) throws IOException {
+		try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+			generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+			employees.forEachOrdered(employee -> {
+				try {
+					generator.writeObject(employee);
+					generator.writeRaw('\n');
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				entityManager.detach(employee);
+			});
+		}
+	}
+
+	private void writeCsv(Stream<Employee> employees, OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		writer.write(CSV_HEADER);
+		employees.forEachOrdered(employee -> {
+			try {
+				writer.write(String.valueOf(employee.getId()));
+				writer.write(',');
+				writeCsvField(writer, employee.getFirstName());
+				writer.write(',');
+				writeCsvField(writer, employee.getLastName());
+				writer.write(',');
+				writeCsvField(writer, employee.getDescription());
+				writer.write(',');
+				writer.write(String.valueOf(employee.getJobYears()));
+				writer.write(',');
+				writeCsvField(writer, employee.getEmail());
+				writer.write("\r\n");
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			entityManager.detach(employee);
+		});
+		writer.flush();
+	}
+
+	/**
+	 * RFC 4180 quoting: fields holding a separator, a quote or a line break are quoted and quotes are doubled.
+	 */
+	static void writeCsvField(Writer writer, String value) throws IOException {
+		if (value == null) {
+			return;
+		}
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; i++) {
+			char c = value.charAt(i);
+			quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+		}
+		if (!quote) {
+			writer.write(value);
+			return;
+		}
+		writer.write('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				writer.write('"');
+			}
+			writer.write(c);
+		}
+		writer.write('"');
+	}
+
+}
+// end::code[]
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceException;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGenerator;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+
+/**
+ * Employee ids drawn ahead of time from the same Hibernate generator as {@link Employee#getId()}, so that
+ * {@link WriteBehindWriter} can acknowledge a create while the database is unreachable.
+ */
+// tag::code[]
+class EmployeeIdReserve {
+
+	private final SessionFactoryImplementor sessionFactory;
+	private final IdentifierGenerator generator;
+	private final int capacity;
+	private final Deque<Long> ids = new ArrayDeque<>();
+
+	EmployeeIdReserve(EntityManagerFactory entityManagerFactory, int capacity) {
+		this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+		this.generator = (IdentifierGenerator) sessionFactory.getMappingMetamodel()
+				.getEntityDescriptor(Employee.class).getGenerator();
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @throws DataAccessResourceFailureException if the reserve is used up and the database is unreachable
+	 */
+	synchronized long take() {
+		if (ids.isEmpty()) {
+			refill();
+		}
+		return ids.removeFirst();
+	}
+
+	synchronized int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Tops the reserve up to its capacity.
+	 */
+	synchronized void refill() {
+		if (ids.size() >= capacity) {
+			return;
+		}
+		try (StatelessSession session = sessionFactory.openStatelessSession()) {
+			while (ids.size() < capacity) {
+				ids.addLast(((Number) generator.generate((SharedSessionContractImplementor) session, null)).longValue());
+			}
+		}
+		catch (PersistenceException e) {
+			throw new DataAccessResourceFailureException("Could not reserve employee ids", e);
+		}
+	}
+
+}
+// end::code[]
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.data.rest.webmvc.RepositoryRestController;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+
+/**
+ * {@code POST /api/employees/import} accepts a JSON array or an NDJSON stream of employees and answers with an
+ * {@link EmployeeImportService.Report} listing the rows that were rejected.
+ */
+// tag::code[]
+@RepositoryRestController
+public class EmployeeImportController {
+
+	static final String NDJSON = "application/x-ndjson";
+
+	private final EmployeeImportService importService;
+
+	public EmployeeImportController(EmployeeImportService importService) {
+		this.importService = importService;
+	}
+
+	@PostMapping(value = "/employees/import", consumes = { MediaType.APPLICATION_JSON_VALUE, NDJSON })
+	public ResponseEntity<EmployeeImportService.Report> importEmployees(InputStream body) throws IOException {
+		return ResponseEntity.ok(importService.importEmployees(body));
+	}
+
+}
+// end::code[]
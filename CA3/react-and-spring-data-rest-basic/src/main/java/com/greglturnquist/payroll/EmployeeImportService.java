@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Bulk import of employees.
+ *
+ * <p>Rows are read one at a time from a JSON array or an NDJSON stream, validated a batch at a time with
+ * {@link EmployeeValidator#validateAll(List)} and inserted in transactions of {@code payroll.import.batch-size}
+ * rows, which is also used as the Hibernate JDBC batch size. Invalid rows are reported back and never abort the rows around them.
+ * With the {@code sharded} profile the batches go to {@link ShardedEmployeeStore#insertAll(List)} instead.
+ */
+// tag::code[]
+@Service
+public class EmployeeImportService {
+
+	private static final Logger log = LoggerFactory.getLogger(EmployeeImportService.class);
+
+	private final EntityManager entityManager;
+	private final ApplicationEventPublisher eventPublisher;
+	private final EmployeeChangeFeed changeFeed;
+	private final TransactionTemplate transactionTemplate;
+	private final ObjectReader rowReader;
+	private final ShardedEmployeeStore shardedStore;
+	private final int batchSize;
+
+	public EmployeeImportService(EntityManager entityManager, ApplicationEventPublisher eventPublisher,
+			EmployeeChangeFeed changeFeed, PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+			ObjectProvider<ShardedEmployeeStore> shardedStore, @Value("${payroll.import.batch-size:500}") int batchSize) {
+		this.entityManager = entityManager;
+		this.eventPublisher = eventPublisher;
+		this.changeFeed = changeFeed;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.rowReader = objectMapper.readerFor(Row.class);
+		this.shardedStore = shardedStore.getIfAvailable();
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Imports every row of {@code input}, which may hold either a single JSON array or whitespace separated
+	 * JSON objects (NDJSON). Rows are numbered from 1 in the order they appear.
+	 */
+	public Report importEmployees(InputStream input) throws IOException {
+		Report report = new Report();
+		List<Row> batch = new ArrayList<>(batchSize);
+		List<Integer> batchRows = new ArrayList<>(batchSize);
+		int rowNumber = 0;
+
+		try (MappingIterator<Row> rows = rowReader.readValues(input)) {
+			while (true) {
+				Row row;
+				rowNumber++;
+				try {
+					if (!rows.hasNextValue()) {
+						break;
+					}
+					row = rows.nextValue();
+				}
+				catch (JsonProcessingException e) {
+					// Bad field types are skipped by the iterator, broken syntax ends the stream
+					report.reject(rowNumber, e.getOriginalMessage());
+					if (e instanceof JsonParseException) {
+						break;
+					}
+					continue;
+				}
+
+				batch.add(row);
+				batchRows.add(rowNumber);
+				if (batch.size() == batchSize) {
+					flush(batch, batchRows, report);
+				}
+			}
+		}
+		flush(batch, batchRows, report);
+		if (report.imported > 0) {
+			changeFeed.publishReset();
+		}
+		return report;
+	}
+
+	private void flush(List<Row> batch, List<Integer> batchRows, Report report) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<Row> valid = new ArrayList<>(batch.size());
+		List<Integer> validRows = new ArrayList<>(batch.size());
+		List<EmployeeValidator.Violation> violations = EmployeeValidator.validateAll(batch);
+		int next = 0;
+		for (int i = 0; i < batch.size(); i++) {
+			if (next < violations.size() && violations.get(next).index() == i) {
+				report.reject(batchRows.get(i), violations.get(next++).code());
+			}
+			else {
+				valid.add(batch.get(i));
+				validRows.add(batchRows.get(i));
+			}
+		}
+		batch.clear();
+		batchRows.clear();
+		if (valid.isEmpty()) {
+			return;
+		}
+
+		try {
+			insert(valid.stream().map(Row::toEmployee).toList());
+			report.imported += valid.size();
+		}
+		catch (RuntimeException e) {
+			// Fall back to one row per transaction so only the offending rows are rejected. Each row gets a new
+			// entity: the failed batch left its own with an id and version, which persist takes for detached
+			log.debug("Batch of {} rows failed, retrying row by row", valid.size(), e);
+			for (int i = 0; i < valid.size(); i++) {
+				try {
+					insert(List.of(valid.get(i).toEmployee()));
+					report.imported++;
+				}
+				catch (RuntimeException rowFailure) {
+					report.reject(validRows.get(i), rowFailure.getMessage());
+				}
+			}
+		}
+	}
+
+	private void insert(List<Employee> employees) {
+		if (shardedStore != null) {
+			shardedStore.insertAll(employees);
+			eventPublisher.publishEvent(new EmployeesImportedEvent(List.copyOf(employees)));
+			return;
+		}
+		transactionTemplate.executeWithoutResult(status -> {
+			entityManager.unwrap(Session.class).setJdbcBatchSize(batchSize);
+			for (Employee employee : employees) {
+				entityManager.persist(employee);
+			}
+			entityManager.flush();
+			entityManager.clear();
+		});
+		eventPublisher.publishEvent(new EmployeesImportedEvent(List.copyOf(employees)));
+	}
+
+	/**
+	 * One row of the import payload.
+	 */
+	public record Row(String firstName, String lastName, String description, Integer jobYears, String email)
+			implements EmployeeValidator.Candidate {
+
+		Employee toEmployee() {
+			return new Employee(firstName, lastName, description, jobYears, email);
+		}
+	}
+
+	/**
+	 * A rejected row and the reason it was rejected; {@code code} is only set for rows that broke a field rule.
+	 */
+	public record RowError(int row, EmployeeValidator.Code code, String message) {
+	}
+
+	/**
+	 * Outcome of an import.
+	 */
+	public static class Report {
+
+		private int imported;
+		private final List<RowError> errors = new ArrayList<>();
+
+		void reject(int row, String message) {
+			errors.add(new RowError(row, null, message));
+		}
+
+		void reject(int row, EmployeeValidator.Code code) {
+			errors.add(new RowError(row, code, code.getMessage()));
+		}
+
+		public int getImported() {
+			return imported;
+		}
+
+		public int getFailed() {
+			return errors.size();
+		}
+
+		public List<RowError> getErrors() {
+			return errors;
+		}
+	}
+
+}
+// end::code[]
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of employee writes, stored in fixed-size, memory-mapped segment files.
+ *
+ * <p>Each entry is a frame of {@code [length][CRC32C][JSON]}; a zero length marks the end of a segment's
+ * data, and a frame whose checksum does not match is a write torn by a crash, which was never acknowledged.
+ * {@link #append(Entry)} returns once its frame is on disk. Concurrent appends share the fsync (group commit):
+ * one caller forces every frame written so far while the others wait, and find their own frame already
+ * durable. {@link #seal()} closes the segment being written and starts a new one, so that segments holding
+ * only entries already stored in the database can be deleted as a whole. Segments found on disk when the
+ * journal is opened are left over from a previous run and are returned by {@link #sealed()} for replay.
+ * Entries the database refused are kept in {@linkplain #deadLetter(List) dead-letter files} of the same format,
+ * which are never replayed.
+ */
+// tag::code[]
+public class EmployeeJournal implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger(EmployeeJournal.class);
+
+	private static final String PREFIX = "employee-journal-";
+	private static final String SUFFIX = ".log";
+	private static final String DEAD_LETTER_PREFIX = "employee-dead-letter-";
+	private static final int HEADER = 2 * Integer.BYTES;
+
+	public enum Type {
+		CREATE, UPDATE, DELETE
+	}
+
+	/**
+	 * One acknowledged write. Creates and updates carry the whole employee as it must be stored.
+	 */
+	public record Entry(long sequence, Type type, long id, String firstName, String lastName, String description,
+			Integer jobYears, String email, long version) {
+
+		static Entry of(long sequence, Type type, Employee employee) {
+			return new Entry(sequence, type, employee.getId(), employee.getFirstName(), employee.getLastName(),
+					employee.getDescription(), employee.getJobYears(), employee.getEmail(), employee.getVersion());
+		}
+
+		static Entry deleted(long sequence, long id) {
+			return new Entry(sequence, Type.DELETE, id, null, null, null, null, null, 0);
+		}
+
+		Entry as(Type type) {
+			return new Entry(sequence, type, id, firstName, lastName, description, jobYears, email, version);
+		}
+
+		// Not validated: snapshot entries are loaded from rows, which may predate a rule, such as a NULL job_years
+		Employee toEmployee() {
+			return Employee.stored(id, firstName, lastName, description, jobYears, email, version);
+		}
+	}
+
+	private final Path directory;
+	private final ObjectMapper objectMapper;
+	private final int segmentSize;
+	private final List<Path> sealed = new ArrayList<>();
+	private final ReentrantLock forceLock = new ReentrantLock();
+	// Offset over all segments (segment * segmentSize + position) up to which frames are forced to disk
+	private final AtomicLong durable = new AtomicLong();
+	private long segment;
+	private MappedByteBuffer buffer;
+	private int position;
+	// Segment being written and the offset of the end of its last frame, read by the thread forcing it
+	private volatile Tail tail;
+
+	private record Tail(MappedByteBuffer buffer, long written) {
+	}
+
+	public EmployeeJournal(Path directory, ObjectMapper objectMapper, int segmentSize) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.objectMapper = objectMapper;
+		this.segmentSize = segmentSize;
+		try (Stream<Path> files = Files.list(directory)) {
+			files.filter(EmployeeJournal::isSegment).sorted().forEach(sealed::add);
+		}
+		this.segment = sealed.isEmpty() ? 0 : number(sealed.get(sealed.size() - 1));
+		open();
+	}
+
+	public void append(Entry entry) throws IOException {
+		byte[] payload = objectMapper.writeValueAsBytes(entry);
+		if (HEADER + payload.length + Integer.BYTES > segmentSize) {
+			throw new IOException("Journal entry of " + payload.length + " bytes does not fit in a segment");
+		}
+		long end;
+		synchronized (this) {
+			if (position + HEADER + payload.length + Integer.BYTES > segmentSize) {
+				rotate();
+			}
+			CRC32C crc = new CRC32C();
+			crc.update(payload);
+			// Payload and checksum first, length last: a frame becomes visible to a reader only when complete
+			buffer.putInt(position + Integer.BYTES, (int) crc.getValue());
+			buffer.put(position + HEADER, payload);
+			buffer.putInt(position, payload.length);
+			position += HEADER + payload.length;
+			end = segment * segmentSize + position;
+			tail = new Tail(buffer, end);
+		}
+		awaitDurable(end);
+	}
+
+	/**
+	 * Closes the current segment, unless it is still empty, starts a new one, and returns every segment not yet
+	 * deleted, oldest first.
+	 */
+	public synchronized List<Path> seal() throws IOException {
+		if (position > 0) {
+			rotate();
+		}
+		return List.copyOf(sealed);
+	}
+
+	public synchronized List<Path> sealed() {
+		return List.copyOf(sealed);
+	}
+
+	public synchronized void delete(List<Path> segments) throws IOException {
+		for (Path path : segments) {
+			Files.deleteIfExists(path);
+			sealed.remove(path);
+		}
+	}
+
+	/**
+	 * Writes {@code entries} to a new dead-letter file next to the segments and forces it to disk. The file can
+	 * be read back with {@link #read(List)} but is not a segment, so it is neither replayed nor deleted.
+	 *
+	 * @return the file written
+	 */
+	public Path deadLetter(List<Entry> entries) throws IOException {
+		ByteArrayOutputStream frames = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(frames);
+		for (Entry entry : entries) {
+			byte[] payload = objectMapper.writeValueAsBytes(entry);
+			CRC32C crc = new CRC32C();
+			crc.update(payload);
+			out.writeInt(payload.length);
+			out.writeInt((int) crc.getValue());
+			out.write(payload);
+		}
+		Path path = Files.createTempFile(directory, DEAD_LETTER_PREFIX, SUFFIX);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			ByteBuffer data = ByteBuffer.wrap(frames.toByteArray());
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+			channel.force(true);
+		}
+		return path;
+	}
+
+	/**
+	 * The entries of {@code segments} in the order they were appended, up to the first incomplete frame of each.
+	 */
+	public List<Entry> read(List<Path> segments) throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		for (Path path : segments) {
+			ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+			while (data.remaining() >= HEADER) {
+				int length = data.getInt();
+				int checksum = data.getInt();
+				if (length <= 0 || length > data.remaining()) {
+					break;
+				}
+				byte[] payload = new byte[length];
+				data.get(payload);
+				CRC32C crc = new CRC32C();
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum) {
+					log.warn("Skipping torn journal entry at the end of {}", path.getFileName());
+					break;
+				}
+				entries.add(objectMapper.readValue(payload, Entry.class));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Forces the segment being written and deletes it if nothing was appended to it.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		buffer.force();
+		if (position == 0) {
+			Files.deleteIfExists(path(segment));
+		}
+	}
+
+	/**
+	 * Leader/follower group commit: whoever holds the lock forces everything written so far.
+	 */
+	private void awaitDurable(long end) {
+		if (durable.get() >= end) {
+			return;
+		}
+		forceLock.lock();
+		try {
+			if (durable.get() >= end) {
+				return;
+			}
+			Tail written = tail;
+			written.buffer().force();
+			durable.accumulateAndGet(written.written(), Math::max);
+		}
+		finally {
+			forceLock.unlock();
+		}
+	}
+
+	// Callers hold the monitor
+	private void rotate() throws IOException {
+		buffer.force();
+		durable.accumulateAndGet(segment * segmentSize + position, Math::max);
+		sealed.add(path(segment));
+		open();
+	}
+
+	private void open() throws IOException {
+		segment++;
+		try (RandomAccessFile file = new RandomAccessFile(path(segment).toFile(), "rw")) {
+			file.setLength(segmentSize);
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+		}
+		position = 0;
+		tail = new Tail(buffer, segment * segmentSize);
+		durable.accumulateAndGet(segment * segmentSize, Math::max);
+	}
+
+	private Path path(long number) {
+		return directory.resolve(String.format("%s%010d%s", PREFIX, number, SUFFIX));
+	}
+
+	private static boolean isSegment(Path path) {
+		String name = path.getFileName().toString();
+		return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+	}
+
+	private static long number(Path path) {
+		String name = path.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+
+}
+// end::code[]
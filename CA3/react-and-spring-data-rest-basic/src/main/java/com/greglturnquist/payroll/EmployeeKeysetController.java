@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.rest.webmvc.PersistentEntityResource;
+import org.springframework.data.rest.webmvc.PersistentEntityResourceAssembler;
+import org.springframework.data.rest.webmvc.RepositoryRestController;
+import org.springframework.data.rest.webmvc.support.RepositoryEntityLinks;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+/**
+ * Cursor mode for the employee collection resource.
+ *
+ * <p>{@code GET /api/employees?after=<id>&size=N} returns the {@code N} employees that follow {@code id} in
+ * primary key order, together with a {@code next} link carrying the last id of the page as the new cursor.
+ * Requests without {@code after} keep being served by Spring Data REST's regular paged collection resource.
+ */
+// tag::code[]
+@RepositoryRestController
+public class EmployeeKeysetController {
+
+	private final EmployeeRepository repository;
+	private final RepositoryEntityLinks entityLinks;
+	private final int maxPageSize;
+
+	public EmployeeKeysetController(EmployeeRepository repository, RepositoryEntityLinks entityLinks,
+			@Value("${spring.data.rest.max-page-size:1000}") int maxPageSize) {
+		this.repository = repository;
+		this.entityLinks = entityLinks;
+		this.maxPageSize = maxPageSize;
+	}
+
+	@GetMapping(value = "/employees", params = "after")
+	public ResponseEntity<CollectionModel<PersistentEntityResource>> seek(@RequestParam("after") long after,
+			@RequestParam(value = "size", defaultValue = "${spring.data.rest.default-page-size:20}") int size,
+			PersistentEntityResourceAssembler assembler) {
+
+		if (size < 1) {
+			return ResponseEntity.badRequest().build();
+		}
+		int pageSize = Math.min(size, maxPageSize);
+
+		// Fetch one extra row to find out whether a next page exists without a count query
+		List<Employee> rows = repository.findByIdGreaterThanOrderByIdAsc(after, Limit.of(pageSize + 1));
+		boolean hasNext = rows.size() > pageSize;
+		List<Employee> page = hasNext ? rows.subList(0, pageSize) : rows;
+
+		CollectionModel<PersistentEntityResource> model = CollectionModel.of(page.stream().map(assembler::toModel).toList());
+		model.add(Link.of(ServletUriComponentsBuilder.fromCurrentRequest().build(true).toUriString()).withSelfRel());
+		if (hasNext) {
+			model.add(cursorLink(page.get(page.size() - 1).getId(), pageSize).withRel(IanaLinkRelations.NEXT));
+		}
+		model.add(entityLinks.linkToCollectionResource(Employee.class).withRel("first"));
+		return ResponseEntity.ok(model);
+	}
+
+	private Link cursorLink(long after, int size) {
+		return Link.of(ServletUriComponentsBuilder.fromCurrentRequest()
+				.replaceQueryParam("after", after)
+				.replaceQueryParam("size", size)
+				.build(true)
+				.toUriString());
+	}
+
+}
+// end::code[]
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.event.AbstractRepositoryEventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Type-ahead over employee names, backed by a {@link NameTrie}.
+ *
+ * <p>Every employee is reachable by its first name, its last name and its full name, case-insensitively. Like
+ * {@link EmployeeSearchIndex} it is loaded once the application is ready and then follows the repository events.
+ */
+// tag::code[]
+@Component
+public class EmployeeNameSuggester extends AbstractRepositoryEventListener<Employee> {
+
+	public record Suggestion(long id, String firstName, String lastName) {
+	}
+
+	private final NameTrie trie = new NameTrie();
+	private final Map<Long, Suggestion> suggestions = new HashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final EmployeeRepository repository;
+	private final TransactionTemplate readOnlyTransaction;
+
+	public EmployeeNameSuggester(EmployeeRepository repository, PlatformTransactionManager transactionManager) {
+		this.repository = repository;
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void rebuild() {
+		readOnlyTransaction.executeWithoutResult(status -> {
+			try (Stream<Employee> employees = repository.streamAllByOrderByIdAsc()) {
+				employees.forEach(this::add);
+			}
+		});
+	}
+
+	@Override
+	protected void onAfterCreate(Employee employee) {
+		add(employee);
+	}
+
+	@Override
+	protected void onAfterSave(Employee employee) {
+		add(employee);
+	}
+
+	@Override
+	protected void onAfterDelete(Employee employee) {
+		remove(employee.getId());
+	}
+
+	@EventListener
+	public void onImport(EmployeesImportedEvent event) {
+		event.employees().forEach(this::add);
+	}
+
+	public void add(Employee employee) {
+		Suggestion suggestion = new Suggestion(employee.getId(), employee.getFirstName().intern(),
+				employee.getLastName().intern());
+		lock.writeLock().lock();
+		try {
+			removeLocked(employee.getId());
+			suggestions.put(suggestion.id(), suggestion);
+			for (String key : keys(suggestion)) {
+				trie.add(key, suggestion.id());
+			}
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(Long id) {
+		lock.writeLock().lock();
+		try {
+			removeLocked(id);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void removeLocked(Long id) {
+		Suggestion previous = suggestions.remove(id);
+		if (previous != null) {
+			for (String key : keys(previous)) {
+				trie.remove(key, id);
+			}
+		}
+	}
+
+	/**
+	 * Up to {@code limit} employees with a name starting with {@code prefix}, in name order.
+	 */
+	public List<Suggestion> suggest(String prefix, int limit) {
+		String key = normalize(prefix);
+		lock.readLock().lock();
+		try {
+			List<Suggestion> result = new ArrayList<>(limit);
+			for (Long id : trie.prefixed(key, limit)) {
+				result.add(suggestions.get(id));
+			}
+			return result;
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private static String[] keys(Suggestion suggestion) {
+		String firstName = normalize(suggestion.firstName());
+		String lastName = normalize(suggestion.lastName());
+		return new String[] { firstName, lastName, firstName + " " + lastName };
+	}
+
+	static String normalize(String name) {
+		return name.strip().toLowerCase(Locale.ROOT);
+	}
+
+}
+// end::code[]
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.rest.core.config.RepositoryRestConfiguration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+/**
+ * Single-flight for {@code GET /api/employees} and {@code GET /api/employees/{id}}.
+ *
+ * <p>The first of several identical requests in flight runs as usual while its response is buffered; the others
+ * wait for it and are answered with a copy of its status, headers and body, so the query and the serialization
+ * run once. Requests are identical when their path, query string, {@code Accept}, conditional and
+ * {@code Cookie} headers match and no write was made since the first one started (see
+ * {@link EmployeeCollectionVersion}), so a client never gets a response older than its own last write.
+ * Only {@code 200} and {@code 304} responses are shared; after anything else the waiting requests run on
+ * their own. Turned off with {@code payroll.coalescing.enabled=false}.
+ */
+// tag::code[]
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 20)
+@ConditionalOnProperty(name = "payroll.coalescing.enabled", matchIfMissing = true)
+public class EmployeeReadCoalescingFilter extends OncePerRequestFilter {
+
+	private static final String[] KEY_HEADERS = { HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_LANGUAGE,
+			HttpHeaders.IF_NONE_MATCH, HttpHeaders.IF_MODIFIED_SINCE, HttpHeaders.COOKIE };
+
+	private final EmployeeCollectionVersion collectionVersion;
+	private final Pattern coalescedPaths;
+	private final Map<String, CompletableFuture<RenderedResponse>> inFlight = new ConcurrentHashMap<>();
+	private final AtomicInteger waiting = new AtomicInteger();
+	private final Counter coalesced;
+
+	public EmployeeReadCoalescingFilter(EmployeeCollectionVersion collectionVersion,
+			RepositoryRestConfiguration restConfiguration, MeterRegistry meterRegistry) {
+		this.collectionVersion = collectionVersion;
+		this.coalescedPaths = Pattern.compile(Pattern.quote(restConfiguration.getBasePath().getPath() + "/employees")
+				+ "(/\\d+)?");
+		this.coalesced = Counter.builder("payroll.requests.coalesced")
+				.description("Requests answered with the response of an identical request already in flight")
+				.register(meterRegistry);
+		Gauge.builder("payroll.requests.coalescing.waiting", waiting, AtomicInteger::get)
+				.description("Requests waiting for an identical request in flight")
+				.register(meterRegistry);
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !HttpMethod.GET.matches(request.getMethod()) || !coalescedPaths.matcher(
+				request.getRequestURI().substring(request.getContextPath().length())).matches();
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+
+		String key = key(request);
+		CompletableFuture<RenderedResponse> flight = new CompletableFuture<>();
+		CompletableFuture<RenderedResponse> leader = inFlight.putIfAbsent(key, flight);
+		if (leader != null) {
+			RenderedResponse rendered = await(leader);
+			if (rendered != null) {
+				coalesced.increment();
+				rendered.writeTo(response);
+				return;
+			}
+			chain.doFilter(request, response);
+			return;
+		}
+
+		ContentCachingResponseWrapper buffered = new ContentCachingResponseWrapper(response);
+		RenderedResponse rendered = null;
+		try {
+			chain.doFilter(request, buffered);
+			if (!request.isAsyncStarted() && (response.getStatus() == HttpServletResponse.SC_OK
+					|| response.getStatus() == HttpServletResponse.SC_NOT_MODIFIED)) {
+				rendered = RenderedResponse.of(response, buffered.getContentAsByteArray());
+			}
+		}
+		finally {
+			// Leave the map first, so requests arriving from now on start a flight of their own
+			inFlight.remove(key, flight);
+			flight.complete(rendered);
+			buffered.copyBodyToResponse();
+		}
+	}
+
+	/**
+	 * @return the leader's response, or {@code null} if it is not to be shared
+	 */
+	private RenderedResponse await(CompletableFuture<RenderedResponse> leader) {
+		waiting.incrementAndGet();
+		try {
+			return leader.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		catch (ExecutionException e) {
+			return null;
+		}
+		finally {
+			waiting.decrementAndGet();
+		}
+	}
+
+	private String key(HttpServletRequest request) {
+		StringBuilder key = new StringBuilder(collectionVersion.current())
+				.append(' ').append(request.getRequestURI())
+				.append('?').append(request.getQueryString());
+		for (String header : KEY_HEADERS) {
+			key.append('\n').append(request.getHeader(header));
+		}
+		return key.toString();
+	}
+
+}
+// end::code[]
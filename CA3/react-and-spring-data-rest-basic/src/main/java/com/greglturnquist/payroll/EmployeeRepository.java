@@ -15,13 +15,84 @@
  */
 package com.greglturnquist.payroll;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 /**
  * @author Greg Turnquist
  */
 // tag::code[]
-public interface EmployeeRepository extends CrudRepository<Employee, Long> { // <1>
+@RepositoryRestResource(excerptProjection = EmployeeSummary.class)
+public interface EmployeeRepository extends PagingAndSortingRepository<Employee, Long>, CrudRepository<Employee, Long> { // <1>
+
+	String STREAM_FETCH_SIZE = "500";
+
+	/**
+	 * Read-through cached for GET and HEAD requests only; write requests load a fresh instance that they are free
+	 * to modify. Entries are evicted by {@link EmployeeCacheEventHandler}.
+	 */
+	@Override
+	@Cacheable(cacheNames = EmployeeCacheEventHandler.CACHE, condition = "T(com.greglturnquist.payroll.EmployeeCacheEventHandler).isSafeRequest()",
+			unless = "#result == null")
+	Optional<Employee> findById(Long id);
+
+	/**
+	 * Backs the collection resource. Entities are loaded read-only, so Hibernate keeps no snapshot of them for
+	 * dirty checking.
+	 */
+	@Override
+	@QueryHints(@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"))
+	Page<Employee> findAll(Pageable pageable);
+
+	/**
+	 * The employee list as {@link EmployeeRow} records: only those columns are selected and no entity is created.
+	 * Served at {@code /api/employees/summaries} by {@link EmployeeSummaryController}.
+	 */
+	@RestResource(exported = false)
+	Page<EmployeeRow> findAllProjectedBy(Pageable pageable);
+
+	/**
+	 * Keyset (seek) page: the next {@code limit} employees whose id is greater than {@code id}.
+	 * The primary key index is used to position the scan, so a deep page costs the same as the first one.
+	 */
+	@RestResource(exported = false)
+	List<Employee> findByIdGreaterThanOrderByIdAsc(Long id, Limit limit);
+
+	/**
+	 * Every employee in id order, read through a cursor {@value #STREAM_FETCH_SIZE} rows at a time without
+	 * dirty-checking snapshots. Must be consumed inside a transaction and closed afterwards.
+	 */
+	@RestResource(exported = false)
+	@QueryHints({ @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = STREAM_FETCH_SIZE),
+			@QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true") })
+	Stream<Employee> streamAllByOrderByIdAsc();
+
+	// The finders below are exported under /api/employees/search and each one is backed by an index on Employee
+
+	/**
+	 * Email addresses are not unique, so this returns every employee with the address rather than failing on a
+	 * duplicate.
+	 */
+	List<Employee> findByEmail(@Param("email") String email);
+
+	Page<Employee> findByLastNameStartingWith(@Param("prefix") String prefix, Pageable pageable);
+
+	Page<Employee> findByJobYearsBetween(@Param("min") Integer min, @Param("max") Integer max, Pageable pageable);
 
 }
 // end::code[]
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.time.Duration;
+
+import org.aopalliance.aop.Advice;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import org.springframework.aop.Advisor;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.dao.support.PersistenceExceptionTranslationInterceptor;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.data.repository.core.support.RepositoryProxyPostProcessor;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.interceptor.DelegatingTransactionAttribute;
+import org.springframework.transaction.interceptor.TransactionAttribute;
+import org.springframework.transaction.interceptor.TransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+/**
+ * Adds an interceptor to the {@link EmployeeRepository} proxy, after the transaction advice and before the
+ * JPA implementation, so it can take over repository calls in profiles that change how employees are stored.
+ * {@link #outerPostProcessor(MethodInterceptor, int)} puts it before the exception translation and transaction
+ * advice instead, for interceptors that must answer without a database connection; they see the failures of the
+ * calls they let through as {@link org.springframework.dao.DataAccessException}s.
+ * {@link #transactionTimeouts(Duration, Duration)} changes the transactions the repository starts itself.
+ * Must be registered from a {@code static} {@code @Bean} method.
+ */
+// tag::code[]
+public final class EmployeeRepositoryAdvice {
+
+	private EmployeeRepositoryAdvice() {
+	}
+
+	public static BeanPostProcessor postProcessor(MethodInterceptor interceptor) {
+		return postProcessor((proxyFactory, repositoryInformation) -> proxyFactory.addAdvice(interceptor));
+	}
+
+	/**
+	 * Of two outer interceptors, the one with the lower {@code order} runs first.
+	 */
+	public static BeanPostProcessor outerPostProcessor(MethodInterceptor interceptor, int order) {
+		return postProcessor((proxyFactory, repositoryInformation) -> {
+			Advisor[] advisors = proxyFactory.getAdvisors();
+			int position = 0;
+			while (position < advisors.length && !isDatabaseAdvice(advisors[position].getAdvice())) {
+				position++;
+			}
+			position = position == advisors.length ? 0 : position;
+			while (position > 0 && advisors[position - 1].getAdvice() instanceof OuterInterceptor outer
+					&& outer.order() > order) {
+				position--;
+			}
+			proxyFactory.addAdvice(position, new OuterInterceptor(interceptor, order));
+		});
+	}
+
+	/**
+	 * Gives the transactions started by the repository itself a timeout, which Hibernate turns into a JDBC
+	 * statement timeout for every statement they run. Repository calls joining a transaction of the caller keep
+	 * its timeout. Timeouts are rounded up to whole seconds.
+	 */
+	public static BeanPostProcessor transactionTimeouts(Duration readOnly, Duration readWrite) {
+		return postProcessor((proxyFactory, repositoryInformation) -> {
+			TransactionInterceptor transactionInterceptor = transactionInterceptor(proxyFactory.getAdvisors());
+			if (transactionInterceptor == null) {
+				return;
+			}
+			TransactionAttributeSource declared = transactionInterceptor.getTransactionAttributeSource();
+			transactionInterceptor.setTransactionAttributeSource((method, targetClass) -> {
+				TransactionAttribute attribute = declared.getTransactionAttribute(method, targetClass);
+				if (attribute == null || attribute.getTimeout() != TransactionDefinition.TIMEOUT_DEFAULT) {
+					return attribute;
+				}
+				int timeout = seconds(attribute.isReadOnly() ? readOnly : readWrite);
+				return new DelegatingTransactionAttribute(attribute) {
+
+					@Override
+					public int getTimeout() {
+						return timeout;
+					}
+				};
+			});
+		});
+	}
+
+	private static TransactionInterceptor transactionInterceptor(Advisor[] advisors) {
+		for (Advisor advisor : advisors) {
+			if (advisor.getAdvice() instanceof TransactionInterceptor transactionInterceptor) {
+				return transactionInterceptor;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isDatabaseAdvice(Advice advice) {
+		return advice instanceof PersistenceExceptionTranslationInterceptor || advice instanceof TransactionInterceptor;
+	}
+
+	private static int seconds(Duration timeout) {
+		return Math.toIntExact(timeout.plusNanos(999_999_999).getSeconds());
+	}
+
+	private static BeanPostProcessor postProcessor(RepositoryProxyPostProcessor proxyPostProcessor) {
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+				if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> factoryBean
+						&& EmployeeRepository.class.equals(factoryBean.getObjectType())) {
+					factoryBean.addRepositoryFactoryCustomizer(
+							factory -> factory.addRepositoryProxyPostProcessor(proxyPostProcessor));
+				}
+				return bean;
+			}
+		};
+	}
+
+	// Bean post-processors run in no particular order, so outer interceptors are sorted when they are added
+	private record OuterInterceptor(MethodInterceptor delegate, int order) implements MethodInterceptor {
+
+		@Override
+		public Object invoke(MethodInvocation invocation) throws Throwable {
+			return delegate.invoke(invocation);
+		}
+	}
+
+}
+// end::code[]
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.annotation.HandleAfterCreate;
+import org.springframework.data.rest.core.annotation.HandleAfterDelete;
+import org.springframework.data.rest.core.annotation.HandleAfterSave;
+import org.springframework.data.rest.core.annotation.RepositoryEventHandler;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Rendered employee resources and collection pages, served by {@link EmployeeResponseCacheFilter}.
+ *
+ * <p>Item responses are kept per employee id, one per variant (query string and content negotiation headers),
+ * and dropped when that employee is saved or deleted; pages are dropped on every write. Both caches are bounded
+ * by the bytes they hold, {@code payroll.response-cache.item-bytes} and {@code page-bytes}.
+ *
+ * <p>A response whose rendering overlapped a write may show the state from before it, so it is only stored if
+ * no write finished since the rendering started: every write moves {@link #generation()} on before the entries
+ * are dropped, and stores made under an older generation are discarded. As with {@link EmployeeCacheEventHandler},
+ * writes that bypass the REST API are only seen once the entries expire.
+ */
+// tag::code[]
+@Component
+@RepositoryEventHandler(Employee.class)
+@ConditionalOnProperty(name = "payroll.response-cache.enabled", matchIfMissing = true)
+public class EmployeeResponseCache {
+
+	private final Cache<Long, Map<String, RenderedResponse>> items;
+	private final Cache<String, RenderedResponse> pages;
+	private final AtomicLong generation = new AtomicLong();
+
+	public EmployeeResponseCache(MeterRegistry meterRegistry,
+			@Value("${payroll.response-cache.item-bytes:24MB}") DataSize itemBytes,
+			@Value("${payroll.response-cache.page-bytes:8MB}") DataSize pageBytes,
+			@Value("${payroll.response-cache.expire-after-write:10m}") Duration expireAfterWrite) {
+		this.items = Caffeine.newBuilder()
+				.maximumWeight(itemBytes.toBytes())
+				.<Long, Map<String, RenderedResponse>>weigher((id, variants) -> variants.values().stream()
+						.mapToInt(RenderedResponse::weight)
+						.sum())
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats()
+				.build();
+		this.pages = Caffeine.newBuilder()
+				.maximumWeight(pageBytes.toBytes())
+				.<String, RenderedResponse>weigher((key, page) -> 2 * key.length() + page.weight())
+				.expireAfterWrite(expireAfterWrite)
+				.recordStats()
+				.build();
+		monitor(items, "employee-responses", meterRegistry);
+		monitor(pages, "employee-pages", meterRegistry);
+	}
+
+	private static void monitor(Cache<?, ?> cache, String name, MeterRegistry meterRegistry) {
+		CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+		Gauge.builder("payroll.response_cache.bytes", cache,
+						c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+				.description("Approximate bytes held by the rendered responses")
+				.tag("cache", name)
+				.register(meterRegistry);
+	}
+
+	/**
+	 * Read before rendering a response and passed back when storing it.
+	 */
+	public long generation() {
+		return generation.get();
+	}
+
+	public RenderedResponse item(long id, String variant) {
+		Map<String, RenderedResponse> variants = items.getIfPresent(id);
+		return variants != null ? variants.get(variant) : null;
+	}
+
+	public void putItem(long id, String variant, RenderedResponse response, long renderedAt) {
+		// Under the entry's lock, so a write either sees the new entry and drops it, or comes first and stops it
+		items.asMap().compute(id, (key, variants) -> {
+			if (generation.get() != renderedAt) {
+				return variants;
+			}
+			Map<String, RenderedResponse> updated = variants != null ? new HashMap<>(variants) : new HashMap<>();
+			updated.put(variant, response);
+			return Map.copyOf(updated);
+		});
+	}
+
+	public RenderedResponse page(String variant) {
+		return pages.getIfPresent(generation.get() + " " + variant);
+	}
+
+	public void putPage(String variant, RenderedResponse response, long renderedAt) {
+		// Keyed by the generation, so a page stored after a write is never found
+		pages.put(renderedAt + " " + variant, response);
+	}
+
+	@HandleAfterSave
+	@HandleAfterDelete
+	public void onWrite(Employee employee) {
+		generation.incrementAndGet();
+		if (employee.getId() != null) {
+			items.invalidate(employee.getId());
+		}
+		pages.invalidateAll();
+	}
+
+	@HandleAfterCreate
+	public void onCreate(Employee employee) {
+		generation.incrementAndGet();
+		pages.invalidateAll();
+	}
+
+	@EventListener
+	public void onImport(EmployeesImportedEvent event) {
+		generation.incrementAndGet();
+		pages.invalidateAll();
+	}
+
+}
+// end::code[]
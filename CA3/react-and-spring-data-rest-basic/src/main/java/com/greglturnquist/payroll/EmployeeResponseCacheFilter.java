@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.rest.core.config.RepositoryRestConfiguration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+/**
+ * Answers {@code GET /api/employees/{id}} and {@code GET /api/employees} from the bytes kept by
+ * {@link EmployeeResponseCache}, skipping the repository, Jackson and HAL link building altogether.
+ *
+ * <p>Cached responses keep the content type and {@code ETag} they were rendered with, and a matching
+ * {@code If-None-Match} is answered with {@code 304 Not Modified}. A miss runs as usual and its response is
+ * stored if it was a {@code 200} with an {@code ETag}, no {@code Set-Cookie} and no {@code Warning} (write-behind
+ * mode serving from its snapshot).
+ */
+// tag::code[]
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 15)
+@ConditionalOnProperty(name = "payroll.response-cache.enabled", matchIfMissing = true)
+public class EmployeeResponseCacheFilter extends OncePerRequestFilter {
+
+	private final EmployeeResponseCache cache;
+	private final Pattern cachedPaths;
+
+	public EmployeeResponseCacheFilter(EmployeeResponseCache cache, RepositoryRestConfiguration restConfiguration) {
+		this.cache = cache;
+		this.cachedPaths = Pattern.compile(Pattern.quote(restConfiguration.getBasePath().getPath() + "/employees")
+				+ "(?:/(\\d{1,18}))?");
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !HttpMethod.GET.matches(request.getMethod()) || !cachedPaths.matcher(path(request)).matches();
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+
+		Matcher matcher = cachedPaths.matcher(path(request));
+		matcher.matches();
+		Long id = matcher.group(1) != null ? Long.valueOf(matcher.group(1)) : null;
+		String variant = request.getQueryString() + "\n" + request.getHeader(HttpHeaders.ACCEPT) + "\n"
+				+ request.getHeader(HttpHeaders.ACCEPT_LANGUAGE);
+
+		long generation = cache.generation();
+		RenderedResponse cached = id != null ? cache.item(id, variant) : cache.page(variant);
+		if (cached != null) {
+			serve(cached, request, response);
+			return;
+		}
+
+		ContentCachingResponseWrapper buffered = new ContentCachingResponseWrapper(response);
+		try {
+			chain.doFilter(request, buffered);
+			if (!request.isAsyncStarted() && response.getStatus() == HttpServletResponse.SC_OK) {
+				RenderedResponse rendered = RenderedResponse.of(response, buffered.getContentAsByteArray());
+				if (rendered.header(HttpHeaders.ETAG) != null && rendered.header(HttpHeaders.SET_COOKIE) == null
+						&& rendered.header(HttpHeaders.WARNING) == null) {
+					if (id != null) {
+						cache.putItem(id, variant, rendered, generation);
+					}
+					else {
+						cache.putPage(variant, rendered, generation);
+					}
+				}
+			}
+		}
+		finally {
+			buffered.copyBodyToResponse();
+		}
+	}
+
+	private static void serve(RenderedResponse cached, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		String etag = cached.header(HttpHeaders.ETAG);
+		if (EmployeeCollectionETagFilter.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			response.setHeader(HttpHeaders.ETAG, etag);
+			String cacheControl = cached.header(HttpHeaders.CACHE_CONTROL);
+			if (cacheControl != null) {
+				response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+			}
+			return;
+		}
+		cached.writeTo(response);
+	}
+
+	private static String path(HttpServletRequest request) {
+		return request.getRequestURI().substring(request.getContextPath().length());
+	}
+
+}
+// end::code[]
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import org.springframework.hateoas.server.core.Relation;
+
+/**
+ * Read-only row of the employee list. Queries returning it select only these columns and never create
+ * managed {@link Employee} entities.
+ */
+// tag::code[]
+@Relation(itemRelation = "employee", collectionRelation = "employees")
+public record EmployeeRow(Long id, String firstName, String lastName, String description, Integer jobYears,
+		String email) {
+}
+// end::code[]
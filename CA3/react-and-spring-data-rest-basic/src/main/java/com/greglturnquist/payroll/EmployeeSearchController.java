@@ -0,0 +1,98 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.rest.webmvc.PersistentEntityResource;
+import org.springframework.data.rest.webmvc.PersistentEntityResourceAssembler;
+import org.springframework.data.rest.webmvc.RepositoryRestController;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.PagedModel;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+/**
+ * {@code GET /api/employees/search?q=ring+bearer&page=0&size=20} answers from {@link EmployeeSearchIndex}, best
+ * match first. Only the employees of the requested page are loaded, by primary key.
+ */
+// tag::code[]
+@RepositoryRestController
+public class EmployeeSearchController {
+
+	private final EmployeeSearchIndex searchIndex;
+	private final EmployeeRepository repository;
+	private final int maxPageSize;
+
+	public EmployeeSearchController(EmployeeSearchIndex searchIndex, EmployeeRepository repository,
+			@Value("${spring.data.rest.max-page-size:1000}") int maxPageSize) {
+		this.searchIndex = searchIndex;
+		this.repository = repository;
+		this.maxPageSize = maxPageSize;
+	}
+
+	@GetMapping(value = "/employees/search", params = "q")
+	public ResponseEntity<PagedModel<PersistentEntityResource>> search(@RequestParam("q") String query,
+			@RequestParam(value = "page", defaultValue = "0") int page,
+			@RequestParam(value = "size", defaultValue = "${spring.data.rest.default-page-size:20}") int size,
+			PersistentEntityResourceAssembler assembler) {
+
+		if (page < 0 || size < 1) {
+			return ResponseEntity.badRequest().build();
+		}
+		int pageSize = Math.min(size, maxPageSize);
+		// Multiplied as longs so that a huge page cannot overflow; any offset past the last hit gets an empty page
+		int offset = (int) Math.min((long) page * pageSize, Integer.MAX_VALUE);
+		EmployeeSearchIndex.Result result = searchIndex.search(query, offset, pageSize);
+
+		List<Long> ids = result.hits().stream().map(EmployeeSearchIndex.Hit::id).toList();
+		Map<Long, Employee> employees = new HashMap<>();
+		repository.findAllById(ids).forEach(employee -> employees.put(employee.getId(), employee));
+		List<PersistentEntityResource> content = ids.stream()
+				.map(employees::get)
+				.filter(employee -> employee != null)
+				.map(assembler::toModel)
+				.toList();
+
+		PagedModel<PersistentEntityResource> model = PagedModel.of(content,
+				new PagedModel.PageMetadata(pageSize, page, result.total()));
+		model.add(pageLink(page, pageSize).withSelfRel());
+		if (page < Integer.MAX_VALUE && ((long) page + 1) * pageSize < result.total()) {
+			model.add(pageLink(page + 1, pageSize).withRel(IanaLinkRelations.NEXT));
+		}
+		if (page > 0) {
+			int lastPage = Math.max(0, (result.total() - 1) / pageSize);
+			model.add(pageLink(Math.min(page - 1, lastPage), pageSize).withRel(IanaLinkRelations.PREV));
+		}
+		return ResponseEntity.ok(model);
+	}
+
+	private Link pageLink(int page, int size) {
+		return Link.of(ServletUriComponentsBuilder.fromCurrentRequest()
+				.replaceQueryParam("page", page)
+				.replaceQueryParam("size", size)
+				.build(true)
+				.toUriString());
+	}
+
+}
+// end::code[]
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.event.AbstractRepositoryEventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * In-process inverted index over {@link Employee#getFirstName()}, {@link Employee#getLastName()} and
+ * {@link Employee#getDescription()}.
+ *
+ * <p>The index is loaded once the application is ready and then follows the repository events and bulk imports.
+ * Terms are lower-cased runs of letters and digits. A document scores the sum over the query terms of the term's
+ * weighted frequency in the document times its inverse document frequency, with names weighing twice as much as
+ * the description, so documents matching more and rarer terms rank first.
+ */
+// tag::code[]
+@Component
+public class EmployeeSearchIndex extends AbstractRepositoryEventListener<Employee> {
+
+	private static final Logger log = LoggerFactory.getLogger(EmployeeSearchIndex.class);
+
+	static final float NAME_WEIGHT = 2f;
+	static final float DESCRIPTION_WEIGHT = 1f;
+
+	public record Hit(long id, float score) {
+	}
+
+	public record Result(int total, List<Hit> hits) {
+	}
+
+	private final Map<String, Map<Long, Float>> postings = new HashMap<>();
+	private final Map<Long, Map<String, Float>> documents = new HashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private final EmployeeRepository repository;
+	private final TransactionTemplate readOnlyTransaction;
+
+	public EmployeeSearchIndex(EmployeeRepository repository, PlatformTransactionManager transactionManager) {
+		this.repository = repository;
+		this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+		this.readOnlyTransaction.setReadOnly(true);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void rebuild() {
+		long start = System.nanoTime();
+		readOnlyTransaction.executeWithoutResult(status -> {
+			try (Stream<Employee> employees = repository.streamAllByOrderByIdAsc()) {
+				employees.forEach(this::index);
+			}
+		});
+		log.info("Indexed {} employees in {} ms", size(), (System.nanoTime() - start) / 1_000_000);
+	}
+
+	@Override
+	protected void onAfterCreate(Employee employee) {
+		index(employee);
+	}
+
+	@Override
+	protected void onAfterSave(Employee employee) {
+		index(employee);
+	}
+
+	@Override
+	protected void onAfterDelete(Employee employee) {
+		remove(employee.getId());
+	}
+
+	@EventListener
+	public void onImport(EmployeesImportedEvent event) {
+		event.employees().forEach(this::index);
+	}
+
+	public void index(Employee employee) {
+		Map<String, Float> terms = new HashMap<>();
+		addTerms(terms, employee.getFirstName(), NAME_WEIGHT);
+		addTerms(terms, employee.getLastName(), NAME_WEIGHT);
+		addTerms(terms, employee.getDescription(), DESCRIPTION_WEIGHT);
+
+		lock.writeLock().lock();
+		try {
+			removeLocked(employee.getId());
+			documents.put(employee.getId(), terms);
+			terms.forEach((term, weight) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(employee.getId(), weight));
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(Long id) {
+		lock.writeLock().lock();
+		try {
+			removeLocked(id);
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void removeLocked(Long id) {
+		Map<String, Float> terms = documents.remove(id);
+		if (terms == null) {
+			return;
+		}
+		for (String term : terms.keySet()) {
+			Map<Long, Float> ids = postings.get(term);
+			ids.remove(id);
+			if (ids.isEmpty()) {
+				postings.remove(term);
+			}
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return documents.size();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Ranked hits {@code offset} to {@code offset + limit} for {@code query}, best first, ties broken by id.
+	 */
+	public Result search(String query, int offset, int limit) {
+		Map<String, Float> queryTerms = new HashMap<>();
+		addTerms(queryTerms, query, 1f);
+		if (queryTerms.isEmpty()) {
+			return new Result(0, List.of());
+		}
+
+		Map<Long, Float> scores = new HashMap<>();
+		lock.readLock().lock();
+		try {
+			int documentCount = documents.size();
+			for (String term : queryTerms.keySet()) {
+				Map<Long, Float> ids = postings.get(term);
+				if (ids == null) {
+					continue;
+				}
+				float idf = (float) Math.log(1 + (double) documentCount / ids.size());
+				ids.forEach((id, weight) -> scores.merge(id, weight * idf, Float::sum));
+			}
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+
+		if (offset >= scores.size()) {
+			return new Result(scores.size(), List.of());
+		}
+		// Keep only the best offset + limit hits instead of sorting every match
+		Comparator<Hit> ranking = Comparator.comparingDouble(Hit::score).reversed().thenComparingLong(Hit::id);
+		int wanted = (int) Math.min((long) offset + limit, scores.size());
+		PriorityQueue<Hit> best = new PriorityQueue<>(Math.max(1, wanted), ranking.reversed());
+		scores.forEach((id, score) -> {
+			best.add(new Hit(id, score));
+			if (best.size() > wanted) {
+				best.poll();
+			}
+		});
+		List<Hit> ranked = new ArrayList<>(best);
+		ranked.sort(ranking);
+		return new Result(scores.size(), ranked.subList(offset, ranked.size()));
+	}
+
+	/**
+	 * Adds the lower-cased letter and digit runs of {@code text} to {@code terms}, each occurrence adding
+	 * {@code weight}.
+	 */
+	static void addTerms(Map<String, Float> terms, String text, float weight) {
+		if (text == null) {
+			return;
+		}
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (inWord && start < 0) {
+				start = i;
+			}
+			else if (!inWord && start >= 0) {
+				terms.merge(text.substring(start, i).toLowerCase(), weight, Float::sum);
+				start = -1;
+			}
+		}
+	}
+
+}
+// end::code[]
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * In-memory copy of every employee: the database as last read, plus every write acknowledged since.
+ * Answers reads while the database is unreachable; see {@link WriteBehindRepositoryInterceptor}.
+ *
+ * <p>Writes are applied in place, so acknowledging one costs the same whatever the number of employees;
+ * readers iterating meanwhile see each employee either before or after it.
+ */
+// tag::code[]
+public class EmployeeSnapshot {
+
+	private volatile Map<Long, EmployeeJournal.Entry> employees = new ConcurrentHashMap<>();
+	private volatile Instant loadedAt;
+
+	public boolean isLoaded() {
+		return loadedAt != null;
+	}
+
+	public Instant getLoadedAt() {
+		return loadedAt;
+	}
+
+	/**
+	 * Reads every employee from the database, then applies the {@code acknowledged} writes that may not be stored
+	 * yet, oldest first. They are asked for once the read is done, so none acknowledged meanwhile is missed.
+	 */
+	public void load(JdbcTemplate jdbcTemplate, Supplier<List<EmployeeJournal.Entry>> acknowledged) {
+		Map<Long, EmployeeJournal.Entry> loaded = new ConcurrentHashMap<>();
+		jdbcTemplate.query("SELECT id, first_name, last_name, description, job_years, email, version FROM employee",
+				rs -> {
+					long id = rs.getLong(1);
+					loaded.put(id, new EmployeeJournal.Entry(0, EmployeeJournal.Type.UPDATE, id, rs.getString(2),
+							rs.getString(3), rs.getString(4), rs.getObject(5, Integer.class), rs.getString(6), rs.getLong(7)));
+				});
+		synchronized (this) {
+			acknowledged.get().forEach(entry -> apply(loaded, entry));
+			employees = loaded;
+			loadedAt = Instant.now();
+		}
+	}
+
+	// Synchronized with the swap in load(), so no write lands in the map being replaced
+	public synchronized void apply(EmployeeJournal.Entry entry) {
+		apply(employees, entry);
+	}
+
+	public Optional<Employee> findById(long id) {
+		return Optional.ofNullable(employees.get(id)).map(EmployeeJournal.Entry::toEmployee);
+	}
+
+	public List<Employee> findAll(Predicate<Employee> predicate) {
+		return all().stream().filter(predicate).sorted(Comparator.comparing(Employee::getId)).toList();
+	}
+
+	/**
+	 * The first {@code limit} employees with an id greater than {@code id}, in id order.
+	 */
+	public List<Employee> findByIdGreaterThan(long id, int limit) {
+		return employees.values().stream()
+				.filter(entry -> entry.id() > id)
+				.sorted(Comparator.comparingLong(EmployeeJournal.Entry::id))
+				.limit(limit)
+				.map(EmployeeJournal.Entry::toEmployee)
+				.toList();
+	}
+
+	public long count() {
+		return employees.size();
+	}
+
+	public List<Employee> findAll(Sort sort) {
+		return all().stream().sorted(ShardedEmployeeStore.comparator(sort)).toList();
+	}
+
+	public Page<Employee> findAll(Pageable pageable) {
+		List<Employee> sorted = findAll(pageable.getSort());
+		if (pageable.isUnpaged()) {
+			return new PageImpl<>(sorted, pageable, sorted.size());
+		}
+		int from = (int) Math.min(pageable.getOffset(), sorted.size());
+		int to = Math.min(from + pageable.getPageSize(), sorted.size());
+		return new PageImpl<>(sorted.subList(from, to), pageable, sorted.size());
+	}
+
+	private List<Employee> all() {
+		return employees.values().stream().map(EmployeeJournal.Entry::toEmployee).toList();
+	}
+
+	private static void apply(Map<Long, EmployeeJournal.Entry> employees, EmployeeJournal.Entry entry) {
+		if (entry.type() == EmployeeJournal.Type.DELETE) {
+			employees.remove(entry.id());
+		}
+		else {
+			employees.put(entry.id(), entry);
+		}
+	}
+
+}
+// end::code[]
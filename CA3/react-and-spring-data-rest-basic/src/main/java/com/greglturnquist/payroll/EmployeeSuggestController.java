@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.List;
+
+import org.springframework.data.rest.webmvc.RepositoryRestController;
+import org.springframework.data.rest.webmvc.support.RepositoryEntityLinks;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * {@code GET /api/employees/suggest?prefix=ba&limit=10} returns the ids and names of the first matching employees
+ * from {@link EmployeeNameSuggester} without touching the database.
+ */
+// tag::code[]
+@RepositoryRestController
+public class EmployeeSuggestController {
+
+	static final int MAX_LIMIT = 100;
+
+	private final EmployeeNameSuggester suggester;
+	private final RepositoryEntityLinks entityLinks;
+
+	public EmployeeSuggestController(EmployeeNameSuggester suggester, RepositoryEntityLinks entityLinks) {
+		this.suggester = suggester;
+		this.entityLinks = entityLinks;
+	}
+
+	@GetMapping("/employees/suggest")
+	public ResponseEntity<CollectionModel<EntityModel<EmployeeNameSuggester.Suggestion>>> suggest(
+			@RequestParam("prefix") String prefix,
+			@RequestParam(value = "limit", defaultValue = "10") int limit) {
+
+		if (limit < 1) {
+			return ResponseEntity.badRequest().build();
+		}
+		List<EntityModel<EmployeeNameSuggester.Suggestion>> content = suggester.suggest(prefix, Math.min(limit, MAX_LIMIT))
+				.stream()
+				.map(suggestion -> EntityModel.of(suggestion,
+						entityLinks.linkToItemResource(Employee.class, suggestion.id()).withRel("employee")))
+				.toList();
+		return ResponseEntity.ok(CollectionModel.of(content));
+	}
+
+}
+// end::code[]
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import org.springframework.data.rest.core.config.Projection;
+
+/**
+ * The five columns the employee list shows.
+ *
+ * <p>Used as the excerpt of the collection resource and available on any employee resource with
+ * {@code ?projection=summary}. {@link EmployeeRow} is the same shape as a record, for queries that should select
+ * only these columns.
+ */
+// tag::code[]
+@Projection(name = "summary", types = { Employee.class })
+public interface EmployeeSummary {
+
+	Long getId();
+
+	String getFirstName();
+
+	String getLastName();
+
+	String getDescription();
+
+	Integer getJobYears();
+
+	String getEmail();
+
+}
+// end::code[]
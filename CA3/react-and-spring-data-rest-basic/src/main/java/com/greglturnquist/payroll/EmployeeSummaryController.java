@@ -0,0 +1,55 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.rest.webmvc.RepositoryRestController;
+import org.springframework.data.rest.webmvc.support.RepositoryEntityLinks;
+import org.springframework.data.web.PagedResourcesAssembler;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.PagedModel;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+
+/**
+ * {@code GET /api/employees/summaries?page=&size=&sort=} pages through {@link EmployeeRow} records selected
+ * column by column, for lists that do not need the managed entities.
+ */
+// tag::code[]
+@RepositoryRestController
+public class EmployeeSummaryController {
+
+	private final EmployeeRepository repository;
+	private final RepositoryEntityLinks entityLinks;
+	private final PagedResourcesAssembler<EmployeeRow> pagedAssembler;
+
+	public EmployeeSummaryController(EmployeeRepository repository, RepositoryEntityLinks entityLinks,
+			PagedResourcesAssembler<EmployeeRow> pagedAssembler) {
+		this.repository = repository;
+		this.entityLinks = entityLinks;
+		this.pagedAssembler = pagedAssembler;
+	}
+
+	@GetMapping("/employees/summaries")
+	public ResponseEntity<PagedModel<EntityModel<EmployeeRow>>> summaries(Pageable pageable) {
+		Page<EmployeeRow> page = repository.findAllProjectedBy(pageable);
+		return ResponseEntity.ok(pagedAssembler.toModel(page, row -> EntityModel.of(row,
+				entityLinks.linkToItemResource(Employee.class, row.id()).expand().withSelfRel())));
+	}
+
+}
+// end::code[]
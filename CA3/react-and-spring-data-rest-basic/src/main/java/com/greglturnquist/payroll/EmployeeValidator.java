@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Field rules of an {@link Employee}, shared by its constructor, its setters and bulk imports.
+ *
+ * <p>Every check is a single pass over the characters of its field and allocates nothing. Names and descriptions
+ * must hold a character above {@code U+0020}, which is what {@code !s.trim().isEmpty()} tested. An email must match
+ * what {@code "^.+@.+.$"} matched: no line terminator anywhere, and an {@code @} with at least one character
+ * before it and at least two code points after it. No text field may be longer than its {@link #MAX_LENGTH}
+ * character column, so a write that is acknowledged before it reaches the database is never refused by it.
+ */
+// tag::code[]
+public final class EmployeeValidator {
+
+	/**
+	 * Candidates above this many are validated on the common fork-join pool; below it forking costs more
+	 * than the checks themselves.
+	 */
+	static final int PARALLEL_THRESHOLD = 8192;
+
+	/**
+	 * Length of the text columns of the employee table, which Hibernate creates as {@code VARCHAR(255)}.
+	 */
+	public static final int MAX_LENGTH = 255;
+
+	private EmployeeValidator() {
+	}
+
+	/**
+	 * Why a field was rejected, with the message the setters have always used.
+	 */
+	public enum Code {
+
+		FIRST_NAME_BLANK("firstName", "Invalid first name"),
+		FIRST_NAME_TOO_LONG("firstName", "First name longer than " + MAX_LENGTH + " characters"),
+		LAST_NAME_BLANK("lastName", "Invalid last name"),
+		LAST_NAME_TOO_LONG("lastName", "Last name longer than " + MAX_LENGTH + " characters"),
+		DESCRIPTION_BLANK("description", "Invalid description"),
+		DESCRIPTION_TOO_LONG("description", "Description longer than " + MAX_LENGTH + " characters"),
+		JOB_YEARS_MISSING("jobYears", "Invalid job years"),
+		EMAIL_BLANK("email", "Invalid email"),
+		EMAIL_MALFORMED("email", "Invalid email"),
+		EMAIL_TOO_LONG("email", "Email longer than " + MAX_LENGTH + " characters");
+
+		private final String field;
+		private final String message;
+
+		Code(String field, String message) {
+			this.field = field;
+			this.message = message;
+		}
+
+		public String getField() {
+			return field;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+	}
+
+	/**
+	 * The fields of an employee that has not been built yet, such as a row of an import.
+	 */
+	public interface Candidate {
+
+		String firstName();
+
+		String lastName();
+
+		String description();
+
+		Integer jobYears();
+
+		String email();
+	}
+
+	/**
+	 * A rejected candidate, by its position in the list given to {@link #validateAll(List)}.
+	 */
+	public record Violation(int index, Code code) {
+	}
+
+	/**
+	 * @return the first rule broken, in field order, or {@code null} if the employee is valid
+	 */
+	public static Code validate(String firstName, String lastName, String description, Integer jobYears,
+			String email) {
+		if (!hasText(firstName)) {
+			return Code.FIRST_NAME_BLANK;
+		}
+		if (isTooLong(firstName)) {
+			return Code.FIRST_NAME_TOO_LONG;
+		}
+		if (!hasText(lastName)) {
+			return Code.LAST_NAME_BLANK;
+		}
+		if (isTooLong(lastName)) {
+			return Code.LAST_NAME_TOO_LONG;
+		}
+		if (!hasText(description)) {
+			return Code.DESCRIPTION_BLANK;
+		}
+		if (isTooLong(description)) {
+			return Code.DESCRIPTION_TOO_LONG;
+		}
+		if (jobYears == null) {
+			return Code.JOB_YEARS_MISSING;
+		}
+		Code malformed = validateEmail(email);
+		return malformed != null ? malformed : validateLength(email, Code.EMAIL_TOO_LONG);
+	}
+
+	public static Code validate(Candidate candidate) {
+		return validate(candidate.firstName(), candidate.lastName(), candidate.description(), candidate.jobYears(),
+				candidate.email());
+	}
+
+	/**
+	 * Validates every candidate, in parallel for large lists.
+	 *
+	 * @return the violations in index order, empty if all candidates are valid
+	 */
+	public static List<Violation> validateAll(List<? extends Candidate> candidates) {
+		IntStream indexes = IntStream.range(0, candidates.size());
+		if (candidates.size() >= PARALLEL_THRESHOLD) {
+			indexes = indexes.parallel();
+		}
+		Code[] codes = new Code[candidates.size()];
+		indexes.forEach(i -> codes[i] = validate(candidates.get(i)));
+
+		List<Violation> violations = new ArrayList<>();
+		for (int i = 0; i < codes.length; i++) {
+			if (codes[i] != null) {
+				violations.add(new Violation(i, codes[i]));
+			}
+		}
+		return violations;
+	}
+
+	static void check(Code code) {
+		if (code != null) {
+			throw new InvalidEmployeeException(code);
+		}
+	}
+
+	static Code validateText(String name, Code blank) {
+		return hasText(name) ? null : blank;
+	}
+
+	static Code validateLength(String text, Code tooLong) {
+		return isTooLong(text) ? tooLong : null;
+	}
+
+	static Code validateEmail(String email) {
+		if (!hasText(email)) {
+			return Code.EMAIL_BLANK;
+		}
+		int length = email.length();
+		int at = -1;
+		for (int i = 0; i < length; i++) {
+			char c = email.charAt(i);
+			if (isLineTerminator(c)) {
+				return Code.EMAIL_MALFORMED;
+			}
+			if (c == '@' && at < 1) {
+				at = i;
+			}
+		}
+		// The regex counts code points, so a surrogate pair after the @ is a single character
+		if (at < 1 || Character.codePointCount(email, at + 1, length) < 2) {
+			return Code.EMAIL_MALFORMED;
+		}
+		return null;
+	}
+
+	private static boolean isTooLong(String s) {
+		return s != null && s.length() > MAX_LENGTH;
+	}
+
+	private static boolean hasText(String s) {
+		if (s == null) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) > ' ') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The characters {@code .} does not match without {@code DOTALL} or {@code UNIX_LINES}.
+	 */
+	private static boolean isLineTerminator(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+}
+// end::code[]
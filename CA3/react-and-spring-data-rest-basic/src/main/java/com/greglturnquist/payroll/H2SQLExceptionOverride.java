@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.sql.SQLException;
+
+import com.zaxxer.hikari.SQLExceptionOverride;
+
+/**
+ * Keeps the connection pool from discarding an H2 connection whose statement was cancelled by its query
+ * timeout (SQLSTATE 57014): the connection is still usable, and closing it would make the rollback fail and
+ * hide the timeout behind a "Connection is closed" error. Set as {@code spring.datasource.hikari.exception-override-class-name}.
+ */
+// tag::code[]
+public class H2SQLExceptionOverride implements SQLExceptionOverride {
+
+	static final String QUERY_CANCELED = "57014";
+
+	// Qualified: Override also names the verdict type of SQLExceptionOverride
+	@java.lang.Override
+	public Override adjudicate(SQLException exception) {
+		return QUERY_CANCELED.equals(exception.getSQLState()) ? Override.DO_NOT_EVICT : Override.CONTINUE_EVICT;
+	}
+
+}
+// end::code[]
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+/**
+ * An {@link Employee} field broke one of the {@link EmployeeValidator} rules.
+ */
+// tag::code[]
+public class InvalidEmployeeException extends IllegalArgumentException {
+
+	private final EmployeeValidator.Code code;
+
+	public InvalidEmployeeException(EmployeeValidator.Code code) {
+		super(code.getMessage());
+		this.code = code;
+	}
+
+	public EmployeeValidator.Code getCode() {
+		return code;
+	}
+
+	public String getField() {
+		return code.getField();
+	}
+
+}
+// end::code[]
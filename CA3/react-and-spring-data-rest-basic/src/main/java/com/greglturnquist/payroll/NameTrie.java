@@ -0,0 +1,239 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Radix trie from name keys to employee ids, used for type-ahead.
+ *
+ * <p>Every edge holds a whole run of characters instead of a single one and edge labels are interned, so common
+ * name fragments are stored once. Children live in an array sorted by their first character and ids in a sorted
+ * {@code long[]}, which keeps a node to a handful of references. Not thread-safe.
+ */
+// tag::code[]
+public class NameTrie {
+
+	private static final long[] NO_IDS = new long[0];
+	private static final Node[] NO_CHILDREN = new Node[0];
+
+	private static final class Node {
+
+		private String label;
+		private Node[] children = NO_CHILDREN;
+		private long[] ids = NO_IDS;
+
+		Node(String label) {
+			this.label = label.intern();
+		}
+	}
+
+	private final Node root = new Node("");
+	private int size;
+
+	/**
+	 * Number of (key, id) pairs in the trie.
+	 */
+	public int size() {
+		return size;
+	}
+
+	public void add(String key, long id) {
+		Node node = root;
+		int i = 0;
+		while (i < key.length()) {
+			int index = childIndex(node, key.charAt(i));
+			if (index < 0) {
+				Node leaf = new Node(key.substring(i));
+				node.children = insert(node.children, -index - 1, leaf);
+				node = leaf;
+				break;
+			}
+			Node child = node.children[index];
+			int common = commonPrefix(child.label, key, i);
+			if (common < child.label.length()) {
+				// Split the edge where the new key leaves it
+				Node split = new Node(child.label.substring(0, common));
+				child.label = child.label.substring(common).intern();
+				split.children = new Node[] { child };
+				node.children[index] = split;
+				child = split;
+			}
+			node = child;
+			i += common;
+		}
+		int position = Arrays.binarySearch(node.ids, id);
+		if (position < 0) {
+			node.ids = insert(node.ids, -position - 1, id);
+			size++;
+		}
+	}
+
+	public boolean remove(String key, long id) {
+		Node parent = null;
+		Node node = root;
+		int i = 0;
+		while (i < key.length()) {
+			int index = childIndex(node, key.charAt(i));
+			if (index < 0) {
+				return false;
+			}
+			Node child = node.children[index];
+			if (!key.startsWith(child.label, i)) {
+				return false;
+			}
+			parent = node;
+			node = child;
+			i += child.label.length();
+		}
+		int position = Arrays.binarySearch(node.ids, id);
+		if (position < 0) {
+			return false;
+		}
+		node.ids = remove(node.ids, position);
+		size--;
+
+		if (parent != null) {
+			if (node.ids.length == 0 && node.children.length == 0) {
+				parent.children = remove(parent.children, childIndex(parent, node.label.charAt(0)));
+				if (parent != root) {
+					mergeWithOnlyChild(parent);
+				}
+			}
+			else {
+				mergeWithOnlyChild(node);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Up to {@code limit} distinct ids whose key starts with {@code prefix}, in key order.
+	 */
+	public Set<Long> prefixed(String prefix, int limit) {
+		Set<Long> result = new LinkedHashSet<>();
+		Node node = root;
+		int i = 0;
+		while (i < prefix.length()) {
+			int index = childIndex(node, prefix.charAt(i));
+			if (index < 0) {
+				return result;
+			}
+			Node child = node.children[index];
+			int common = commonPrefix(child.label, prefix, i);
+			if (i + common < prefix.length() && common < child.label.length()) {
+				return result;
+			}
+			node = child;
+			i += common;
+		}
+		collect(node, limit, result);
+		return result;
+	}
+
+	private static void collect(Node node, int limit, Set<Long> result) {
+		for (long id : node.ids) {
+			if (result.size() == limit) {
+				return;
+			}
+			result.add(id);
+		}
+		for (Node child : node.children) {
+			if (result.size() == limit) {
+				return;
+			}
+			collect(child, limit, result);
+		}
+	}
+
+	private static void mergeWithOnlyChild(Node node) {
+		if (node.ids.length == 0 && node.children.length == 1) {
+			Node child = node.children[0];
+			node.label = (node.label + child.label).intern();
+			node.ids = child.ids;
+			node.children = child.children;
+		}
+	}
+
+	private static int childIndex(Node node, char first) {
+		Node[] children = node.children;
+		int low = 0;
+		int high = children.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			char c = children[middle].label.charAt(0);
+			if (c < first) {
+				low = middle + 1;
+			}
+			else if (c > first) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private static int commonPrefix(String label, String key, int offset) {
+		int max = Math.min(label.length(), key.length() - offset);
+		int i = 0;
+		while (i < max && label.charAt(i) == key.charAt(offset + i)) {
+			i++;
+		}
+		return i;
+	}
+
+	private static Node[] insert(Node[] array, int index, Node value) {
+		Node[] result = new Node[array.length + 1];
+		System.arraycopy(array, 0, result, 0, index);
+		result[index] = value;
+		System.arraycopy(array, index, result, index + 1, array.length - index);
+		return result;
+	}
+
+	private static Node[] remove(Node[] array, int index) {
+		if (array.length == 1) {
+			return NO_CHILDREN;
+		}
+		Node[] result = new Node[array.length - 1];
+		System.arraycopy(array, 0, result, 0, index);
+		System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+		return result;
+	}
+
+	private static long[] insert(long[] array, int index, long value) {
+		long[] result = new long[array.length + 1];
+		System.arraycopy(array, 0, result, 0, index);
+		result[index] = value;
+		System.arraycopy(array, index, result, index + 1, array.length - index);
+		return result;
+	}
+
+	private static long[] remove(long[] array, int index) {
+		if (array.length == 1) {
+			return NO_IDS;
+		}
+		long[] result = new long[array.length - 1];
+		System.arraycopy(array, 0, result, 0, index);
+		System.arraycopy(array, index + 1, result, index, array.length - index - 1);
+		return result;
+	}
+
+}
+// end::code[]
@@ -17,12 +17,14 @@ package com.greglturnquist.payroll;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.cache.annotation.EnableCaching;
 
 /**
  * @author Greg Turnquist
  */
 // tag::code[]
 @SpringBootApplication
+@EnableCaching
 public class ReactAndSpringDataRestApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sends connections of read-only transactions to a healthy replica and everything else to the primary.
+ *
+ * <p>The decision is made when the physical connection is fetched, so this must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: by the time the first statement
+ * runs, the transaction's read-only flag is known. Threads can be pinned to the primary for read-your-writes,
+ * see {@link ReadYourWritesFilter}.
+ */
+// tag::code[]
+public class ReadWriteRoutingDataSource extends AbstractRoutingDataSource {
+
+	public static final String PRIMARY = "primary";
+
+	private static final ThreadLocal<Boolean> pinnedToPrimary = new ThreadLocal<>();
+
+	private final ReplicaMonitor replicaMonitor;
+
+	public ReadWriteRoutingDataSource(ReplicaMonitor replicaMonitor) {
+		this.replicaMonitor = replicaMonitor;
+	}
+
+	public static void pinToPrimary() {
+		pinnedToPrimary.set(Boolean.TRUE);
+	}
+
+	public static void unpin() {
+		pinnedToPrimary.remove();
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || pinnedToPrimary.get() != null) {
+			return PRIMARY;
+		}
+		String replica = replicaMonitor.nextHealthyReplica();
+		return replica != null ? replica : PRIMARY;
+	}
+
+}
+// end::code[]
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Read-your-writes for clients of a replicated deployment.
+ *
+ * <p>A request that may write is served from the primary and answered with a cookie that keeps the client's
+ * reads on the primary for {@link ReplicaMonitor#stalenessBound()}, after which every healthy replica has
+ * caught up with that write.
+ */
+// tag::code[]
+@Component
+@Profile("replicated")
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+	public static final String COOKIE = "payroll-primary-until";
+
+	private final ReplicaMonitor replicaMonitor;
+
+	public ReadYourWritesFilter(ReplicaMonitor replicaMonitor) {
+		this.replicaMonitor = replicaMonitor;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+
+		long now = System.currentTimeMillis();
+		if (mayWrite(request.getMethod())) {
+			long window = replicaMonitor.stalenessBound().toMillis();
+			ResponseCookie cookie = ResponseCookie.from(COOKIE, Long.toString(now + window))
+					.path(StringUtils.hasLength(request.getContextPath()) ? request.getContextPath() : "/")
+					.maxAge((window + 999) / 1000)
+					.httpOnly(true)
+					.sameSite("Lax")
+					.build();
+			response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+			ReadWriteRoutingDataSource.pinToPrimary();
+		}
+		else if (primaryUntil(request) > now) {
+			ReadWriteRoutingDataSource.pinToPrimary();
+		}
+		try {
+			chain.doFilter(request, response);
+		}
+		finally {
+			ReadWriteRoutingDataSource.unpin();
+		}
+	}
+
+	private static boolean mayWrite(String method) {
+		return !HttpMethod.GET.matches(method) && !HttpMethod.HEAD.matches(method)
+				&& !HttpMethod.OPTIONS.matches(method) && !HttpMethod.TRACE.matches(method);
+	}
+
+	private static long primaryUntil(HttpServletRequest request) {
+		Cookie[] cookies = request.getCookies();
+		if (cookies != null) {
+			for (Cookie cookie : cookies) {
+				if (COOKIE.equals(cookie.getName())) {
+					try {
+						return Long.parseLong(cookie.getValue());
+					}
+					catch (NumberFormatException e) {
+						return 0;
+					}
+				}
+			}
+		}
+		return 0;
+	}
+
+}
+// end::code[]
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Status, headers and body of a response that has been fully rendered, to be written again to other requests
+ * by {@link EmployeeReadCoalescingFilter} and {@link EmployeeResponseCacheFilter}.
+ */
+// tag::code[]
+record RenderedResponse(int status, String contentType, Map<String, List<String>> headers, byte[] body) {
+
+	/**
+	 * Takes the headers already set on {@code response} and the {@code body} that was buffered instead of written.
+	 */
+	static RenderedResponse of(HttpServletResponse response, byte[] body) {
+		Map<String, List<String>> headers = new LinkedHashMap<>();
+		for (String name : response.getHeaderNames()) {
+			// Set from the fields below instead
+			if (!name.equalsIgnoreCase(HttpHeaders.CONTENT_TYPE) && !name.equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH)) {
+				headers.put(name, new ArrayList<>(response.getHeaders(name)));
+			}
+		}
+		return new RenderedResponse(response.getStatus(), response.getContentType(), headers, body);
+	}
+
+	String header(String name) {
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+				return header.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Approximate heap footprint in bytes, dominated by the body.
+	 */
+	int weight() {
+		int weight = 64 + body.length;
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			weight += 2 * header.getKey().length();
+			for (String value : header.getValue()) {
+				weight += 2 * value.length();
+			}
+		}
+		return weight;
+	}
+
+	void writeTo(HttpServletResponse response) throws IOException {
+		response.setStatus(status);
+		headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+		if (contentType != null) {
+			response.setContentType(contentType);
+		}
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+	}
+
+}
+// end::code[]
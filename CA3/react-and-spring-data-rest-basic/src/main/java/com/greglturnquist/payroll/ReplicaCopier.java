@@ -0,0 +1,158 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Stand-in for replication, since H2 has none: periodically copies every table of the primary to each replica.
+ *
+ * <p>A replica missing a table first gets the primary's schema through {@code SCRIPT NODATA}. The rows are
+ * then replaced table by table inside one replica transaction, so readers of the replica see either the old
+ * or the new copy. Meant for local setups and tests with small tables, not for production data volumes.
+ */
+// tag::code[]
+public class ReplicaCopier {
+
+	private static final Logger log = LoggerFactory.getLogger(ReplicaCopier.class);
+
+	private final DataSource primary;
+	private final Map<String, DataSource> replicas;
+	private final ScheduledExecutorService scheduler;
+
+	public ReplicaCopier(DataSource primary, Map<String, DataSource> replicas, Duration interval) {
+		this.primary = primary;
+		this.replicas = replicas;
+		CustomizableThreadFactory threads = new CustomizableThreadFactory("replica-copier-");
+		threads.setDaemon(true);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(threads);
+		this.scheduler.scheduleWithFixedDelay(this::copyQuietly, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void copy() throws SQLException {
+		try (Connection source = primary.getConnection()) {
+			List<String> tables = tables(source);
+			for (DataSource replica : replicas.values()) {
+				try (Connection target = replica.getConnection()) {
+					if (!tables(target).containsAll(tables)) {
+						copySchema(source, target);
+					}
+					copyRows(source, target, tables);
+				}
+			}
+		}
+	}
+
+	private void copyQuietly() {
+		try {
+			copy();
+		}
+		catch (SQLException e) {
+			log.warn("Could not copy the primary to the replicas", e);
+		}
+	}
+
+	private static List<String> tables(Connection connection) throws SQLException {
+		List<String> tables = new ArrayList<>();
+		try (Statement statement = connection.createStatement();
+				ResultSet rows = statement.executeQuery("SELECT table_name FROM information_schema.tables "
+						+ "WHERE table_schema = 'PUBLIC' AND table_type = 'BASE TABLE' ORDER BY table_name")) {
+			while (rows.next()) {
+				tables.add(rows.getString(1));
+			}
+		}
+		return tables;
+	}
+
+	private static void copySchema(Connection source, Connection target) throws SQLException {
+		List<String> ddl = new ArrayList<>();
+		try (Statement statement = source.createStatement();
+				ResultSet script = statement.executeQuery("SCRIPT NODATA")) {
+			while (script.next()) {
+				String sql = script.getString(1);
+				if (!sql.startsWith("--")) {
+					ddl.add(sql);
+				}
+			}
+		}
+		target.setAutoCommit(true);
+		try (Statement statement = target.createStatement()) {
+			statement.execute("DROP ALL OBJECTS");
+			for (String sql : ddl) {
+				statement.execute(sql);
+			}
+		}
+	}
+
+	private static void copyRows(Connection source, Connection target, List<String> tables) throws SQLException {
+		target.setAutoCommit(false);
+		try {
+			for (String table : tables) {
+				String quoted = '"' + table + '"';
+				try (Statement delete = target.createStatement()) {
+					delete.executeUpdate("DELETE FROM " + quoted);
+				}
+				try (Statement select = source.createStatement();
+						ResultSet rows = select.executeQuery("SELECT * FROM " + quoted)) {
+					int columns = rows.getMetaData().getColumnCount();
+					String placeholders = String.join(", ", Collections.nCopies(columns, "?"));
+					try (PreparedStatement insert = target.prepareStatement(
+							"INSERT INTO " + quoted + " VALUES (" + placeholders + ")")) {
+						while (rows.next()) {
+							for (int i = 1; i <= columns; i++) {
+								insert.setObject(i, rows.getObject(i));
+							}
+							insert.addBatch();
+						}
+						insert.executeBatch();
+					}
+				}
+			}
+			target.commit();
+		}
+		catch (SQLException e) {
+			target.rollback();
+			throw e;
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+}
+// end::code[]
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Health and replication lag of the read replicas.
+ *
+ * <p>Every check writes the current time into {@code replication_heartbeat} on the primary and reads it back
+ * from each replica: a replica is used for reads only while it answers and its heartbeat is at most
+ * {@code maxLag} old. Unreachable or lagging replicas are skipped until a later check finds them caught up,
+ * and with no healthy replica all reads go to the primary.
+ */
+// tag::code[]
+public class ReplicaMonitor implements HealthIndicator {
+
+	private static final Logger log = LoggerFactory.getLogger(ReplicaMonitor.class);
+
+	record Status(boolean healthy, long lagMillis, String error) {
+	}
+
+	private final DataSource primary;
+	private final Map<String, DataSource> replicas;
+	private final Duration checkInterval;
+	private final Duration maxLag;
+	private final AtomicInteger next = new AtomicInteger();
+	private final ScheduledExecutorService scheduler;
+	private volatile List<String> healthy = List.of();
+	private volatile Map<String, Status> statuses = Map.of();
+
+	public ReplicaMonitor(DataSource primary, Map<String, DataSource> replicas, Duration checkInterval, Duration maxLag) {
+		this.primary = primary;
+		this.replicas = replicas;
+		this.checkInterval = checkInterval;
+		this.maxLag = maxLag;
+		CustomizableThreadFactory threads = new CustomizableThreadFactory("replica-monitor-");
+		threads.setDaemon(true);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(threads);
+		this.scheduler.scheduleWithFixedDelay(this::check, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Lookup key of the replica for the next read, round robin over the healthy ones, or {@code null} if none is.
+	 */
+	public String nextHealthyReplica() {
+		List<String> candidates = healthy;
+		if (candidates.isEmpty()) {
+			return null;
+		}
+		return candidates.get(Math.floorMod(next.getAndIncrement(), candidates.size()));
+	}
+
+	/**
+	 * Longest time a write can stay invisible on a replica that is still considered healthy: it may be
+	 * {@code maxLag} behind when checked and fall further behind until the next check.
+	 */
+	public Duration stalenessBound() {
+		return maxLag.plus(checkInterval);
+	}
+
+	public synchronized void check() {
+		long now = System.currentTimeMillis();
+		try {
+			writeHeartbeat(now);
+		}
+		catch (SQLException e) {
+			log.warn("Could not write the replication heartbeat on the primary", e);
+		}
+		Map<String, Status> checked = new LinkedHashMap<>();
+		List<String> usable = new ArrayList<>();
+		replicas.forEach((name, replica) -> {
+			Status status = check(replica, now);
+			if (status.healthy()) {
+				usable.add(name);
+			}
+			else if (statuses.getOrDefault(name, status).healthy()) {
+				log.warn("Replica {} taken out of rotation: {}", name,
+						status.error() != null ? status.error() : "lag " + status.lagMillis() + " ms");
+			}
+			checked.put(name, status);
+		});
+		statuses = checked;
+		healthy = List.copyOf(usable);
+	}
+
+	private Status check(DataSource replica, long now) {
+		try (Connection connection = replica.getConnection();
+				Statement statement = connection.createStatement()) {
+			statement.setQueryTimeout(Math.max(1, (int) checkInterval.toSeconds()));
+			try (ResultSet beat = statement.executeQuery("SELECT beat_at FROM replication_heartbeat WHERE id = 1")) {
+				if (!beat.next()) {
+					return new Status(false, -1, "no heartbeat replicated yet");
+				}
+				long lag = Math.max(0, now - beat.getLong(1));
+				return new Status(lag <= maxLag.toMillis(), lag, null);
+			}
+		}
+		catch (SQLException e) {
+			return new Status(false, -1, e.getMessage());
+		}
+	}
+
+	private void writeHeartbeat(long now) throws SQLException {
+		try (Connection connection = primary.getConnection()) {
+			connection.setAutoCommit(true);
+			try (Statement statement = connection.createStatement()) {
+				statement.execute("CREATE TABLE IF NOT EXISTS replication_heartbeat (id INT PRIMARY KEY, beat_at BIGINT NOT NULL)");
+			}
+			try (PreparedStatement merge = connection.prepareStatement("MERGE INTO replication_heartbeat KEY (id) VALUES (1, ?)")) {
+				merge.setLong(1, now);
+				merge.executeUpdate();
+			}
+		}
+	}
+
+	@Override
+	public Health health() {
+		Health.Builder health = healthy.isEmpty() && !replicas.isEmpty() ? Health.status("DEGRADED") : Health.up();
+		statuses.forEach((name, status) -> health.withDetail(name, status));
+		return health.build();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+}
+// end::code[]
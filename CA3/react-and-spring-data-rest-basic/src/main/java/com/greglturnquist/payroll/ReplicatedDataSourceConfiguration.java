@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+/**
+ * Read/write splitting for the {@code replicated} profile (see application-replicated.properties).
+ *
+ * <p>The primary is configured by the usual {@code spring.datasource.*} properties and the replicas by
+ * {@code payroll.replicas.urls}. The application's {@link DataSource} routes read-only transactions, which
+ * include every repository read and so every Spring Data REST GET, to a healthy replica.
+ */
+// tag::code[]
+@Configuration(proxyBeanMethods = false)
+@Profile("replicated")
+public class ReplicatedDataSourceConfiguration {
+
+	/**
+	 * The physical connection pools, kept out of the context so only the routing {@link DataSource} is injected.
+	 */
+	public record DataSources(DataSource primary, Map<String, DataSource> replicas) implements Closeable {
+
+		@Override
+		public void close() throws IOException {
+			for (DataSource replica : replicas.values()) {
+				((Closeable) replica).close();
+			}
+			((Closeable) primary).close();
+		}
+
+	}
+
+	@Bean
+	public DataSources replicatedDataSources(DataSourceProperties properties,
+			@Value("${payroll.replicas.urls}") List<String> replicaUrls) {
+		Map<String, DataSource> replicas = new LinkedHashMap<>();
+		for (int i = 0; i < replicaUrls.size(); i++) {
+			replicas.put("replica-" + i, properties.initializeDataSourceBuilder().url(replicaUrls.get(i)).build());
+		}
+		return new DataSources(properties.initializeDataSourceBuilder().build(), replicas);
+	}
+
+	@Bean
+	public ReplicaMonitor replicaMonitor(DataSources dataSources,
+			@Value("${payroll.replicas.check-interval:1s}") Duration checkInterval,
+			@Value("${payroll.replicas.max-lag:5s}") Duration maxLag) {
+		return new ReplicaMonitor(dataSources.primary(), dataSources.replicas(), checkInterval, maxLag);
+	}
+
+	@Bean
+	@ConditionalOnProperty("payroll.replicas.copy-interval")
+	public ReplicaCopier replicaCopier(DataSources dataSources,
+			@Value("${payroll.replicas.copy-interval}") Duration interval) {
+		return new ReplicaCopier(dataSources.primary(), dataSources.replicas(), interval);
+	}
+
+	@Bean
+	@Primary
+	public DataSource dataSource(DataSources dataSources, ReplicaMonitor replicaMonitor) {
+		Map<Object, Object> targets = new HashMap<>(dataSources.replicas());
+		targets.put(ReadWriteRoutingDataSource.PRIMARY, dataSources.primary());
+		ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(replicaMonitor);
+		routing.setTargetDataSources(targets);
+		routing.setDefaultTargetDataSource(dataSources.primary());
+		routing.afterPropertiesSet();
+		// Defers fetching the physical connection until the first statement, when the transaction is known to be read-only
+		return new LazyConnectionDataSourceProxy(routing);
+	}
+
+}
+// end::code[]
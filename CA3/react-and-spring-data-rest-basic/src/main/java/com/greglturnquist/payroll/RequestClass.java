@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+/**
+ * How urgent the work on the current thread is, see {@link RequestClassFilter}.
+ *
+ * <p>HTTP requests are {@link #INTERACTIVE} unless they are bulk transfers or ask to be treated as bulk or
+ * background work. Threads that did not come through the filter, such as schedulers and startup code, count
+ * as {@link #BACKGROUND}.
+ */
+// tag::code[]
+public enum RequestClass {
+
+	INTERACTIVE, BULK, BACKGROUND;
+
+	/**
+	 * Request header with which a client lowers the class of its request, for example a nightly report.
+	 */
+	public static final String HEADER = "X-Request-Class";
+
+	private static final ThreadLocal<RequestClass> current = new ThreadLocal<>();
+
+	public static RequestClass current() {
+		RequestClass requestClass = current.get();
+		return requestClass != null ? requestClass : BACKGROUND;
+	}
+
+	static void set(RequestClass requestClass) {
+		current.set(requestClass);
+	}
+
+	static void clear() {
+		current.remove();
+	}
+
+	/**
+	 * Value of the {@code class} tag of the per-class metrics.
+	 */
+	public String tag() {
+		return name().toLowerCase();
+	}
+
+}
+// end::code[]
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Per-{@link RequestClass} admission of requests and budgets of pooled connections (see
+ * {@code payroll.requests.*} in application.properties), so that interactive reads keep their latency while
+ * exports and imports saturate the system.
+ */
+// tag::code[]
+@Configuration(proxyBeanMethods = false)
+@ConditionalOnProperty(name = "payroll.requests.classes.enabled", matchIfMissing = true)
+public class RequestClassConfiguration {
+
+	@Bean
+	public RequestClassFilter requestClassFilter(MeterRegistry meterRegistry,
+			@Value("${payroll.requests.bulk-paths:/api/employees/export,/api/employees/import}") List<String> bulkPaths,
+			@Value("${payroll.requests.interactive.concurrency:200}") int interactive,
+			@Value("${payroll.requests.bulk.concurrency:4}") int bulk,
+			@Value("${payroll.requests.background.concurrency:2}") int background,
+			@Value("${payroll.requests.queue-capacity:16}") int queueCapacity,
+			@Value("${payroll.requests.queue-timeout:10s}") Duration queueTimeout) {
+		Map<RequestClass, Bulkhead> bulkheads = bulkheads(interactive, bulk, background, queueCapacity, queueTimeout);
+		register(bulkheads, "payroll.requests", "Requests of the class being served",
+				"Requests of the class waiting in its queue", meterRegistry);
+		Map<RequestClass, Timer> waits = perClass(requestClass -> Timer.builder("payroll.requests.wait")
+				.description("Time requests waited in the queue of their class")
+				.tag("class", requestClass.tag())
+				.register(meterRegistry));
+		Map<RequestClass, Counter> rejected = perClass(requestClass -> Counter.builder("payroll.requests.rejected")
+				.description("Requests answered with 503 because the queue of their class was full or too slow")
+				.tag("class", requestClass.tag())
+				.register(meterRegistry));
+		return new RequestClassFilter(Set.copyOf(bulkPaths), bulkheads, waits, rejected);
+	}
+
+	@Bean
+	public static BeanPostProcessor requestClassDataSourcePostProcessor(ObjectProvider<MeterRegistry> meterRegistry,
+			@Value("${payroll.requests.interactive.connections:10}") int interactive,
+			@Value("${payroll.requests.bulk.connections:3}") int bulk,
+			@Value("${payroll.requests.background.connections:2}") int background,
+			@Value("${spring.datasource.hikari.connection-timeout:30000}") long connectionTimeoutMillis) {
+		return new BeanPostProcessor() {
+
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (!(bean instanceof DataSource dataSource) || !beanName.equals("dataSource")) {
+					return bean;
+				}
+				Map<RequestClass, Bulkhead> budgets = bulkheads(interactive, bulk, background, Integer.MAX_VALUE,
+						Duration.ofMillis(connectionTimeoutMillis));
+				register(budgets, "payroll.db.connections", "Connections held by the class",
+						"Threads of the class waiting for a connection", meterRegistry.getObject());
+				Map<RequestClass, Timer> waits = perClass(requestClass -> Timer.builder("payroll.db.connections.wait")
+						.description("Time spent waiting for a connection of the class' budget")
+						.tag("class", requestClass.tag())
+						.register(meterRegistry.getObject()));
+				return new RequestClassDataSource(dataSource, budgets, waits);
+			}
+
+		};
+	}
+
+	private static Map<RequestClass, Bulkhead> bulkheads(int interactive, int bulk, int background,
+			int queueCapacity, Duration maxWait) {
+		return perClass(requestClass -> new Bulkhead(switch (requestClass) {
+			case INTERACTIVE -> interactive;
+			case BULK -> bulk;
+			case BACKGROUND -> background;
+		}, queueCapacity, maxWait));
+	}
+
+	private static <T> Map<RequestClass, T> perClass(Function<RequestClass, T> factory) {
+		Map<RequestClass, T> values = new EnumMap<>(RequestClass.class);
+		for (RequestClass requestClass : RequestClass.values()) {
+			values.put(requestClass, factory.apply(requestClass));
+		}
+		return values;
+	}
+
+	private static void register(Map<RequestClass, Bulkhead> bulkheads, String prefix, String activeDescription,
+			String queuedDescription, MeterRegistry meterRegistry) {
+		bulkheads.forEach((requestClass, bulkhead) -> {
+			Gauge.builder(prefix + ".active", bulkhead, Bulkhead::getActive)
+					.description(activeDescription)
+					.tag("class", requestClass.tag())
+					.register(meterRegistry);
+			Gauge.builder(prefix + ".queued", bulkhead, Bulkhead::getQueued)
+					.description(queuedDescription)
+					.tag("class", requestClass.tag())
+					.register(meterRegistry);
+		});
+	}
+
+}
+// end::code[]
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.sql.DataSource;
+
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * Gives each {@link RequestClass} a budget of connections out of the shared pool.
+ *
+ * <p>A connection is only handed out once the class of the current thread holds one of its budget's places,
+ * which it keeps until the connection is closed. With budgets for bulk and background work that add up to less
+ * than the pool, interactive requests always find connections left, however many exports are running.
+ * Callers that wait longer than the pool's own connection timeout get a
+ * {@link ConnectionBudgetExhaustedException}.
+ */
+// tag::code[]
+public class RequestClassDataSource extends DelegatingDataSource {
+
+	private final Map<RequestClass, Bulkhead> budgets;
+	private final Map<RequestClass, Timer> waits;
+
+	public RequestClassDataSource(DataSource target, Map<RequestClass, Bulkhead> budgets,
+			Map<RequestClass, Timer> waits) {
+		super(target);
+		this.budgets = budgets;
+		this.waits = waits;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		Bulkhead budget = acquire();
+		try {
+			return releasing(super.getConnection(), budget);
+		}
+		catch (SQLException | RuntimeException e) {
+			budget.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		Bulkhead budget = acquire();
+		try {
+			return releasing(super.getConnection(username, password), budget);
+		}
+		catch (SQLException | RuntimeException e) {
+			budget.release();
+			throw e;
+		}
+	}
+
+	private Bulkhead acquire() throws SQLException {
+		RequestClass requestClass = RequestClass.current();
+		Bulkhead budget = budgets.get(requestClass);
+		long start = System.nanoTime();
+		boolean acquired = budget.acquire();
+		waits.get(requestClass).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		if (!acquired) {
+			throw new ConnectionBudgetExhaustedException(requestClass, budget.getLimit());
+		}
+		return budget;
+	}
+
+	/**
+	 * Gives the place back to {@code budget} once the connection is closed.
+	 */
+	private static Connection releasing(Connection connection, Bulkhead budget) {
+		AtomicBoolean released = new AtomicBoolean();
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+				(proxy, method, args) -> {
+					if (method.getName().equals("equals")) {
+						return proxy == args[0];
+					}
+					if (method.getName().equals("hashCode")) {
+						return System.identityHashCode(proxy);
+					}
+					try {
+						return method.invoke(connection, args);
+					}
+					catch (InvocationTargetException e) {
+						throw e.getTargetException();
+					}
+					finally {
+						if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+							budget.release();
+						}
+					}
+				});
+	}
+
+}
+// end::code[]
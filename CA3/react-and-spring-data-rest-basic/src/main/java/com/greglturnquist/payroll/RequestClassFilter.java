@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Classifies every request as {@link RequestClass#INTERACTIVE}, {@link RequestClass#BULK} or
+ * {@link RequestClass#BACKGROUND} and admits it through the {@link Bulkhead} of its class.
+ *
+ * <p>Requests to one of the bulk paths (exports and imports by default) are bulk; a client may lower any request
+ * to bulk or background with the {@link RequestClass#HEADER} header, but never raise it. Each class has its own
+ * number of requests served at once and its own bounded queue, so that a burst of exports waits for its turn
+ * instead of taking the threads, and through {@link RequestClassDataSource} the connections, that interactive
+ * requests need. Requests that find the queue of their class full, or wait longer than the queue timeout, are
+ * answered with 503. The class stays on the thread while the request runs, for the connection budgets.
+ */
+// tag::code[]
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class RequestClassFilter extends OncePerRequestFilter {
+
+	private final Set<String> bulkPaths;
+	private final Map<RequestClass, Bulkhead> bulkheads;
+	private final Map<RequestClass, Timer> waits;
+	private final Map<RequestClass, Counter> rejected;
+
+	public RequestClassFilter(Set<String> bulkPaths, Map<RequestClass, Bulkhead> bulkheads,
+			Map<RequestClass, Timer> waits, Map<RequestClass, Counter> rejected) {
+		this.bulkPaths = bulkPaths;
+		this.bulkheads = bulkheads;
+		this.waits = waits;
+		this.rejected = rejected;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+
+		RequestClass requestClass = classify(request);
+		Bulkhead bulkhead = bulkheads.get(requestClass);
+		long start = System.nanoTime();
+		boolean admitted = bulkhead.acquire();
+		waits.get(requestClass).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		if (!admitted) {
+			rejected.get(requestClass).increment();
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			response.setHeader(HttpHeaders.RETRY_AFTER, DatabaseUnavailableAdvice.OVERLOADED_RETRY_AFTER_SECONDS);
+			return;
+		}
+		RequestClass.set(requestClass);
+		try {
+			chain.doFilter(request, response);
+		}
+		finally {
+			RequestClass.clear();
+			bulkhead.release();
+		}
+	}
+
+	RequestClass classify(HttpServletRequest request) {
+		RequestClass byPath = bulkPaths.contains(request.getRequestURI().substring(request.getContextPath().length()))
+				? RequestClass.BULK
+				: RequestClass.INTERACTIVE;
+		String asked = request.getHeader(RequestClass.HEADER);
+		if (asked != null) {
+			for (RequestClass requestClass : RequestClass.values()) {
+				if (requestClass.name().equalsIgnoreCase(asked.trim()) && requestClass.compareTo(byPath) > 0) {
+					return requestClass;
+				}
+			}
+		}
+		return byPath;
+	}
+
+}
+// end::code[]
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+/**
+ * Serves {@link EmployeeRepository} from a {@link ShardedEmployeeStore} instead of JPA.
+ *
+ * <p>Added to the repository proxy by {@link ShardedRepositoryConfiguration}, behind the transaction and
+ * caching advice, so callers (Spring Data REST included) see the same repository either way. Methods added to
+ * the repository must be mapped here as well; unmapped ones fail rather than silently reading the JPA database.
+ */
+// tag::code[]
+class ShardedEmployeeRepositoryInterceptor implements MethodInterceptor {
+
+	private final ObjectProvider<ShardedEmployeeStore> stores;
+
+	ShardedEmployeeRepositoryInterceptor(ObjectProvider<ShardedEmployeeStore> stores) {
+		this.stores = stores;
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		if (invocation.getMethod().getDeclaringClass() == Object.class) {
+			return invocation.proceed();
+		}
+		ShardedEmployeeStore store = stores.getObject();
+		Object[] args = invocation.getArguments();
+		String method = invocation.getMethod().getName();
+		return switch (method) {
+			case "save" -> store.save((Employee) args[0]);
+			case "saveAll" -> {
+				List<Employee> saved = new ArrayList<>();
+				for (Object employee : (Iterable<?>) args[0]) {
+					saved.add(store.save((Employee) employee));
+				}
+				yield saved;
+			}
+			case "findById" -> store.findById((Long) args[0]);
+			case "existsById" -> store.findById((Long) args[0]).isPresent();
+			case "findAllById" -> {
+				List<Employee> found = new ArrayList<>();
+				for (Object id : (Iterable<?>) args[0]) {
+					store.findById((Long) id).ifPresent(found::add);
+				}
+				yield found;
+			}
+			case "findAll" -> {
+				if (args.length == 0) {
+					yield store.findAll(Sort.unsorted());
+				}
+				yield args[0] instanceof Pageable pageable ? store.findAll(pageable) : store.findAll((Sort) args[0]);
+			}
+			case "count" -> store.count();
+			case "deleteById" -> {
+				store.deleteById((Long) args[0]);
+				yield null;
+			}
+			case "delete" -> {
+				Long id = ((Employee) args[0]).getId();
+				if (id != null) {
+					store.deleteById(id);
+				}
+				yield null;
+			}
+			case "deleteAllById" -> {
+				List<Long> ids = new ArrayList<>();
+				for (Object id : (Iterable<?>) args[0]) {
+					ids.add((Long) id);
+				}
+				store.deleteAllById(ids);
+				yield null;
+			}
+			case "deleteAll" -> {
+				if (args.length == 0) {
+					store.deleteAll();
+					yield null;
+				}
+				List<Long> ids = new ArrayList<>();
+				for (Object employee : (Iterable<?>) args[0]) {
+					Long id = ((Employee) employee).getId();
+					if (id != null) {
+						ids.add(id);
+					}
+				}
+				store.deleteAllById(ids);
+				yield null;
+			}
+			case "findAllProjectedBy" -> store.findAll((Pageable) args[0])
+					.map(e -> new EmployeeRow(e.getId(), e.getFirstName(), e.getLastName(), e.getDescription(),
+							e.getJobYears(), e.getEmail()));
+			case "findByIdGreaterThanOrderByIdAsc" -> {
+				Limit limit = (Limit) args[1];
+				yield store.findByIdGreaterThan((Long) args[0], limit.isLimited() ? limit.max() : Integer.MAX_VALUE);
+			}
+			case "streamAllByOrderByIdAsc" -> store.streamAll();
+			case "findByEmail" -> store.findAll("email = ?", Pageable.unpaged(Sort.by("id")), args[0]).getContent();
+			case "findByLastNameStartingWith" ->
+					store.findAll("last_name LIKE ? ESCAPE '\\'", (Pageable) args[1], escapeLike((String) args[0]) + "%");
+			case "findByJobYearsBetween" ->
+					store.findAll("job_years BETWEEN ? AND ?", (Pageable) args[2], args[0], args[1]);
+			default -> throw new UnsupportedOperationException(
+					"EmployeeRepository." + method + " is not supported by the sharded store");
+		};
+	}
+
+	private static String escapeLike(String value) {
+		return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+	}
+
+}
+// end::code[]
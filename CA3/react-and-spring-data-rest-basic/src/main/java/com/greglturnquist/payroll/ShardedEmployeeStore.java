@@ -0,0 +1,485 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.support.PageableExecutionUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Employees partitioned across several H2 databases by a hash of their id.
+ *
+ * <p>Ids come from {@code employee_seq} on shard 0 in blocks of 50, so they stay unique across shards and the
+ * shard of a row is known from its id alone: reads, updates and deletes by id touch a single shard. Queries
+ * over all employees run on every shard in parallel and the per-shard results, each already sorted by the
+ * database, are merged into one ordered result. A page at offset {@code n} makes every shard return
+ * {@code n + size} rows, so deep pages cost more than with a single database.
+ *
+ * <p>The number of shards must not change once data is written, and a write never spans two shards except for
+ * {@link #insertAll(List)}.
+ */
+// tag::code[]
+public class ShardedEmployeeStore implements Closeable {
+
+	private static final String TABLE = "employee";
+	private static final String COLUMNS = "id, first_name, last_name, description, job_years, email, version";
+	private static final int ID_BLOCK = 50;
+
+	// Sortable properties of Employee and their columns
+	private static final Map<String, String> COLUMN_OF = Map.of(
+			"id", "id", "firstName", "first_name", "lastName", "last_name", "description", "description",
+			"jobYears", "job_years", "email", "email");
+
+	private static final RowMapper<Employee> EMPLOYEE = (rs, row) -> Employee.stored(rs.getLong(1), rs.getString(2),
+			rs.getString(3), rs.getString(4), rs.getObject(5, Integer.class), rs.getString(6), rs.getLong(7));
+
+	private final List<DataSource> dataSources;
+	private final List<JdbcTemplate> shards;
+	private final ExecutorService scatterPool;
+	private long nextId;
+	private long lastId = -1;
+
+	public ShardedEmployeeStore(List<DataSource> dataSources, int scatterThreads) {
+		this.dataSources = List.copyOf(dataSources);
+		this.shards = this.dataSources.stream().map(dataSource -> {
+			JdbcTemplate template = new JdbcTemplate(dataSource);
+			template.setFetchSize(Integer.parseInt(EmployeeRepository.STREAM_FETCH_SIZE));
+			return template;
+		}).toList();
+		CustomizableThreadFactory threads = new CustomizableThreadFactory("employee-shards-");
+		threads.setDaemon(true);
+		this.scatterPool = Executors.newFixedThreadPool(scatterThreads, threads);
+	}
+
+	public int getShardCount() {
+		return shards.size();
+	}
+
+	/**
+	 * Creates the table and indexes on every shard, and the id sequence on shard 0, where missing.
+	 */
+	public void createSchema() {
+		shards.get(0).execute("CREATE SEQUENCE IF NOT EXISTS employee_seq START WITH 1 INCREMENT BY " + ID_BLOCK);
+		scatter(shard -> {
+			shard.execute("CREATE TABLE IF NOT EXISTS " + TABLE + " (id BIGINT NOT NULL PRIMARY KEY, "
+					+ "first_name VARCHAR(255), last_name VARCHAR(255), description VARCHAR(255), job_years INTEGER, "
+					+ "email VARCHAR(255), version BIGINT DEFAULT 0)");
+			// The id is part of each index so that "ORDER BY column, id" is read in index order, without a sort
+			shard.execute("CREATE INDEX IF NOT EXISTS idx_employee_shard_email ON " + TABLE + " (email, id)");
+			shard.execute("CREATE INDEX IF NOT EXISTS idx_employee_shard_last_name ON " + TABLE + " (last_name, id)");
+			shard.execute("CREATE INDEX IF NOT EXISTS idx_employee_shard_job_years ON " + TABLE + " (job_years, id)");
+			return null;
+		});
+	}
+
+	/**
+	 * Index of the shard holding {@code id}; the id is mixed first so that consecutive ids spread evenly.
+	 */
+	public int shardOf(long id) {
+		long h = id;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) Math.floorMod(h, (long) shards.size());
+	}
+
+	public Optional<Employee> findById(long id) {
+		return shard(id).query("SELECT " + COLUMNS + " FROM " + TABLE + " WHERE id = ?", EMPLOYEE, id).stream().findFirst();
+	}
+
+	/**
+	 * Inserts a new employee, or updates an existing one if its version still matches the stored one.
+	 * As with JPA, an employee with an id but no version is inserted under a newly allocated id.
+	 */
+	public Employee save(Employee employee) {
+		if (employee.getId() == null || employee.getVersion() == null) {
+			employee.setId(allocateId());
+			employee.setVersion(0L);
+			shard(employee.getId()).update("INSERT INTO " + TABLE + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?)",
+					values(employee));
+			return employee;
+		}
+		int updated = shard(employee.getId()).update("UPDATE " + TABLE + " SET first_name = ?, last_name = ?, "
+						+ "description = ?, job_years = ?, email = ?, version = version + 1 WHERE id = ? AND version = ?",
+				employee.getFirstName(), employee.getLastName(), employee.getDescription(), employee.getJobYears(),
+				employee.getEmail(), employee.getId(), employee.getVersion());
+		if (updated == 0) {
+			throw new ObjectOptimisticLockingFailureException(Employee.class, employee.getId());
+		}
+		employee.setVersion(employee.getVersion() + 1);
+		return employee;
+	}
+
+	/**
+	 * Inserts new employees with one batch per shard. Every shard's batch is executed before any of them is
+	 * committed, and all are rolled back if one fails; a failure during the commits themselves can still leave
+	 * the batch partially applied.
+	 */
+	public void insertAll(List<Employee> employees) {
+		for (Employee employee : employees) {
+			if (employee.getId() == null) {
+				employee.setId(allocateId());
+			}
+			employee.setVersion(0L);
+		}
+		Map<Integer, List<Employee>> byShard = employees.stream().collect(Collectors.groupingBy(e -> shardOf(e.getId())));
+		List<Connection> connections = new ArrayList<>();
+		try {
+			List<CompletableFuture<Connection>> batches = byShard.entrySet().stream()
+					.map(group -> CompletableFuture.supplyAsync(() -> insertBatch(group.getKey(), group.getValue()), scatterPool))
+					.toList();
+			RuntimeException failure = null;
+			for (CompletableFuture<Connection> batch : batches) {
+				try {
+					connections.add(batch.join());
+				}
+				catch (CompletionException e) {
+					failure = failure != null ? failure : unwrap(e);
+				}
+			}
+			if (failure != null) {
+				connections.forEach(ShardedEmployeeStore::rollback);
+				throw failure;
+			}
+			for (Connection connection : connections) {
+				connection.commit();
+			}
+		}
+		catch (SQLException e) {
+			throw new InvalidDataAccessApiUsageException("Could not commit the sharded insert", e);
+		}
+		finally {
+			connections.forEach(JdbcUtils::closeConnection);
+		}
+	}
+
+	public boolean deleteById(long id) {
+		return shard(id).update("DELETE FROM " + TABLE + " WHERE id = ?", id) > 0;
+	}
+
+	/**
+	 * Deletes the employees with the given ids, with one statement per shard holding any of them; ids of
+	 * employees that do not exist are ignored.
+	 *
+	 * @return the number of employees deleted
+	 */
+	public int deleteAllById(Iterable<Long> ids) {
+		Map<Integer, List<Long>> byShard = new HashMap<>();
+		for (Long id : ids) {
+			byShard.computeIfAbsent(shardOf(id), shard -> new ArrayList<>()).add(id);
+		}
+		int deleted = 0;
+		for (Map.Entry<Integer, List<Long>> group : byShard.entrySet()) {
+			deleted += shards.get(group.getKey()).update("DELETE FROM " + TABLE + " WHERE id = ANY(?)",
+					(Object) group.getValue().toArray(Long[]::new));
+		}
+		return deleted;
+	}
+
+	/**
+	 * Deletes every employee on every shard. The shards are emptied one after the other, not atomically.
+	 *
+	 * @return the number of employees deleted
+	 */
+	public int deleteAll() {
+		return scatter(shard -> shard.update("DELETE FROM " + TABLE)).stream().mapToInt(Integer::intValue).sum();
+	}
+
+	public long count() {
+		return count("", new Object[0]);
+	}
+
+	public List<Employee> findAll(Sort sort) {
+		return merge(scatter(shard -> shard.query(select("", sort), EMPLOYEE)), comparator(sort), 0, Integer.MAX_VALUE);
+	}
+
+	public Page<Employee> findAll(Pageable pageable) {
+		return findAll("", pageable);
+	}
+
+	/**
+	 * One page of the employees matching {@code where}, a SQL condition over the table's columns
+	 * (or an empty string for all employees) whose {@code ?} are bound to {@code args}.
+	 */
+	public Page<Employee> findAll(String where, Pageable pageable, Object... args) {
+		if (pageable.isUnpaged()) {
+			List<Employee> all = merge(scatter(shard -> shard.query(select(where, pageable.getSort()), EMPLOYEE, args)),
+					comparator(pageable.getSort()), 0, Integer.MAX_VALUE);
+			return new PageImpl<>(all, pageable, all.size());
+		}
+		// Every shard may hold all of the rows before the requested page
+		long perShard = pageable.getOffset() + pageable.getPageSize();
+		String sql = select(where, pageable.getSort()) + " LIMIT " + perShard;
+		List<Employee> page = merge(scatter(shard -> shard.query(sql, EMPLOYEE, args)), comparator(pageable.getSort()),
+				pageable.getOffset(), pageable.getPageSize());
+		return PageableExecutionUtils.getPage(page, pageable, () -> count(where, args));
+	}
+
+	/**
+	 * The first {@code limit} employees with an id greater than {@code id}, in id order.
+	 */
+	public List<Employee> findByIdGreaterThan(long id, int limit) {
+		Sort byId = Sort.by("id");
+		return merge(scatter(shard -> shard.query(select("id > ?", byId) + " LIMIT " + limit, EMPLOYEE, id)),
+				comparator(byId), 0, limit);
+	}
+
+	/**
+	 * Every employee in id order, merged from one cursor per shard. Must be closed to release the connections.
+	 */
+	public Stream<Employee> streamAll() {
+		Sort byId = Sort.by("id");
+		List<Stream<Employee>> streams = new ArrayList<>(shards.size());
+		try {
+			for (JdbcTemplate shard : shards) {
+				streams.add(shard.queryForStream(select("", byId), EMPLOYEE));
+			}
+		}
+		catch (RuntimeException e) {
+			streams.forEach(Stream::close);
+			throw e;
+		}
+		List<Iterator<Employee>> cursors = streams.stream().map(Stream::iterator).toList();
+		Iterator<Employee> merged = new MergingIterator(cursors, comparator(byId));
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(merged, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.onClose(() -> streams.forEach(Stream::close));
+	}
+
+	public long count(String where, Object... args) {
+		String sql = "SELECT COUNT(*) FROM " + TABLE + (where.isEmpty() ? "" : " WHERE " + where);
+		return scatter(shard -> shard.queryForObject(sql, Long.class, args)).stream().mapToLong(Long::longValue).sum();
+	}
+
+	@Override
+	public void close() throws IOException {
+		scatterPool.shutdownNow();
+		for (DataSource dataSource : dataSources) {
+			if (dataSource instanceof Closeable closeable) {
+				closeable.close();
+			}
+		}
+	}
+
+	private JdbcTemplate shard(long id) {
+		return shards.get(shardOf(id));
+	}
+
+	private synchronized long allocateId() {
+		if (nextId > lastId) {
+			nextId = shards.get(0).queryForObject("SELECT NEXT VALUE FOR employee_seq", Long.class);
+			lastId = nextId + ID_BLOCK - 1;
+		}
+		return nextId++;
+	}
+
+	private Connection insertBatch(int shard, List<Employee> employees) {
+		Connection connection = null;
+		try {
+			connection = dataSources.get(shard).getConnection();
+			connection.setAutoCommit(false);
+			try (PreparedStatement insert = connection.prepareStatement(
+					"INSERT INTO " + TABLE + " (" + COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+				for (Employee employee : employees) {
+					Object[] values = values(employee);
+					for (int i = 0; i < values.length; i++) {
+						insert.setObject(i + 1, values[i]);
+					}
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+			return connection;
+		}
+		catch (SQLException e) {
+			if (connection != null) {
+				rollback(connection);
+				JdbcUtils.closeConnection(connection);
+			}
+			throw shards.get(shard).getExceptionTranslator().translate("insertAll", null, e);
+		}
+	}
+
+	private static void rollback(Connection connection) {
+		try {
+			connection.rollback();
+		}
+		catch (SQLException ignored) {
+			// The connection is closed right after, which discards the transaction anyway
+		}
+	}
+
+	private static Object[] values(Employee employee) {
+		return new Object[] { employee.getId(), employee.getFirstName(), employee.getLastName(),
+				employee.getDescription(), employee.getJobYears(), employee.getEmail(), employee.getVersion() };
+	}
+
+	private static String select(String where, Sort sort) {
+		StringBuilder sql = new StringBuilder("SELECT ").append(COLUMNS).append(" FROM ").append(TABLE);
+		if (!where.isEmpty()) {
+			sql.append(" WHERE ").append(where);
+		}
+		sql.append(" ORDER BY ");
+		for (Sort.Order order : sort) {
+			sql.append(column(order.getProperty())).append(order.isAscending() ? " ASC, " : " DESC, ");
+		}
+		// The id breaks ties, so every shard and the merge agree on one total order
+		return sql.append("id").toString();
+	}
+
+	private static String column(String property) {
+		String column = COLUMN_OF.get(property);
+		if (column == null) {
+			throw new InvalidDataAccessApiUsageException("Cannot sort employees by " + property);
+		}
+		return column;
+	}
+
+	/**
+	 * Same order as {@link #select(String, Sort)}; H2 sorts nulls first in ascending order.
+	 */
+	static Comparator<Employee> comparator(Sort sort) {
+		Comparator<Employee> comparator = (a, b) -> 0;
+		for (Sort.Order order : sort) {
+			Function<Employee, Comparable<Object>> key = key(order.getProperty());
+			Comparator<Comparable<Object>> values = order.isAscending()
+					? Comparator.nullsFirst(Comparator.naturalOrder())
+					: Comparator.nullsLast(Comparator.<Comparable<Object>>naturalOrder().reversed());
+			comparator = comparator.thenComparing(key, values);
+		}
+		return comparator.thenComparing(Employee::getId);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Function<Employee, Comparable<Object>> key(String property) {
+		Function<Employee, ?> key = switch (column(property)) {
+			case "id" -> Employee::getId;
+			case "first_name" -> Employee::getFirstName;
+			case "last_name" -> Employee::getLastName;
+			case "description" -> Employee::getDescription;
+			case "job_years" -> Employee::getJobYears;
+			default -> Employee::getEmail;
+		};
+		return (Function<Employee, Comparable<Object>>) key;
+	}
+
+	private static List<Employee> merge(List<List<Employee>> sortedRuns, Comparator<Employee> comparator, long skip, int limit) {
+		MergingIterator merged = new MergingIterator(sortedRuns.stream().map(List::iterator).toList(), comparator);
+		List<Employee> result = new ArrayList<>(Math.min(limit, 1024));
+		for (long i = 0; i < skip && merged.hasNext(); i++) {
+			merged.next();
+		}
+		while (result.size() < limit && merged.hasNext()) {
+			result.add(merged.next());
+		}
+		return result;
+	}
+
+	/**
+	 * Runs {@code query} on every shard in parallel and returns the results in shard order.
+	 */
+	private <T> List<T> scatter(Function<JdbcTemplate, T> query) {
+		List<CompletableFuture<T>> futures = IntStream.range(0, shards.size())
+				.mapToObj(i -> CompletableFuture.supplyAsync(() -> query.apply(shards.get(i)), scatterPool))
+				.toList();
+		try {
+			return futures.stream().map(CompletableFuture::join).toList();
+		}
+		catch (CompletionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	private static RuntimeException unwrap(CompletionException e) {
+		return e.getCause() instanceof RuntimeException cause ? cause : e;
+	}
+
+	/**
+	 * K-way merge of iterators that are each sorted by the same comparator.
+	 */
+	private static final class MergingIterator implements Iterator<Employee> {
+
+		private record Head(Employee employee, Iterator<Employee> rest) {
+		}
+
+		private final PriorityQueue<Head> heads;
+
+		MergingIterator(List<Iterator<Employee>> runs, Comparator<Employee> comparator) {
+			this.heads = new PriorityQueue<>(Math.max(1, runs.size()), Comparator.comparing(Head::employee, comparator));
+			for (Iterator<Employee> run : runs) {
+				if (run.hasNext()) {
+					heads.add(new Head(run.next(), run));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !heads.isEmpty();
+		}
+
+		@Override
+		public Employee next() {
+			Head head = heads.poll();
+			if (head == null) {
+				throw new NoSuchElementException();
+			}
+			if (head.rest().hasNext()) {
+				heads.add(new Head(head.rest().next(), head.rest()));
+			}
+			return head.employee();
+		}
+	}
+
+}
+// end::code[]
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Hash-sharded employee storage for the {@code sharded} profile (see application-sharded.properties).
+ *
+ * <p>{@link EmployeeRepository} keeps its JPA proxy, but every call reaching it is answered by the
+ * {@link ShardedEmployeeStore} over the databases listed in {@code payroll.shards.urls}. JPA itself stays
+ * connected to {@code spring.datasource.url}, which should be shard 0.
+ */
+// tag::code[]
+@Configuration(proxyBeanMethods = false)
+@Profile("sharded")
+public class ShardedRepositoryConfiguration {
+
+	@Bean
+	public ShardedEmployeeStore shardedEmployeeStore(DataSourceProperties properties,
+			@Value("${payroll.shards.urls}") List<String> urls,
+			@Value("${payroll.shards.scatter-threads:0}") int scatterThreads) {
+		List<DataSource> shards = urls.stream()
+				.map(url -> (DataSource) properties.initializeDataSourceBuilder().url(url).build())
+				.toList();
+		ShardedEmployeeStore store = new ShardedEmployeeStore(shards, scatterThreads > 0 ? scatterThreads : 4 * shards.size());
+		store.createSchema();
+		return store;
+	}
+
+	@Bean
+	public static BeanPostProcessor shardedEmployeeRepositoryPostProcessor(ObjectProvider<ShardedEmployeeStore> stores) {
+		return EmployeeRepositoryAdvice.postProcessor(new ShardedEmployeeRepositoryInterceptor(stores));
+	}
+
+}
+// end::code[]
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Write-behind of employee writes for the {@code write-behind} profile (see application-write-behind.properties).
+ */
+// tag::code[]
+@Configuration(proxyBeanMethods = false)
+@Profile("write-behind")
+public class WriteBehindConfiguration {
+
+	// Closed by the writer once it has flushed on shutdown
+	@Bean(destroyMethod = "")
+	public EmployeeJournal employeeJournal(@Value("${payroll.write-behind.journal-dir}") Path directory,
+			ObjectMapper objectMapper, @Value("${payroll.write-behind.segment-size:16MB}") DataSize segmentSize)
+			throws IOException {
+		return new EmployeeJournal(directory, objectMapper, Math.toIntExact(segmentSize.toBytes()));
+	}
+
+	@Bean
+	public EmployeeSnapshot employeeSnapshot() {
+		return new EmployeeSnapshot();
+	}
+
+	@Bean
+	public WriteBehindWriter writeBehindWriter(EmployeeJournal journal, EmployeeSnapshot snapshot,
+			EntityManagerFactory entityManagerFactory, JdbcTemplate jdbcTemplate,
+			PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+			@Value("${payroll.write-behind.id-reserve:500}") int idReserve,
+			@Value("${payroll.write-behind.flush-interval:200ms}") Duration flushInterval,
+			@Value("${payroll.write-behind.batch-size:500}") int batchSize) {
+		WriteBehindWriter writer = new WriteBehindWriter(journal, snapshot,
+				new EmployeeIdReserve(entityManagerFactory, idReserve), jdbcTemplate, transactionManager,
+				flushInterval, batchSize);
+		Gauge.builder("payroll.write_behind.pending", writer, WriteBehindWriter::getPendingCount)
+				.description("Acknowledged employee writes not yet stored in the database")
+				.register(meterRegistry);
+		Gauge.builder("payroll.write_behind.degraded", writer, w -> w.isDegraded() ? 1 : 0)
+				.description("1 while the database cannot be reached and writes are kept in the journal")
+				.register(meterRegistry);
+		return writer;
+	}
+
+	// Outermost, so that writes and stale reads are answered even while the circuit breaker is open
+	@Bean
+	public static BeanPostProcessor writeBehindEmployeeRepositoryPostProcessor(ObjectProvider<WriteBehindWriter> writers,
+			ObjectProvider<EmployeeSnapshot> snapshots, ObjectProvider<EntityManager> entityManagers) {
+		return EmployeeRepositoryAdvice.outerPostProcessor(
+				new WriteBehindRepositoryInterceptor(writers, snapshots, entityManagers), Ordered.HIGHEST_PRECEDENCE);
+	}
+
+}
+// end::code[]
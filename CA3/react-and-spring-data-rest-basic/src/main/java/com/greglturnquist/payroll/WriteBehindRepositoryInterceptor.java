@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import jakarta.persistence.EntityManager;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+/**
+ * Sends the writes made through {@link EmployeeRepository}, bulk ones included, to the {@link WriteBehindWriter}
+ * and makes {@code findById} and {@code existsById} see their acknowledged state. The keyset pages, the summaries
+ * and the export stream, which clients use to walk the whole list, are answered from the {@link EmployeeSnapshot}
+ * while writes are pending, so they see every acknowledged create and delete. Other queries over many employees
+ * see a write once it has been flushed.
+ *
+ * <p>Runs outside the repository transaction, so that neither needs a database connection. When the database
+ * cannot be reached, reads are answered from the {@link EmployeeSnapshot} and the response is marked with
+ * {@value #STALE}.
+ */
+// tag::code[]
+class WriteBehindRepositoryInterceptor implements MethodInterceptor {
+
+	static final String STALE = "110 - \"Response is Stale\"";
+
+	private final ObjectProvider<WriteBehindWriter> writers;
+	private final ObjectProvider<EmployeeSnapshot> snapshots;
+	private final ObjectProvider<EntityManager> entityManagers;
+
+	WriteBehindRepositoryInterceptor(ObjectProvider<WriteBehindWriter> writers, ObjectProvider<EmployeeSnapshot> snapshots,
+			ObjectProvider<EntityManager> entityManagers) {
+		this.writers = writers;
+		this.snapshots = snapshots;
+		this.entityManagers = entityManagers;
+	}
+
+	@Override
+	public Object invoke(MethodInvocation invocation) throws Throwable {
+		Object[] args = invocation.getArguments();
+		WriteBehindWriter writer = writers.getObject();
+		EmployeeSnapshot snapshot = snapshots.getObject();
+		switch (invocation.getMethod().getName()) {
+			case "save":
+				return save(writer, (Employee) args[0]);
+			case "saveAll": {
+				List<Employee> saved = new ArrayList<>();
+				for (Object employee : (Iterable<?>) args[0]) {
+					saved.add(save(writer, (Employee) employee));
+				}
+				return saved;
+			}
+			case "delete": {
+				Long id = ((Employee) args[0]).getId();
+				if (id != null) {
+					writer.delete(id);
+				}
+				return null;
+			}
+			case "deleteById":
+				writer.delete((Long) args[0]);
+				return null;
+			case "deleteAllById":
+				for (Object id : (Iterable<?>) args[0]) {
+					writer.delete((Long) id);
+				}
+				return null;
+			case "deleteAll": {
+				Iterable<?> employees = args.length > 0 ? (Iterable<?>) args[0] : allAcknowledged(snapshot);
+				for (Object employee : employees) {
+					Long id = ((Employee) employee).getId();
+					if (id != null) {
+						writer.delete(id);
+					}
+				}
+				return null;
+			}
+			case "findById": {
+				long id = (Long) args[0];
+				Optional<EmployeeJournal.Entry> pending = writer.pending(id);
+				if (pending.isPresent()) {
+					return pending.filter(entry -> entry.type() != EmployeeJournal.Type.DELETE)
+							.map(EmployeeJournal.Entry::toEmployee);
+				}
+				Object found = orFromSnapshot(invocation, () -> snapshot.findById(id));
+				((Optional<?>) found).ifPresent(employee -> writer.loaded((Employee) employee));
+				return found;
+			}
+			case "existsById": {
+				long id = (Long) args[0];
+				Optional<EmployeeJournal.Entry> pending = writer.pending(id);
+				if (pending.isPresent()) {
+					return pending.get().type() != EmployeeJournal.Type.DELETE;
+				}
+				return orFromSnapshot(invocation, () -> snapshot.findById(id).isPresent());
+			}
+			case "findAll":
+				if (args.length == 0) {
+					return orFromSnapshot(invocation, () -> snapshot.findAll(Sort.unsorted()));
+				}
+				if (args[0] instanceof Pageable pageable) {
+					return orFromSnapshot(invocation, () -> snapshot.findAll(pageable));
+				}
+				if (args[0] instanceof Sort sort) {
+					return orFromSnapshot(invocation, () -> snapshot.findAll(sort));
+				}
+				return invocation.proceed();
+			case "count":
+				return orFromSnapshot(invocation, snapshot::count);
+			case "findByEmail": {
+				String email = (String) args[0];
+				return orFromSnapshot(invocation, () -> snapshot.findAll(employee -> email.equals(employee.getEmail())));
+			}
+			case "findByIdGreaterThanOrderByIdAsc": {
+				long after = (Long) args[0];
+				Limit limit = (Limit) args[1];
+				return withPendingWrites(invocation,
+						() -> snapshot.findByIdGreaterThan(after, limit.isLimited() ? limit.max() : Integer.MAX_VALUE));
+			}
+			case "findAllProjectedBy": {
+				Pageable pageable = (Pageable) args[0];
+				return withPendingWrites(invocation, () -> snapshot.findAll(pageable)
+						.map(e -> new EmployeeRow(e.getId(), e.getFirstName(), e.getLastName(), e.getDescription(),
+								e.getJobYears(), e.getEmail())));
+			}
+			case "streamAllByOrderByIdAsc":
+				return withPendingWrites(invocation, () -> snapshot.findAll(Sort.by("id")).stream());
+			default:
+				return invocation.proceed();
+		}
+	}
+
+	private Employee save(WriteBehindWriter writer, Employee employee) {
+		if (employee.getId() == null || employee.getVersion() == null) {
+			return writer.create(employee);
+		}
+		// Spring Data REST keeps an entity manager open per request: without this Hibernate would
+		// write the modified entity itself when the next transaction of the request commits
+		entityManagers.getObject().detach(employee);
+		return writer.update(employee);
+	}
+
+	// Every employee, acknowledged writes included, which only the snapshot knows
+	private static List<Employee> allAcknowledged(EmployeeSnapshot snapshot) {
+		if (!snapshot.isLoaded()) {
+			throw new IllegalStateException("EmployeeRepository.deleteAll() needs the employee snapshot, "
+					+ "which is loaded once the database has been reached");
+		}
+		return snapshot.findAll(Sort.unsorted());
+	}
+
+	/**
+	 * Proceeds to the database, falling back to the snapshot, if there is one, when it cannot be reached.
+	 */
+	private Object orFromSnapshot(MethodInvocation invocation, Supplier<?> fromSnapshot) throws Throwable {
+		try {
+			return invocation.proceed();
+		}
+		catch (RuntimeException e) {
+			if (!DatabaseUnavailableAdvice.isUnavailable(e) || !snapshots.getObject().isLoaded()) {
+				throw e;
+			}
+			markStale();
+			return fromSnapshot.get();
+		}
+	}
+
+	/**
+	 * Answers from the snapshot, which holds every acknowledged write, while any write is waiting to be flushed;
+	 * otherwise proceeds like {@link #orFromSnapshot}.
+	 */
+	private Object withPendingWrites(MethodInvocation invocation, Supplier<?> fromSnapshot) throws Throwable {
+		WriteBehindWriter writer = writers.getObject();
+		if (writer.getPendingCount() == 0 || !snapshots.getObject().isLoaded()) {
+			return orFromSnapshot(invocation, fromSnapshot);
+		}
+		if (writer.isDegraded()) {
+			markStale();
+		}
+		return fromSnapshot.get();
+	}
+
+	private static void markStale() {
+		if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes
+				&& attributes.getResponse() != null) {
+			attributes.getResponse().setHeader("Warning", STALE);
+		}
+	}
+
+}
+// end::code[]
@@ -0,0 +1,505 @@
+/*
+ * Copyright 2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.greglturnquist.payroll.EmployeeJournal.Entry;
+import com.greglturnquist.payroll.EmployeeJournal.Type;
+
+/**
+ * Write-behind for employee creates, updates and deletes.
+ *
+ * <p>A write is acknowledged as soon as it is in the {@link EmployeeJournal}, without touching the database, so
+ * writes keep succeeding while the database is unreachable. A background flush then stores the latest state of
+ * every written employee, so repeated writes to one employee cost a single row write, in transactions of
+ * {@code batchSize} rows. If the database cannot be reached the writes stay pending, the writer reports itself
+ * {@linkplain #isDegraded() degraded} and the flush is retried, backing off up to {@link #MAX_RETRY_DELAY}, until it
+ * succeeds. The pause also lets the connection pool notice and drop connections broken by the outage. Until then
+ * {@link #pending(long)} and the {@link EmployeeSnapshot} let readers see the acknowledged state. Optimistic
+ * locking is checked against the last acknowledged version, not the database, and new employees take their
+ * ids from an {@link EmployeeIdReserve}.
+ *
+ * <p>Employees are validated before their writes are acknowledged, but a write can still break a constraint of
+ * the database, or come from a journal older than a validation rule. When a transaction fails on such data its
+ * writes are retried one at a time, and those the database refuses again are moved to a
+ * {@linkplain EmployeeJournal#deadLetter(List) dead-letter file} and logged, so they do not hold back the rest.
+ *
+ * <p>On start the segments left by a crash are replayed; on stop (after the web server has stopped taking
+ * requests) everything pending is flushed, or left in the journal if the database is still unreachable.
+ */
+// tag::code[]
+public class WriteBehindWriter implements SmartLifecycle {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteBehindWriter.class);
+
+	private static final String UPDATE = "UPDATE employee SET first_name = ?, last_name = ?, description = ?, "
+			+ "job_years = ?, email = ?, version = ? WHERE id = ? AND version < ?";
+	private static final String INSERT = "INSERT INTO employee (first_name, last_name, description, job_years, email, "
+			+ "version, id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+	private static final String DELETE = "DELETE FROM employee WHERE id = ?";
+
+	private static final Duration MIN_RETRY_DELAY = Duration.ofSeconds(1);
+	private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(10);
+
+	private final EmployeeJournal journal;
+	private final EmployeeSnapshot snapshot;
+	private final EmployeeIdReserve ids;
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final Duration flushInterval;
+	private final int batchSize;
+	private final Object appendLock = new Object();
+	private final Map<Long, Entry> pending = new ConcurrentHashMap<>();
+	private final Map<Long, Entry> inFlight = new ConcurrentHashMap<>();
+	private final Map<Long, Long> versions = new ConcurrentHashMap<>();
+	private long sequence;
+	private ScheduledExecutorService flusher;
+	private volatile boolean running;
+	private volatile boolean degraded;
+	// Only used by the flush loop
+	private long retryDelay;
+	private long retryAt;
+
+	public WriteBehindWriter(EmployeeJournal journal, EmployeeSnapshot snapshot, EmployeeIdReserve ids,
+			JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, Duration flushInterval, int batchSize) {
+		this.journal = journal;
+		this.snapshot = snapshot;
+		this.ids = ids;
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.flushInterval = flushInterval;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Journals a new employee and returns it with its id and version set.
+	 *
+	 * @throws org.springframework.dao.DataAccessResourceFailureException if no id is left in the reserve and the
+	 * database is unreachable
+	 */
+	public Employee create(Employee employee) {
+		long id = ids.take();
+		synchronized (appendLock) {
+			employee.setId(id);
+			employee.setVersion(0L);
+			append(Entry.of(++sequence, Type.CREATE, employee));
+			versions.put(id, 0L);
+		}
+		return employee;
+	}
+
+	/**
+	 * Journals an update of an existing employee and returns it with its new version.
+	 *
+	 * @throws ObjectOptimisticLockingFailureException if the employee was updated or deleted since it was read
+	 */
+	public Employee update(Employee employee) {
+		long id = employee.getId();
+		synchronized (appendLock) {
+			Long current = versions.get(id);
+			if (current != null && !current.equals(employee.getVersion())
+					|| pending(id).filter(entry -> entry.type() == Type.DELETE).isPresent()) {
+				throw new ObjectOptimisticLockingFailureException(Employee.class, id);
+			}
+			employee.setVersion(employee.getVersion() + 1);
+			try {
+				append(Entry.of(++sequence, Type.UPDATE, employee));
+			}
+			catch (RuntimeException e) {
+				employee.setVersion(employee.getVersion() - 1);
+				throw e;
+			}
+			versions.put(id, employee.getVersion());
+		}
+		return employee;
+	}
+
+	/**
+	 * Journals the delete of an employee; deleting an employee that does not exist is not an error.
+	 */
+	public void delete(long id) {
+		synchronized (appendLock) {
+			append(Entry.deleted(++sequence, id));
+			versions.remove(id);
+		}
+	}
+
+	/**
+	 * The last acknowledged write of an employee that has not reached the database yet; a {@link Type#DELETE}
+	 * entry means the employee no longer exists.
+	 */
+	public Optional<Entry> pending(long id) {
+		Entry entry = pending.get(id);
+		if (entry == null) {
+			entry = inFlight.get(id);
+		}
+		return Optional.ofNullable(entry);
+	}
+
+	/**
+	 * Remembers the version of an employee read from the database.
+	 */
+	public void loaded(Employee employee) {
+		if (employee.getId() != null && employee.getVersion() != null) {
+			versions.merge(employee.getId(), employee.getVersion(), Math::max);
+		}
+	}
+
+	/**
+	 * Adds imported employees, which {@link EmployeeImportService} stores without the journal, to the snapshot.
+	 * Synchronized with {@link #loadSnapshot()}, so a reload either reads them from the database or runs first.
+	 */
+	@EventListener
+	public synchronized void onImport(EmployeesImportedEvent event) {
+		if (snapshot.isLoaded()) {
+			event.employees().forEach(employee -> snapshot.apply(Entry.of(0, Type.UPDATE, employee)));
+		}
+	}
+
+	public int getPendingCount() {
+		return pending.size() + inFlight.size();
+	}
+
+	/**
+	 * Whether the last flush failed, so acknowledged writes are waiting for the database to come back.
+	 */
+	public boolean isDegraded() {
+		return degraded;
+	}
+
+	/**
+	 * Writes everything acknowledged so far to the database and deletes the journal segments holding it.
+	 * If the database write fails, the writes stay pending and the segments are kept for the next attempt.
+	 *
+	 * @return the number of employees written
+	 */
+	public synchronized int flush() throws IOException {
+		List<Path> segments;
+		Map<Long, Entry> batch;
+		synchronized (appendLock) {
+			segments = journal.seal();
+			batch = new LinkedHashMap<>(pending);
+			inFlight.putAll(batch);
+			pending.clear();
+		}
+		List<Entry> rejected;
+		try {
+			rejected = write(batch.values().stream().sorted(Comparator.comparingLong(Entry::sequence)).toList());
+			if (!rejected.isEmpty()) {
+				Path file = journal.deadLetter(rejected);
+				log.error("The database refused {} employee writes, moved them to {}", rejected.size(), file);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			synchronized (appendLock) {
+				// Writes acknowledged meanwhile are newer than the batch
+				batch.forEach((id, entry) -> pending.merge(id, entry, (newer, older) -> coalesce(older, newer)));
+				inFlight.clear();
+			}
+			throw e;
+		}
+		synchronized (appendLock) {
+			inFlight.clear();
+			for (Entry entry : rejected) {
+				// The database still holds the version before the refused write, unless a newer one is pending
+				if (!pending.containsKey(entry.id())) {
+					versions.remove(entry.id());
+				}
+			}
+		}
+		journal.delete(segments);
+		if (!rejected.isEmpty() && snapshot.isLoaded()) {
+			loadSnapshot();
+		}
+		return batch.size() - rejected.size();
+	}
+
+	/**
+	 * Takes the entries of the segments left over by a previous run as pending, so that the next
+	 * {@link #flush()} writes them and readers see them meanwhile.
+	 *
+	 * @return the number of entries read
+	 */
+	public int recover() throws IOException {
+		List<Entry> entries = journal.read(journal.sealed());
+		synchronized (appendLock) {
+			for (Entry entry : entries) {
+				acknowledge(entry);
+				if (entry.type() == Type.DELETE) {
+					versions.remove(entry.id());
+				}
+				else {
+					versions.put(entry.id(), entry.version());
+				}
+				sequence = Math.max(sequence, entry.sequence());
+			}
+		}
+		return entries.size();
+	}
+
+	/**
+	 * Reloads the {@link EmployeeSnapshot} from the database, keeping the writes not flushed yet.
+	 */
+	public synchronized void loadSnapshot() {
+		snapshot.load(jdbcTemplate, () -> Stream.concat(inFlight.values().stream(), pending.values().stream())
+				.sorted(Comparator.comparingLong(Entry::sequence))
+				.toList());
+	}
+
+	// Callers hold the append lock
+	private void append(Entry entry) {
+		try {
+			journal.append(entry);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Could not journal the " + entry.type() + " of employee " + entry.id(), e);
+		}
+		acknowledge(entry);
+	}
+
+	private void acknowledge(Entry entry) {
+		pending.merge(entry.id(), entry, WriteBehindWriter::coalesce);
+		snapshot.apply(entry);
+	}
+
+	/**
+	 * The one entry that stores the effect of {@code earlier} followed by {@code later}: an employee created and
+	 * then updated is still created, with its latest state.
+	 */
+	private static Entry coalesce(Entry earlier, Entry later) {
+		return earlier.type() == Type.CREATE && later.type() == Type.UPDATE ? later.as(Type.CREATE) : later;
+	}
+
+	/**
+	 * Writes {@code entries}, at most one per employee, in transactions of {@code batchSize}. A transaction that
+	 * fails on its data is retried one entry at a time; any other failure ends the write.
+	 *
+	 * @return the entries the database refused
+	 */
+	private List<Entry> write(List<Entry> entries) {
+		List<Entry> rejected = new ArrayList<>();
+		for (int from = 0; from < entries.size(); from += batchSize) {
+			List<Entry> chunk = entries.subList(from, Math.min(entries.size(), from + batchSize));
+			try {
+				store(chunk);
+			}
+			catch (DataIntegrityViolationException e) {
+				log.debug("Writing {} employees failed, retrying one at a time", chunk.size(), e);
+				for (Entry entry : chunk) {
+					try {
+						store(List.of(entry));
+					}
+					catch (DataIntegrityViolationException refused) {
+						log.error("The database refused the {} of employee {}", entry.type(), entry.id(), refused);
+						rejected.add(entry);
+					}
+				}
+			}
+		}
+		return rejected;
+	}
+
+	/**
+	 * Writes {@code chunk} in one transaction. Deletes go first and inserts last, so a unique value released by
+	 * one employee can be taken by another. Creates are written as updates first, which makes replaying one that
+	 * was already stored harmless.
+	 */
+	private void store(List<Entry> chunk) {
+		List<Entry> deletes = chunk.stream().filter(entry -> entry.type() == Type.DELETE).toList();
+		List<Entry> stores = chunk.stream().filter(entry -> entry.type() != Type.DELETE).toList();
+		transactionTemplate.executeWithoutResult(status -> {
+			if (!deletes.isEmpty()) {
+				jdbcTemplate.batchUpdate(DELETE, deletes, deletes.size(),
+						(statement, entry) -> statement.setLong(1, entry.id()));
+			}
+			if (stores.isEmpty()) {
+				return;
+			}
+			int[] updated = jdbcTemplate.batchUpdate(UPDATE, stores, stores.size(), (statement, entry) -> {
+				bind(statement, entry);
+				// Makes replays idempotent: a row never goes back to an older version
+				statement.setLong(8, entry.version());
+			})[0];
+			List<Entry> missing = new ArrayList<>();
+			for (int i = 0; i < stores.size(); i++) {
+				if (stores.get(i).type() == Type.CREATE && updated[i] == 0) {
+					missing.add(stores.get(i));
+				}
+			}
+			insert(missing);
+		});
+	}
+
+	/**
+	 * Inserts the created employees that have no row yet; the others were stored before a crash.
+	 */
+	private void insert(List<Entry> creates) {
+		if (creates.isEmpty()) {
+			return;
+		}
+		Set<Long> stored = new HashSet<>(jdbcTemplate.queryForList("SELECT id FROM employee WHERE id = ANY(?)",
+				Long.class, (Object) creates.stream().map(Entry::id).toArray(Long[]::new)));
+		List<Entry> inserts = creates.stream().filter(entry -> !stored.contains(entry.id())).toList();
+		if (!inserts.isEmpty()) {
+			jdbcTemplate.batchUpdate(INSERT, inserts, inserts.size(), WriteBehindWriter::bind);
+		}
+	}
+
+	private static void bind(PreparedStatement statement, Entry entry) throws SQLException {
+		statement.setString(1, entry.firstName());
+		statement.setString(2, entry.lastName());
+		statement.setString(3, entry.description());
+		statement.setObject(4, entry.jobYears());
+		statement.setString(5, entry.email());
+		statement.setLong(6, entry.version());
+		statement.setLong(7, entry.id());
+	}
+
+	@Override
+	public void start() {
+		try {
+			int recovered = recover();
+			if (recovered > 0) {
+				log.info("Recovered {} journaled employee writes", recovered);
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException("Could not read the employee journal", e);
+		}
+		// The database may be down: everything below is retried by the flush loop
+		flushQuietly();
+		CustomizableThreadFactory threads = new CustomizableThreadFactory("write-behind-");
+		threads.setDaemon(true);
+		flusher = Executors.newSingleThreadScheduledExecutor(threads);
+		flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval.toMillis(), flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+		running = true;
+	}
+
+	@Override
+	public void stop() {
+		running = false;
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(30, TimeUnit.SECONDS);
+			int flushed = flush();
+			log.info("Flushed {} pending employee writes on shutdown", flushed);
+		}
+		catch (IOException | RuntimeException e) {
+			log.error("Could not flush {} pending employee writes on shutdown; they will be replayed from the journal",
+					getPendingCount(), e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			journal.close();
+		}
+		catch (IOException e) {
+			log.error("Could not close the employee journal", e);
+		}
+	}
+
+	@Override
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Below the web server's phases: started before it accepts requests, stopped after it has drained them.
+	 */
+	@Override
+	public int getPhase() {
+		return SmartLifecycle.DEFAULT_PHASE - 4096;
+	}
+
+	/**
+	 * One round of the flush loop: flushes, then, while the database answers, catches up on whatever an outage
+	 * left undone. Only a database that cannot be reached makes the writer {@linkplain #isDegraded() degraded},
+	 * and is logged once per outage rather than on every attempt; writes the database refuses were already set
+	 * aside by {@link #flush()}.
+	 */
+	private void flushQuietly() {
+		if (retryDelay > 0 && System.nanoTime() - retryAt < 0) {
+			return;
+		}
+		try {
+			int flushed = flush();
+			if (degraded || !snapshot.isLoaded()) {
+				loadSnapshot();
+			}
+			ids.refill();
+			retryDelay = 0;
+			if (degraded) {
+				degraded = false;
+				log.info("Database reachable again, flushed {} employee writes", flushed);
+			}
+			else if (flushed > 0) {
+				log.debug("Flushed {} employee writes", flushed);
+			}
+		}
+		catch (IOException | RuntimeException e) {
+			retryDelay = retryDelay == 0 ? Math.max(flushInterval.toNanos(), MIN_RETRY_DELAY.toNanos())
+					: Math.min(2 * retryDelay, MAX_RETRY_DELAY.toNanos());
+			retryAt = System.nanoTime() + retryDelay;
+			if (!(e instanceof RuntimeException failure && DatabaseUnavailableAdvice.isUnavailable(failure))) {
+				// Not an outage, such as a full disk or a timed out statement: retried without going degraded
+				log.error("Could not flush {} employee writes, retrying in {} ms", getPendingCount(),
+						TimeUnit.NANOSECONDS.toMillis(retryDelay), e);
+			}
+			else if (!degraded) {
+				degraded = true;
+				log.warn("Could not write to the database, keeping {} employee writes in the journal until it is back",
+						getPendingCount(), e);
+			}
+			else {
+				log.debug("Database still unreachable", e);
+			}
+		}
+	}
+
+}
+// end::code[]
@@ -6,6 +6,10 @@ const ReactDOM = require('react-dom'); // <2>
 const client = require('./client'); // <3>
 // end::vars[]
 
+const employeesPath = '/react-and-spring-data-rest-basic-0.0.1-SNAPSHOT/api/employees';
+// spring.data.rest.max-page-size
+const pageSize = 1000;
+
 // tag::app[]
 class App extends React.Component { // <1>
 
@@ -15,8 +19,70 @@ class App extends React.Component { // <1>
 	}
 
 	componentDidMount() { // <2>
-		client({method: 'GET', path: '/react-and-spring-data-rest-basic-0.0.1-SNAPSHOT/api/employees'}).done(response => {
-			this.setState({employees: response.entity._embedded.employees});
+		this.loadFromServer();
+		this.listenForChanges();
+	}
+
+	componentWillUnmount() {
+		this.changes.close();
+	}
+
+	// Walk the keyset cursor along its next links until every employee is loaded; ids start at 1, so after=0 is
+	// the first page. A newer load, started by a reset, stops the older one.
+	loadFromServer() {
+		const load = this.load = (this.load || 0) + 1;
+		const loadPage = (path, first) => {
+			client({method: 'GET', path: path}).done(response => {
+				if (load !== this.load) {
+					return;
+				}
+				const page = response.entity._embedded ? response.entity._embedded.employees : [];
+				this.setState(state => {
+					if (first) {
+						return {employees: page};
+					}
+					// Skip employees a change event already added while the earlier pages were loading
+					const loaded = new Set(state.employees.map(employee => employee._links.self.href));
+					return {employees: state.employees.concat(page.filter(employee => !loaded.has(employee._links.self.href)))};
+				});
+				if (response.entity._links.next) {
+					loadPage(response.entity._links.next.href, false);
+				}
+			});
+		};
+		loadPage(employeesPath + '?after=0&size=' + pageSize, true);
+	}
+
+	// Apply the deltas pushed by /api/employees/changes instead of re-fetching the list. The server keeps no
+	// history, so after the EventSource reconnects (dropped as too slow, timed out or cut off) the changes missed
+	// meanwhile are only picked up by a reload.
+	listenForChanges() {
+		this.changes = new EventSource(employeesPath + '/changes');
+		this.changes.onopen = () => {
+			if (this.changesOpened) {
+				this.loadFromServer();
+			}
+			this.changesOpened = true;
+		};
+		this.changes.addEventListener('created', event => this.applyChange(JSON.parse(event.data)));
+		this.changes.addEventListener('updated', event => this.applyChange(JSON.parse(event.data)));
+		this.changes.addEventListener('deleted', event => this.applyChange(JSON.parse(event.data)));
+		this.changes.addEventListener('reset', () => this.loadFromServer());
+	}
+
+	applyChange(change) {
+		this.setState(state => {
+			if (change.type === 'deleted') {
+				return {employees: state.employees.filter(employee => employee._links.self.href !== change.href)};
+			}
+			const employee = Object.assign({}, change.employee, {_links: {self: {href: change.href}}});
+			const index = state.employees.findIndex(existing => existing._links.self.href === change.href);
+			if (index === -1) {
+				return {employees: state.employees.concat([employee])};
+			}
+			const employees = state.employees.slice();
+			employees[index] = employee;
+			return {employees: employees};
 		});
 	}
 
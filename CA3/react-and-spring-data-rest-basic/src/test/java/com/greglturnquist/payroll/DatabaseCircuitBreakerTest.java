@@ -0,0 +1,106 @@
+package com.greglturnquist.payroll;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseCircuitBreakerTest {
+
+    static final long FAST = Duration.ofMillis(10).toNanos();
+    static final long SLOW = Duration.ofSeconds(2).toNanos();
+
+    /**
+     * Clock read by the breaker, moved forward by the tests
+     */
+    AtomicLong now;
+
+    /**
+     * Breaker over a window of 10 calls that opens at 50% failed or 80% slow calls, once 4 calls are recorded
+     * This object is initialized in the setUp method
+     */
+    DatabaseCircuitBreaker breaker;
+
+    @BeforeEach
+    void setUp() {
+        now = new AtomicLong();
+        breaker = new DatabaseCircuitBreaker(10, 4, 50, 80, Duration.ofSeconds(1), Duration.ofSeconds(5), 2, now::get);
+    }
+
+    /**
+     * This method tests calls failing at the failure rate threshold
+     * The expected result is an open circuit that refuses calls until the open period is over
+     */
+    @Test
+    void testOpensOnFailureRate() {
+        // Arrange
+        call(false, FAST);
+        call(true, FAST);
+        call(false, FAST);
+        assertEquals(DatabaseCircuitBreaker.State.CLOSED, breaker.getState());
+        // Act
+        call(true, FAST);
+        // Assert
+        assertEquals(DatabaseCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(DatabaseCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    /**
+     * This method tests successful calls that are slower than the slow call threshold
+     * The expected result is an open circuit once 80% of the recorded calls are slow
+     */
+    @Test
+    void testOpensOnSlowCallRate() {
+        // Arrange
+        for (int i = 0; i < 3; i++) {
+            call(false, SLOW);
+        }
+        call(false, FAST);
+        assertEquals(DatabaseCircuitBreaker.State.CLOSED, breaker.getState());
+        // Act
+        call(false, SLOW);
+        // Assert
+        assertEquals(DatabaseCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    /**
+     * This method tests the probe calls let through once the open period is over
+     * The expected result is a closed circuit after two fast probes, and an open one again after a failed probe
+     */
+    @Test
+    void testHalfOpenProbes() {
+        // Arrange
+        open();
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        // Act
+        call(false, FAST);
+        call(false, FAST);
+        // Assert
+        assertEquals(DatabaseCircuitBreaker.State.CLOSED, breaker.getState());
+        open();
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        assertTrue(breaker.tryAcquire());
+        assertTrue(breaker.tryAcquire());
+        assertFalse(breaker.tryAcquire());
+        breaker.record(FAST, true);
+        assertEquals(DatabaseCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            call(true, FAST);
+        }
+        assertEquals(DatabaseCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private void call(boolean failed, long duration) {
+        assertTrue(breaker.tryAcquire());
+        breaker.record(duration, failed);
+    }
+}
@@ -0,0 +1,91 @@
+package com.greglturnquist.payroll;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseConcurrencyLimitTest {
+
+    static final long FAST = Duration.ofMillis(10).toNanos();
+
+    /**
+     * Limit starting at 10 calls, between 2 and 40, updated every 10 calls
+     * This object is initialized in the setUp method
+     */
+    DatabaseConcurrencyLimit limit;
+
+    @BeforeEach
+    void setUp() {
+        limit = new DatabaseConcurrencyLimit(10, 2, 40, 1.5, 0.2, 10);
+    }
+
+    /**
+     * This method tests acquiring more slots than the limit allows
+     * The expected result is a refused call once the limit is in flight, and a granted one after a release
+     */
+    @Test
+    void testRefusesOverLimit() {
+        // Arrange
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limit.tryAcquire());
+        }
+        // Act
+        boolean over = limit.tryAcquire();
+        // Assert
+        assertFalse(over);
+        assertEquals(10, limit.getInFlight());
+        limit.release();
+        assertTrue(limit.tryAcquire());
+    }
+
+    /**
+     * This method tests a saturated limit whose calls keep the same latency
+     * The expected result is a limit that grows up to its maximum
+     */
+    @Test
+    void testGrowsWhileLatencyIsSteady() {
+        // Act
+        for (int i = 0; i < 200; i++) {
+            saturate(FAST);
+        }
+        // Assert
+        assertEquals(40, limit.getLimit());
+    }
+
+    /**
+     * This method tests a saturated limit whose calls get ten times slower
+     * The expected result is a limit that drops below where it started, and no calls left in flight
+     */
+    @Test
+    void testShrinksWhenLatencyGrows() {
+        // Arrange
+        for (int i = 0; i < 5; i++) {
+            saturate(FAST);
+        }
+        int before = limit.getLimit();
+        // Act
+        for (int i = 0; i < 10; i++) {
+            saturate(10 * FAST);
+        }
+        // Assert
+        assertTrue(limit.getLimit() < before);
+        assertTrue(limit.getLimit() < 10);
+        assertEquals(0, limit.getInFlight());
+    }
+
+    /**
+     * Fills every slot, then releases them all with the given latency
+     */
+    private void saturate(long rttNanos) {
+        int calls = 0;
+        while (limit.tryAcquire()) {
+            calls++;
+        }
+        for (int i = 0; i < calls; i++) {
+            limit.release(rttNanos);
+        }
+    }
+}
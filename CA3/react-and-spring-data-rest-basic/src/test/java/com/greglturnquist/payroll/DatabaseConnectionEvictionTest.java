@@ -0,0 +1,85 @@
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.time.Duration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.h2.tools.Server;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The application reaching an H2 TCP server through a {@link NetworkFaultProxy}, which the test uses to break
+ * every pooled connection at once. The read cache is off so that every call reaches the database.
+ */
+@SpringBootTest(properties = "spring.cache.type=none")
+@ActiveProfiles("test")
+@DirtiesContext
+class DatabaseConnectionEvictionTest {
+
+    static Server server;
+    static NetworkFaultProxy proxy;
+
+    @Autowired
+    EmployeeRepository repository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException, SQLException {
+        server = Server.createTcpServer("-tcpPort", "0", "-tcpDaemon", "-ifNotExists",
+                "-baseDir", Files.createTempDirectory("h2-eviction").toString()).start();
+        proxy = new NetworkFaultProxy(server.getPort(),
+                new NetworkFaultProxy.Faults(Duration.ZERO, Duration.ZERO, 0, 0, 0, Duration.ZERO));
+        registry.add("spring.datasource.url", () -> "jdbc:h2:tcp://localhost:" + proxy.getPort()
+                + "/./eviction;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE");
+    }
+
+    @AfterAll
+    static void stopDatabase() throws IOException {
+        proxy.close();
+        server.stop();
+    }
+
+    /**
+     * This method tests repository calls made right after the network reset every pooled connection
+     * The expected result is that every call succeeds: the first evicts the broken connections and its retry
+     * opens a new one
+     */
+    @Test
+    void brokenConnectionsAreEvictedBeforeRetrying() {
+        // Arrange
+        for (int i = 0; i < 5; i++) {
+            repository.findAll(PageRequest.of(0, 5));
+        }
+        proxy.resetConnections();
+
+        // Act
+        int failures = 0;
+        for (int i = 0; i < 20; i++) {
+            try {
+                repository.findAll(PageRequest.of(0, 5));
+            }
+            catch (RuntimeException e) {
+                failures++;
+            }
+        }
+
+        // Assert
+        assertEquals(0, failures);
+        assertTrue(meterRegistry.counter("payroll.db.evictions").count() >= 1);
+    }
+}
@@ -0,0 +1,280 @@
+package com.greglturnquist.payroll;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Open-loop load on GET /api/employees at once, twice and four times the rate the server sustains under a
+ * closed-loop load, with and without the adaptive concurrency limit. The capacity is measured once, in a
+ * warmed-up JVM, and offered to both variants.
+ * Every query first waits for one of DB_CORES permits and holds it for QUERY_TIME, standing in for a database
+ * host that answers a few queries at a time, so that the database, and not the CPU running both the load and
+ * the server, is what saturates.
+ * Latencies are measured from the time each request was due to be sent, so a slow server cannot hide its
+ * queueing by slowing the load down. Run with ./gradlew benchmark
+ */
+@Tag("benchmark")
+class EmployeeConcurrencyLimitBenchmark {
+
+    /**
+     * Number of queries the simulated database runs at once
+     */
+    static final int DB_CORES = 2;
+
+    /**
+     * Time the simulated database spends on each query
+     */
+    static final Duration QUERY_TIME = Duration.ofMillis(25);
+
+    /**
+     * Offered load as a multiple of the measured capacity, doubling at every step
+     */
+    static final double[] LOADS = { 1, 2, 4 };
+
+    /**
+     * Time each load is offered for
+     */
+    static final Duration STEP = Duration.ofSeconds(10);
+
+    /**
+     * Number of closed-loop clients measuring the capacity
+     */
+    static final int CLIENTS = 8;
+
+    /**
+     * Number of closed-loop runs warming up the JVM before the capacity is measured
+     */
+    static final int WARM_UP_RUNS = 2;
+
+    final HttpClient http = HttpClient.newHttpClient();
+
+    /**
+     * Offers the same doubling load to the application with and without the limit and prints the percentiles
+     * The expected result is that with the limit the p99 of the answered requests stays within a few times the
+     * one at the lowest load, the excess being shed with 503, while without it the p99 grows with the queue
+     */
+    @Test
+    void p99AsLoadDoubles() throws Exception {
+        // Arrange
+        double capacity = withApplication(false, request -> {
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                saturate(request);
+            }
+            return saturate(request);
+        });
+
+        // Act
+        List<Step> limited = withApplication(true, request -> offerLoads(request, capacity));
+        List<Step> unlimited = withApplication(false, request -> offerLoads(request, capacity));
+
+        // Assert
+        System.out.printf("capacity %.1f/s%n", capacity);
+        limited.forEach(step -> step.print("limited"));
+        unlimited.forEach(step -> step.print("unlimited"));
+        Step limitedBase = limited.get(0);
+        Step limitedPeak = limited.get(limited.size() - 1);
+        Step unlimitedPeak = unlimited.get(unlimited.size() - 1);
+        assertTrue(limitedPeak.shed() > 0);
+        assertTrue(limitedPeak.p99() < 5 * limitedBase.p99());
+        assertTrue(limitedPeak.p99() < unlimitedPeak.p99());
+    }
+
+    /**
+     * Starts the application with or without the limit on a fresh slow database, and runs {@code load} against it
+     */
+    private <T> T withApplication(boolean limit, Load<T> load) throws Exception {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(
+                ReactAndSpringDataRestApplication.class, SlowDatabase.class)
+                .run("--spring.profiles.active=test", "--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:concurrency-" + UUID.randomUUID(),
+                        "--payroll.db.concurrency.enabled=" + limit)) {
+            int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            String path = context.getEnvironment().getProperty("server.servlet.context-path", "");
+            URI uri = URI.create("http://localhost:" + port + path + "/api/employees?size=20");
+            return load.run(HttpRequest.newBuilder(uri).build());
+        }
+    }
+
+    /**
+     * Offers each of the LOADS in turn, after one closed-loop run to warm up
+     */
+    private List<Step> offerLoads(HttpRequest request, double capacity) throws Exception {
+        saturate(request);
+        List<Step> steps = new ArrayList<>();
+        for (double load : LOADS) {
+            Thread.sleep(2_000);
+            steps.add(offer(request, load * capacity, load));
+        }
+        return steps;
+    }
+
+    /**
+     * Requests per second answered to CLIENTS clients each sending its next request as soon as the last is answered
+     */
+    private double saturate(HttpRequest request) throws InterruptedException {
+        long deadline = System.nanoTime() + STEP.toNanos();
+        AtomicInteger answered = new AtomicInteger();
+        Thread[] clients = new Thread[CLIENTS];
+        for (int i = 0; i < CLIENTS; i++) {
+            clients[i] = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    try {
+                        if (http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                            answered.incrementAndGet();
+                        }
+                    }
+                    catch (Exception e) {
+                        return;
+                    }
+                }
+            });
+            clients[i].start();
+        }
+        for (Thread client : clients) {
+            client.join();
+        }
+        return answered.get() / (double) STEP.toSeconds();
+    }
+
+    /**
+     * Sends requests at a fixed rate for STEP without waiting for the answers, then waits for all of them
+     */
+    private Step offer(HttpRequest request, double ratePerSecond, double load) {
+        long interval = (long) (1e9 / ratePerSecond);
+        int requests = (int) (STEP.toNanos() / interval);
+        long[] latencies = new long[requests];
+        int[] statuses = new int[requests];
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[requests];
+        long begin = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            long due = begin + i * interval;
+            LockSupport.parkNanos(due - System.nanoTime());
+            int n = i;
+            responses[i] = http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .handle((response, failure) -> {
+                        latencies[n] = System.nanoTime() - due;
+                        statuses[n] = failure == null ? response.statusCode() : -1;
+                        return null;
+                    });
+        }
+        CompletableFuture.allOf(responses).join();
+
+        long[] answered = new long[requests];
+        int ok = 0;
+        int shed = 0;
+        for (int i = 0; i < requests; i++) {
+            if (statuses[i] == 200) {
+                answered[ok++] = latencies[i];
+            }
+            else {
+                shed++;
+            }
+        }
+        answered = Arrays.copyOf(answered, ok);
+        Arrays.sort(answered);
+        return new Step(load, ratePerSecond, answered, shed);
+    }
+
+    interface Load<T> {
+        T run(HttpRequest request) throws Exception;
+    }
+
+    /**
+     * Sorted latencies in nanoseconds of the requests answered with 200 at one load, and the number of others
+     */
+    record Step(double load, double rate, long[] answered, int shed) {
+
+        long p99() {
+            return percentile(99);
+        }
+
+        long percentile(int percent) {
+            return answered.length == 0 ? Long.MAX_VALUE
+                    : answered[Math.min(answered.length - 1, answered.length * percent / 100)];
+        }
+
+        void print(String variant) {
+            System.out.printf("%-9s load %3.1fx (%6.1f/s)  ok %5d  shed %5d  p50 %8.1f ms  p99 %8.1f ms%n", variant,
+                    load, rate, answered.length, shed, percentile(50) / 1e6, p99() / 1e6);
+        }
+    }
+
+    /**
+     * Wraps the data source so that every query waits for one of DB_CORES permits and holds it for QUERY_TIME
+     */
+    @Configuration(proxyBeanMethods = false)
+    static class SlowDatabase {
+
+        @Bean
+        static BeanPostProcessor slowDatabasePostProcessor() {
+            Semaphore cores = new Semaphore(DB_CORES, true);
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof DataSource dataSource)) {
+                        return bean;
+                    }
+                    return new DelegatingDataSource(dataSource) {
+                        @Override
+                        public Connection getConnection() throws SQLException {
+                            return slow(Connection.class, super.getConnection(), cores);
+                        }
+                    };
+                }
+            };
+        }
+
+        private static <T> T slow(Class<T> type, T target, Semaphore cores) {
+            return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+                if (method.getName().equals("executeQuery")) {
+                    cores.acquire();
+                    try {
+                        Thread.sleep(QUERY_TIME.toMillis());
+                    }
+                    finally {
+                        cores.release();
+                    }
+                }
+                try {
+                    Object result = method.invoke(target, args);
+                    return result instanceof PreparedStatement statement && type == Connection.class
+                            ? slow(PreparedStatement.class, statement, cores)
+                            : result;
+                }
+                catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.greglturnquist.payroll;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.Arrays;
+
+import org.h2.tools.Server;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares per-request latency of GET /api/employees with the database behind an H2 TCP server
+ * (the db VM setup) and with the embedded profile, where the database file is opened in the web JVM.
+ * Both variants use a file-backed database and real HTTP requests.
+ * Run with ./gradlew benchmark
+ */
+@Tag("benchmark")
+class EmployeeDatabaseModeBenchmark {
+
+    /**
+     * Number of employees in the database
+     */
+    static final int EMPLOYEES = 200;
+
+    /**
+     * Number of untimed requests before measuring
+     */
+    static final int WARM_UP = 2_000;
+
+    /**
+     * Number of timed requests
+     */
+    static final int REQUESTS = 5_000;
+
+    final HttpClient http = HttpClient.newHttpClient();
+
+    /**
+     * Runs the same request loop against both modes and prints the latency percentiles
+     * The expected result is that the embedded mode is faster, and its TCP server serves the same data
+     */
+    @Test
+    void tcpVersusEmbedded(@TempDir Path dir) throws Exception {
+        // Arrange
+        Server dbServer = Server.createTcpServer("-tcpPort", "0", "-tcpDaemon", "-ifNotExists", "-baseDir", dir.toString()).start();
+        Path embeddedDir = Files.createDirectories(dir.resolve("embedded"));
+
+        // Act
+        long[] tcp;
+        try (ConfigurableApplicationContext context = start(
+                "--spring.datasource.url=jdbc:h2:tcp://localhost:" + dbServer.getPort() + "/./tcpdb;DB_CLOSE_ON_EXIT=FALSE")) {
+            tcp = measure(context);
+        } finally {
+            dbServer.stop();
+        }
+
+        long[] embedded;
+        long employeesSeenOverTcp;
+        try (ConfigurableApplicationContext context = start(
+                "--spring.profiles.active=embedded",
+                "--spring.datasource.url=jdbc:h2:file:" + embeddedDir.resolve("jpadb") + ";DB_CLOSE_ON_EXIT=FALSE",
+                "--payroll.h2.tcp-port=0")) {
+            embedded = measure(context);
+            int port = context.getBean(Server.class).getPort();
+            try (Connection connection = DriverManager.getConnection(
+                    "jdbc:h2:tcp://localhost:" + port + "/" + embeddedDir.resolve("jpadb"), "sa", "");
+                 ResultSet count = connection.createStatement().executeQuery("SELECT COUNT(*) FROM EMPLOYEE")) {
+                count.next();
+                employeesSeenOverTcp = count.getLong(1);
+            }
+        }
+
+        // Assert
+        print("tcp", tcp);
+        print("embedded", embedded);
+        assertEquals(EMPLOYEES, employeesSeenOverTcp);
+        assertTrue(percentile(embedded, 50) < percentile(tcp, 50));
+    }
+
+    /**
+     * Starts the application on a random port with a fresh schema
+     */
+    private ConfigurableApplicationContext start(String... args) {
+        String[] common = { "--server.port=0", "--spring.jpa.hibernate.ddl-auto=create-drop" };
+        String[] all = Arrays.copyOf(common, common.length + args.length);
+        System.arraycopy(args, 0, all, common.length, args.length);
+        return new SpringApplicationBuilder(ReactAndSpringDataRestApplication.class).run(all);
+    }
+
+    /**
+     * Seeds the employees, then returns the sorted latencies in nanoseconds of the timed requests
+     */
+    private long[] measure(ConfigurableApplicationContext context) throws Exception {
+        EmployeeRepository repository = context.getBean(EmployeeRepository.class);
+        for (long i = repository.count(); i < EMPLOYEES; i++) {
+            repository.save(new Employee("First" + i, "Last" + i, "description " + i, (int) i % 40, "user" + i + "@example.com"));
+        }
+        int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+        String path = context.getEnvironment().getProperty("server.servlet.context-path", "");
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path + "/api/employees?size=20")).build();
+
+        for (int i = 0; i < WARM_UP; i++) {
+            get(request);
+        }
+        long[] latencies = new long[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            long start = System.nanoTime();
+            get(request);
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+        return latencies;
+    }
+
+    private void get(HttpRequest request) throws Exception {
+        HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+        assertEquals(200, response.statusCode());
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    private static void print(String mode, long[] sorted) {
+        System.out.printf("%-8s p50 %6.2f ms  p90 %6.2f ms  p99 %6.2f ms%n", mode,
+                percentile(sorted, 50) / 1e6, percentile(sorted, 90) / 1e6, percentile(sorted, 99) / 1e6);
+    }
+}
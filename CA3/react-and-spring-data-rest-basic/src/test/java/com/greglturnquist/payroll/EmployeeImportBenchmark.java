@@ -0,0 +1,111 @@
+package com.greglturnquist.payroll;
+
+import java.sql.SQLException;
+
+import org.h2.tools.Server;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Compares rows per second of single POSTs against the bulk import endpoint.
+ * The database runs behind a local H2 TCP server so every round trip goes over a socket, like on the db VM.
+ * Run with ./gradlew benchmark
+ */
+@Tag("benchmark")
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class EmployeeImportBenchmark {
+
+    /**
+     * Number of rows sent one POST at a time
+     */
+    static final int SINGLE_ROWS = 2_000;
+
+    /**
+     * Number of rows sent through the import endpoint
+     */
+    static final int BULK_ROWS = 50_000;
+
+    static Server server;
+
+    @Autowired
+    MockMvc mvc;
+
+    /**
+     * Starts a private H2 TCP server, which dies with the test JVM, and points the datasource at it
+     */
+    @DynamicPropertySource
+    static void tcpDatabase(DynamicPropertyRegistry registry) throws SQLException {
+        server = Server.createTcpServer("-tcpPort", "0", "-tcpDaemon", "-ifNotExists").start();
+        registry.add("spring.datasource.url",
+                () -> "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:import-benchmark;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE");
+    }
+
+    /**
+     * Inserts the same kind of rows both ways and prints rows per second
+     * The expected result is that the bulk import is faster than the single POSTs
+     */
+    @Test
+    void bulkImportVersusSinglePosts() throws Exception {
+        // Arrange
+        warmUp();
+
+        // Act
+        long start = System.nanoTime();
+        for (int i = 0; i < SINGLE_ROWS; i++) {
+            mvc.perform(post("/api/employees").contentType(MediaType.APPLICATION_JSON).content(row(i)))
+                    .andExpect(status().isCreated());
+        }
+        double singleRate = SINGLE_ROWS / seconds(start);
+
+        String body = ndjson(BULK_ROWS);
+        start = System.nanoTime();
+        mvc.perform(post("/api/employees/import").contentType(EmployeeImportController.NDJSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.imported").value(BULK_ROWS));
+        double bulkRate = BULK_ROWS / seconds(start);
+
+        // Assert
+        System.out.printf("single POST : %,10.0f rows/s (%d rows)%n", singleRate, SINGLE_ROWS);
+        System.out.printf("bulk import : %,10.0f rows/s (%d rows)%n", bulkRate, BULK_ROWS);
+        assertTrue(bulkRate > singleRate);
+    }
+
+    private void warmUp() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            mvc.perform(post("/api/employees").contentType(MediaType.APPLICATION_JSON).content(row(i)));
+        }
+        mvc.perform(post("/api/employees/import").contentType(EmployeeImportController.NDJSON).content(ndjson(2_000)));
+    }
+
+    private static String ndjson(int rows) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            body.append(row(i)).append('\n');
+        }
+        return body.toString();
+    }
+
+    private static String row(int i) {
+        return "{\"firstName\":\"First" + i + "\",\"lastName\":\"Last" + i + "\",\"description\":\"imported\","
+                + "\"jobYears\":" + (i % 40) + ",\"email\":\"user" + i + "@example.com\"}";
+    }
+
+    private static double seconds(long start) {
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
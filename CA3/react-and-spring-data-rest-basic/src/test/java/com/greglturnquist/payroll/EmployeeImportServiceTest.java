@@ -0,0 +1,96 @@
+package com.greglturnquist.payroll;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class EmployeeImportServiceTest {
+
+    @Autowired
+    EmployeeImportService importService;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @AfterEach
+    void deleteImported() {
+        jdbcTemplate.update("DELETE FROM employee WHERE email LIKE 'import%@example.com'");
+    }
+
+    /**
+     * This method tests an NDJSON import of 5 rows where the third has a description longer than its column
+     * The expected result is the other 4 rows imported and only the third reported, as too long
+     */
+    @Test
+    void rowTooLongForItsColumnDoesNotRejectTheBatch() throws Exception {
+        // Arrange
+        String ndjson = rows(i -> i == 3 ? "d".repeat(300) : "importer", i -> i);
+
+        // Act
+        EmployeeImportService.Report report = importService.importEmployees(
+                new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        // Assert
+        assertEquals(4, report.getImported());
+        assertEquals(1, report.getFailed());
+        assertEquals(3, report.getErrors().get(0).row());
+        assertEquals(EmployeeValidator.Code.DESCRIPTION_TOO_LONG, report.getErrors().get(0).code());
+        assertImported(1, 2, 4, 5);
+    }
+
+    /**
+     * This method tests an NDJSON import of 5 valid rows where the database refuses the third
+     * The expected result is that the failed batch is retried row by row, importing the other 4 rows
+     */
+    @Test
+    void rowTheDatabaseRefusesDoesNotRejectTheBatch() throws Exception {
+        // Arrange
+        String ndjson = rows(i -> "importer", i -> i == 3 ? 100 : i);
+        jdbcTemplate.execute("ALTER TABLE employee ADD CONSTRAINT job_years_below_100 CHECK (job_years < 100)");
+
+        try {
+            // Act
+            EmployeeImportService.Report report = importService.importEmployees(
+                    new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+            // Assert
+            assertEquals(4, report.getImported());
+            assertEquals(1, report.getFailed());
+            assertEquals(3, report.getErrors().get(0).row());
+            assertImported(1, 2, 4, 5);
+        }
+        finally {
+            jdbcTemplate.execute("ALTER TABLE employee DROP CONSTRAINT job_years_below_100");
+        }
+    }
+
+    private static String rows(IntFunction<String> description, IntUnaryOperator jobYears) {
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 1; i <= 5; i++) {
+            ndjson.append("{\"firstName\":\"First").append(i).append("\",\"lastName\":\"Last\",\"description\":\"")
+                    .append(description.apply(i)).append("\",\"jobYears\":").append(jobYears.applyAsInt(i))
+                    .append(",\"email\":\"import").append(i).append("@example.com\"}\n");
+        }
+        return ndjson.toString();
+    }
+
+    private void assertImported(int... rows) {
+        List<String> expected = IntStream.of(rows).mapToObj(i -> "import" + i + "@example.com").toList();
+        assertEquals(expected, jdbcTemplate.queryForList(
+                "SELECT email FROM employee WHERE email LIKE 'import%@example.com' ORDER BY email", String.class));
+    }
+}
@@ -0,0 +1,110 @@
+package com.greglturnquist.payroll;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Cursor mode of the employee collection, GET /api/employees?after=&size=, with the maximum page size lowered
+ * to 10 so that the clamp is reached with a handful of employees.
+ */
+@SpringBootTest(properties = "spring.data.rest.max-page-size=10")
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class EmployeeKeysetControllerTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    EmployeeRepository repository;
+
+    final List<Employee> employees = new ArrayList<>();
+
+    @BeforeEach
+    void createEmployees() {
+        for (int i = 0; i < 20; i++) {
+            employees.add(repository.save(new Employee("Keyset" + i, "Walker", "keyset", i, "keyset" + i + "@example.com")));
+        }
+    }
+
+    @AfterEach
+    void deleteEmployees() {
+        repository.deleteAll(employees);
+    }
+
+    /**
+     * This method tests walking the whole collection from after=0 through the next links, 7 employees a page
+     * The expected result is every employee exactly once in id order, no empty page, and no next link on the last page
+     */
+    @Test
+    void nextLinksVisitEveryEmployeeOnce() throws Exception {
+        // Arrange
+        List<Long> expected = new ArrayList<>();
+        repository.findAll().forEach(employee -> expected.add(employee.getId()));
+        expected.sort(null);
+        String next = "/api/employees?after=0&size=7";
+
+        // Act
+        List<Long> visited = new ArrayList<>();
+        while (next != null) {
+            String body = mvc.perform(get(URI.create(next)))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            List<Number> ids = JsonPath.read(body, "$._embedded.employees[*].id");
+            assertFalse(ids.isEmpty(), next);
+            assertTrue(ids.size() <= 7, next);
+            ids.forEach(id -> visited.add(id.longValue()));
+            Map<String, Object> links = JsonPath.read(body, "$._links");
+            next = links.containsKey("next") ? JsonPath.read(body, "$._links.next.href") : null;
+        }
+
+        // Assert
+        assertEquals(expected, visited);
+    }
+
+    /**
+     * This method tests a page size above spring.data.rest.max-page-size
+     * The expected result is a page of 10 employees whose next link carries the clamped size and the last id
+     */
+    @Test
+    void sizeIsClampedToTheMaximum() throws Exception {
+        // Arrange
+        List<Long> ids = new ArrayList<>();
+        repository.findAll().forEach(employee -> ids.add(employee.getId()));
+        ids.sort(null);
+
+        // Act / Assert
+        mvc.perform(get(URI.create("/api/employees?after=0&size=50")))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.employees.length()").value(10))
+                .andExpect(jsonPath("$._links.next.href").value(containsString("after=" + ids.get(9) + "&size=10")));
+    }
+
+    /**
+     * This method tests a page size of 0
+     * The expected result is 400 Bad Request
+     */
+    @Test
+    void sizeBelowOneIsRejected() throws Exception {
+        // Act / Assert
+        mvc.perform(get(URI.create("/api/employees?after=0&size=0"))).andExpect(status().isBadRequest());
+    }
+}
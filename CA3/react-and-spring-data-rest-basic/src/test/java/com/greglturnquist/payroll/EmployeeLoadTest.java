@@ -0,0 +1,286 @@
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.h2.tools.Server;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * End-to-end load on {@code /api/employees}: the application is started on a random port against a local H2 TCP
+ * server seeded with {@code payroll.loadtest.employees} rows, and driven over HTTP with the JDK client by a mix of
+ * list, item, create, patch and delete requests.
+ *
+ * <p>Requests are sent at a fixed arrival rate whether or not earlier ones have completed (an open model), and each
+ * latency is taken from the time the request was scheduled to go out, not from when it actually went out, so a
+ * stalled server shows up in the percentiles instead of hiding behind a slowed-down client. Per operation the
+ * test writes an HdrHistogram percentile distribution ({@code <operation>.hgrm}, in milliseconds) and a
+ * {@code summary.txt} to {@code payroll.loadtest.report-dir}.
+ *
+ * <p>Settings, as {@code -Dpayroll.loadtest.<name>=<value>}: {@code rate} (requests per second), {@code duration}
+ * and {@code warm-up} (e.g. {@code 30s}), {@code employees}, {@code mix} (relative weights, e.g.
+ * {@code list=40,item=40,post=10,patch=8,delete=2}) and {@code database-url} to use another database instead of
+ * the local server. With {@code proxy=true} the application reaches the local server through a
+ * {@link NetworkFaultProxy}, configured with {@code -Dpayroll.proxy.*}.
+ * Run with ./gradlew loadTest
+ */
+@Tag("load")
+class EmployeeLoadTest {
+
+    /**
+     * Pages the list requests read, as a user paging through the list does
+     */
+    static final int PAGES = 50;
+
+    /**
+     * Longest latency the histograms hold, in microseconds
+     */
+    static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(5);
+
+    /**
+     * Longest wait for the requests still in flight once the last one was sent
+     */
+    static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(60);
+
+    enum Operation { LIST, ITEM, POST, PATCH, DELETE }
+
+    final HttpClient http = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    final int rate = Integer.getInteger("payroll.loadtest.rate", 100);
+    final Duration duration = DurationStyle.detectAndParse(System.getProperty("payroll.loadtest.duration", "30s"));
+    final Duration warmUp = DurationStyle.detectAndParse(System.getProperty("payroll.loadtest.warm-up", "10s"));
+    final int employees = Integer.getInteger("payroll.loadtest.employees", 10_000);
+    final Map<Operation, Integer> mix = mix(System.getProperty("payroll.loadtest.mix", "list=40,item=40,post=10,patch=8,delete=2"));
+    final Path reportDir = Path.of(System.getProperty("payroll.loadtest.report-dir", "build/reports/loadtest"));
+
+    final Map<Operation, Histogram> latencies = new EnumMap<>(Operation.class);
+    final Map<Operation, AtomicLong> errors = new EnumMap<>(Operation.class);
+
+    /**
+     * Failed requests by status code, or by exception class for those without a response
+     */
+    final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    final AtomicLong inFlight = new AtomicLong();
+
+    NetworkFaultProxy proxy;
+
+    /**
+     * Drives the configured mix for the warm-up and the measured duration, then writes the reports
+     * The expected result is a response or a failure recorded for every request sent
+     */
+    @Test
+    void openModelLoad(@TempDir Path dir) throws Exception {
+        // Arrange
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new ConcurrentHistogram(MAX_LATENCY_MICROS, 3));
+            errors.put(operation, new AtomicLong());
+        }
+        String url = System.getProperty("payroll.loadtest.database-url");
+        Server dbServer = null;
+        if (url == null) {
+            dbServer = Server.createTcpServer("-tcpPort", "0", "-tcpDaemon", "-ifNotExists", "-baseDir", dir.toString()).start();
+            int port = dbServer.getPort();
+            if (Boolean.getBoolean("payroll.loadtest.proxy")) {
+                proxy = new NetworkFaultProxy(port, NetworkFaultProxy.Faults.fromSystemProperties());
+                port = proxy.getPort();
+            }
+            url = "jdbc:h2:tcp://localhost:" + port + "/./loadtest;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE";
+        }
+
+        try (ConfigurableApplicationContext context = start(url)) {
+            int deletable = deletableEmployees();
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            jdbcTemplate.update("DELETE FROM employee");
+            EmployeeRepositoryBenchmark.seed(jdbcTemplate, 0, employees + deletable);
+            int port = ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+            URI base = URI.create("http://localhost:" + port
+                    + context.getEnvironment().getProperty("server.servlet.context-path", "") + "/api/employees");
+
+            // Act
+            long sent = drive(base);
+            long deadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+            while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+
+            // Assert
+            report();
+            assertEquals(0, inFlight.get(), "requests still in flight");
+            assertTrue(sent > 0);
+        }
+        finally {
+            if (proxy != null) {
+                proxy.close();
+            }
+            if (dbServer != null) {
+                dbServer.stop();
+            }
+        }
+    }
+
+    /**
+     * Starts the application on a random port with a fresh schema
+     */
+    private ConfigurableApplicationContext start(String url) {
+        return new SpringApplicationBuilder(ReactAndSpringDataRestApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=" + url,
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--spring.jpa.show-sql=false");
+    }
+
+    /**
+     * Employees seeded past {@link #employees} for the delete requests to remove, one each plus a margin
+     */
+    private int deletableEmployees() {
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        double seconds = (warmUp.toMillis() + duration.toMillis()) / 1000.0;
+        return (int) Math.ceil(rate * seconds * mix.getOrDefault(Operation.DELETE, 0) / totalWeight * 1.2) + 100;
+    }
+
+    /**
+     * Sends requests at their scheduled times until the end of the measured duration, never waiting for responses
+     *
+     * @return the number of requests sent
+     */
+    private long drive(URI base) {
+        Random random = new Random(42);
+        List<Operation> weighted = new ArrayList<>();
+        mix.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                weighted.add(operation);
+            }
+        });
+        long nextDeletable = EmployeeRepositoryBenchmark.SEED_BASE + employees + 1;
+
+        long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        long start = System.nanoTime();
+        long measureFrom = start + warmUp.toNanos();
+        long end = measureFrom + duration.toNanos();
+        long sent = 0;
+        for (long scheduled = start; scheduled < end; scheduled += interval) {
+            Operation operation = weighted.get(random.nextInt(weighted.size()));
+            long id = operation == Operation.DELETE ? nextDeletable++
+                    : EmployeeRepositoryBenchmark.SEED_BASE + 1 + random.nextInt(employees);
+            HttpRequest request = request(operation, base, id, random);
+
+            long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            send(operation, request, scheduled, scheduled >= measureFrom);
+            sent++;
+        }
+        return sent;
+    }
+
+    private HttpRequest request(Operation operation, URI base, long id, Random random) {
+        HttpRequest.Builder request = switch (operation) {
+            case LIST -> HttpRequest.newBuilder(URI.create(base + "?page=" + random.nextInt(PAGES) + "&size=20")).GET();
+            case ITEM -> HttpRequest.newBuilder(URI.create(base + "/" + id)).GET();
+            case POST -> HttpRequest.newBuilder(base)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"firstName\":\"Load\",\"lastName\":\"Test\","
+                            + "\"description\":\"created\",\"jobYears\":1,\"email\":\"load" + random.nextInt(1_000_000)
+                            + "@example.com\"}"));
+            case PATCH -> HttpRequest.newBuilder(URI.create(base + "/" + id))
+                    .header("Content-Type", "application/json")
+                    .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"jobYears\":" + random.nextInt(40) + "}"));
+            case DELETE -> HttpRequest.newBuilder(URI.create(base + "/" + id)).DELETE();
+        };
+        return request.timeout(DRAIN_TIMEOUT).build();
+    }
+
+    private void send(Operation operation, HttpRequest request, long scheduled, boolean measured) {
+        inFlight.incrementAndGet();
+        http.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, failure) -> {
+            if (measured) {
+                long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduled);
+                latencies.get(operation).recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+                if (failure != null || response.statusCode() >= 400) {
+                    errors.get(operation).incrementAndGet();
+                    String cause = failure != null ? failure.getClass().getSimpleName() : String.valueOf(response.statusCode());
+                    failures.computeIfAbsent(cause, key -> new AtomicLong()).incrementAndGet();
+                }
+            }
+            inFlight.decrementAndGet();
+        });
+    }
+
+    /**
+     * Prints the summary and writes it, with one histogram per operation, to the report directory
+     */
+    private void report() throws IOException {
+        Files.createDirectories(reportDir);
+        double seconds = duration.toMillis() / 1000.0;
+        try (PrintStream summary = new PrintStream(Files.newOutputStream(reportDir.resolve("summary.txt")))) {
+            for (PrintStream out : List.of(System.out, summary)) {
+                out.printf("target %,d req/s for %s after %s warm-up, %,d employees%n", rate, duration, warmUp, employees);
+                if (proxy != null) {
+                    out.println("database behind proxy: " + proxy.getFaults() + "; " + proxy.stats());
+                }
+                out.printf("%-7s %8s %7s %9s %9s %9s %9s %9s %9s%n",
+                        "op", "count", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+                for (Operation operation : Operation.values()) {
+                    Histogram histogram = latencies.get(operation);
+                    out.printf("%-7s %,8d %,7d %,9.1f %,9.2f %,9.2f %,9.2f %,9.2f %,9.2f%n",
+                            operation.name().toLowerCase(), histogram.getTotalCount(), errors.get(operation).get(),
+                            histogram.getTotalCount() / seconds, millis(histogram, 50), millis(histogram, 90),
+                            millis(histogram, 99), millis(histogram, 99.9), histogram.getMaxValue() / 1000.0);
+                }
+                if (!failures.isEmpty()) {
+                    out.println("errors by cause: " + new TreeMap<>(failures));
+                }
+            }
+        }
+        for (Operation operation : Operation.values()) {
+            try (PrintStream hgrm = new PrintStream(Files.newOutputStream(
+                    reportDir.resolve(operation.name().toLowerCase() + ".hgrm")))) {
+                latencies.get(operation).outputPercentileDistribution(hgrm, 1000.0);
+            }
+        }
+        System.out.println("Reports written to " + reportDir.toAbsolutePath());
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    private static Map<Operation, Integer> mix(String weights) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String weight : weights.split(",")) {
+            String[] parts = weight.split("=");
+            mix.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+        }
+        return mix;
+    }
+}
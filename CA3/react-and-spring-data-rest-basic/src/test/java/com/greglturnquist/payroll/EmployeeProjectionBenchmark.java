@@ -0,0 +1,109 @@
+package com.greglturnquist.payroll;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Bytes allocated to read one 100k-row page as managed entities, as read-only entities and as EmployeeRow records.
+ * Run with ./gradlew benchmark
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("test")
+class EmployeeProjectionBenchmark {
+
+    /**
+     * Number of rows in the page
+     */
+    static final int ROWS = 100_000;
+
+    /**
+     * Number of measured runs per variant, the first ones being warm-up
+     */
+    static final int RUNS = 5;
+
+    @Autowired
+    EmployeeRepository repository;
+
+    @Autowired
+    EntityManager entityManager;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    /**
+     * Fills the table with ROWS employees using plain JDBC
+     */
+    @BeforeEach
+    void seed() {
+        jdbcTemplate.update("DELETE FROM EMPLOYEE");
+        List<Object[]> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(new Object[] { i + 1L, "First" + i, "Last" + i, "description " + i, i % 40, "user" + i + "@example.com" });
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO EMPLOYEE (ID, FIRST_NAME, LAST_NAME, DESCRIPTION, JOB_YEARS, EMAIL, VERSION) "
+                + "VALUES (?, ?, ?, ?, ?, ?, 0)", rows);
+    }
+
+    /**
+     * Reads the same page three ways inside a transaction, as the collection resource does
+     * The expected result is that the record projection allocates less than managed entities
+     */
+    @Test
+    void allocationPerPage() {
+        // Arrange
+        PageRequest page = PageRequest.of(0, ROWS, Sort.by("id"));
+
+        // Act
+        long managed = allocated(() -> entityManager
+                .createQuery("select e from Employee e order by e.id", Employee.class)
+                .setMaxResults(ROWS)
+                .getResultList()
+                .size());
+        long readOnly = allocated(() -> repository.findAll(page).getNumberOfElements());
+        long projected = allocated(() -> repository.findAllProjectedBy(page).getNumberOfElements());
+
+        // Assert
+        System.out.printf("managed entities (before)      : %,14d bytes%n", managed);
+        System.out.printf("read-only entities (findAll)   : %,14d bytes%n", readOnly);
+        System.out.printf("EmployeeRow (findAllProjectedBy): %,13d bytes%n", projected);
+        assertTrue(projected < managed);
+    }
+
+    /**
+     * Smallest number of bytes the current thread allocated over RUNS transactions running the query
+     */
+    private long allocated(Supplier<Integer> query) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            int rows = transaction.execute(status -> query.get());
+            long bytes = threads.getCurrentThreadAllocatedBytes() - before;
+            assertTrue(rows == ROWS);
+            best = Math.min(best, bytes);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,242 @@
+package com.greglturnquist.payroll;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import javax.sql.DataSource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Identical GET requests sent while the first one is held inside its query, over real HTTP.
+ * Every query on the employee table is counted, and held at a gate while the tests need it to be.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "payroll.response-cache.enabled=false")
+@ActiveProfiles("test")
+class EmployeeReadCoalescingTest {
+
+    /**
+     * Number of identical requests sent at once
+     */
+    static final int REQUESTS = 20;
+
+    @LocalServerPort
+    int port;
+
+    @Value("${server.servlet.context-path}")
+    String contextPath;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    CacheManager cacheManager;
+
+    @Autowired
+    EmployeeCollectionVersion collectionVersion;
+
+    final HttpClient http = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void setUp() {
+        cacheManager.getCache(EmployeeCacheEventHandler.CACHE).clear();
+        GatedDatabase.queries.set(0);
+        GatedDatabase.gate = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    void openGate() {
+        GatedDatabase.gate.countDown();
+    }
+
+    /**
+     * This method tests identical requests for one employee sent while the first is running its query
+     * The expected result is one query, the same response for every request and all but one counted as coalesced
+     */
+    @Test
+    void testItemRequestsShareOneQuery() throws Exception {
+        // Arrange
+        double coalescedBefore = coalesced();
+        List<CompletableFuture<HttpResponse<String>>> responses = send("/api/employees/1", REQUESTS);
+        await(() -> waiting() == REQUESTS - 1);
+
+        // Act
+        GatedDatabase.gate.countDown();
+
+        // Assert
+        String body = responses.get(0).join().body();
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals(200, response.join().statusCode());
+            assertEquals(body, response.join().body());
+        }
+        assertTrue(body.contains("Frodo"));
+        assertEquals(1, GatedDatabase.queries.get());
+        assertEquals(REQUESTS - 1, coalesced() - coalescedBefore);
+    }
+
+    /**
+     * This method tests identical collection requests sent while the first is running its query
+     * The expected result is as many queries as a single request makes, and the same response for every request
+     */
+    @Test
+    void testCollectionRequestsShareOneQuery() throws Exception {
+        // Arrange
+        GatedDatabase.gate.countDown();
+        send("/api/employees?size=7", 1).get(0).join();
+        int single = GatedDatabase.queries.getAndSet(0);
+        GatedDatabase.gate = new CountDownLatch(1);
+        List<CompletableFuture<HttpResponse<String>>> responses = send("/api/employees?size=5", REQUESTS);
+        await(() -> waiting() == REQUESTS - 1);
+
+        // Act
+        GatedDatabase.gate.countDown();
+
+        // Assert
+        String body = responses.get(0).join().body();
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            assertEquals(200, response.join().statusCode());
+            assertEquals(body, response.join().body());
+            assertEquals(responses.get(0).join().headers().firstValue("ETag"), response.join().headers().firstValue("ETag"));
+        }
+        assertEquals(single, GatedDatabase.queries.get());
+    }
+
+    /**
+     * This method tests an identical request sent after a write while the first is running its query
+     * The expected result is that the second request runs its own query instead of waiting for the first
+     */
+    @Test
+    void testNoCoalescingAcrossWrites() throws Exception {
+        // Arrange
+        double coalescedBefore = coalesced();
+        CompletableFuture<HttpResponse<String>> first = send("/api/employees/1", 1).get(0);
+        await(() -> GatedDatabase.queries.get() == 1);
+        collectionVersion.onWrite(null);
+
+        // Act
+        CompletableFuture<HttpResponse<String>> second = send("/api/employees/1", 1).get(0);
+        await(() -> GatedDatabase.queries.get() == 2);
+        GatedDatabase.gate.countDown();
+
+        // Assert
+        assertEquals(200, first.join().statusCode());
+        assertEquals(200, second.join().statusCode());
+        assertEquals(0, coalesced() - coalescedBefore);
+    }
+
+    private List<CompletableFuture<HttpResponse<String>>> send(String path, int count) {
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + port + contextPath + path)).build();
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            responses.add(http.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+        }
+        return responses;
+    }
+
+    private double waiting() {
+        return meterRegistry.get("payroll.requests.coalescing.waiting").gauge().value();
+    }
+
+    private double coalesced() {
+        return meterRegistry.get("payroll.requests.coalesced").counter().count();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Counts the queries on the employee table and holds each of them until the gate is open
+     */
+    @TestConfiguration
+    static class GatedDatabase {
+
+        static final AtomicInteger queries = new AtomicInteger();
+
+        static volatile CountDownLatch gate = new CountDownLatch(0);
+
+        @Bean
+        static BeanPostProcessor gatedDatabasePostProcessor() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof DataSource dataSource) || !beanName.equals("dataSource")) {
+                        return bean;
+                    }
+                    return new DelegatingDataSource(dataSource) {
+                        @Override
+                        public Connection getConnection() throws SQLException {
+                            return gated(super.getConnection());
+                        }
+                    };
+                }
+            };
+        }
+
+        private static Connection gated(Connection connection) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                    (proxy, method, args) -> {
+                        Object result = invoke(method, connection, args);
+                        if (result instanceof PreparedStatement statement && method.getName().equals("prepareStatement")
+                                && ((String) args[0]).toLowerCase().matches("select .* from employee .*")) {
+                            return gated(statement);
+                        }
+                        return result;
+                    });
+        }
+
+        private static PreparedStatement gated(PreparedStatement statement) {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                        if (method.getName().equals("executeQuery")) {
+                            queries.incrementAndGet();
+                            gate.await();
+                        }
+                        return invoke(method, statement, args);
+                    });
+        }
+
+        private static Object invoke(java.lang.reflect.Method method, Object target, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            }
+            catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
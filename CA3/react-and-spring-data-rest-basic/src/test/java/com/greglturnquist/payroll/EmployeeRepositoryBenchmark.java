@@ -0,0 +1,234 @@
+package com.greglturnquist.payroll;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.LongConsumer;
+
+import org.h2.tools.Server;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Throughput and latency of {@link EmployeeRepository#save}, {@code findById}, {@code findAll(Pageable)} and
+ * {@code deleteById} as the employee table grows, against an in-memory H2, a file-backed embedded H2 and a file
+ * database behind a locally started H2 TCP server (the db VM setup). The {@code proxy} mode, not run by default,
+ * reaches that server through a {@link NetworkFaultProxy} configured with {@code -Dpayroll.proxy.*}.
+ *
+ * <p>Calls go through the repository bean of a started application, with its resilience and concurrency limit
+ * interceptors, but with the Spring cache turned off so every {@code findById} reaches the database. Each
+ * operation runs {@link #OPERATIONS} times back to back on one thread; saves insert new employees and the
+ * deletes remove them again, so the table size holds, and whatever a failed call left behind is removed after
+ * each round. Failed calls, such as statement timeouts, are counted
+ * rather than ending the run. Configurations can be narrowed with
+ * {@code -Dpayroll.benchmark.modes=mem,file,tcp} and {@code -Dpayroll.benchmark.sizes=1000,100000,1000000}.
+ * Run with ./gradlew benchmark
+ */
+@Tag("benchmark")
+class EmployeeRepositoryBenchmark {
+
+    /**
+     * Ids of seeded employees start above this, clear of the ids the application's sequence hands out
+     */
+    static final long SEED_BASE = 1_000_000_000L;
+
+    /**
+     * Rows inserted per seeding statement
+     */
+    static final int SEED_CHUNK = 50_000;
+
+    /**
+     * Number of untimed calls of each operation before measuring
+     */
+    static final int WARM_UP = 200;
+
+    /**
+     * Number of timed calls of each operation
+     */
+    static final int OPERATIONS = 1_000;
+
+    /**
+     * Page size of the findAll calls, the default of the collection resource
+     */
+    static final int PAGE_SIZE = 20;
+
+    /**
+     * findAll reads one of the first this many pages, as a user paging through the list does; deep OFFSET pages
+     * of a million rows run into the read timeout
+     */
+    static final int PAGES = 50;
+
+    enum Mode { MEM, FILE, TCP, PROXY }
+
+    /**
+     * Seeds each configuration up to every table size in turn and prints one line per operation
+     * The expected result is every operation measured, and the table back at its size after each round
+     */
+    @Test
+    void repositoryOperations(@TempDir Path dir) throws Exception {
+        // Arrange
+        List<Mode> modes = Arrays.stream(System.getProperty("payroll.benchmark.modes", "mem,file,tcp").split(","))
+                .map(mode -> Mode.valueOf(mode.trim().toUpperCase()))
+                .toList();
+        int[] sizes = Arrays.stream(System.getProperty("payroll.benchmark.sizes", "1000,100000,1000000").split(","))
+                .mapToInt(size -> Integer.parseInt(size.trim()))
+                .sorted()
+                .toArray();
+
+        System.out.printf("%-5s %9s %-10s %10s %9s %9s %9s %9s %7s%n",
+                "mode", "rows", "operation", "ops/s", "p50 us", "p90 us", "p99 us", "max us", "errors");
+        for (Mode mode : modes) {
+            Server dbServer = null;
+            NetworkFaultProxy proxy = null;
+            String url = switch (mode) {
+                case MEM -> "jdbc:h2:mem:repository-benchmark;DB_CLOSE_DELAY=-1";
+                case FILE -> "jdbc:h2:file:" + dir.resolve("file/jpadb") + ";DB_CLOSE_ON_EXIT=FALSE";
+                case TCP -> {
+                    dbServer = Server.createTcpServer("-tcpPort", "0", "-tcpDaemon", "-ifNotExists",
+                            "-baseDir", dir.resolve("tcp").toString()).start();
+                    yield "jdbc:h2:tcp://localhost:" + dbServer.getPort() + "/./jpadb;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE";
+                }
+                case PROXY -> {
+                    dbServer = Server.createTcpServer("-tcpPort", "0", "-tcpDaemon", "-ifNotExists",
+                            "-baseDir", dir.resolve("proxy").toString()).start();
+                    proxy = new NetworkFaultProxy(dbServer.getPort(), NetworkFaultProxy.Faults.fromSystemProperties());
+                    System.out.println("proxy: " + proxy.getFaults());
+                    yield "jdbc:h2:tcp://localhost:" + proxy.getPort() + "/./jpadb;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE";
+                }
+            };
+
+            try (ConfigurableApplicationContext context = start(url)) {
+                EmployeeRepository repository = context.getBean(EmployeeRepository.class);
+                JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+                jdbcTemplate.update("DELETE FROM employee");
+                int seeded = 0;
+
+                for (int size : sizes) {
+                    seed(jdbcTemplate, seeded, size);
+                    seeded = size;
+
+                    // Act
+                    List<Result> results = measure(repository, size);
+                    // Saved employees a failed delete left behind, or whose id was lost with a reset connection
+                    jdbcTemplate.update("DELETE FROM employee WHERE id < ?", SEED_BASE);
+
+                    // Assert
+                    results.forEach(result -> result.print(mode, size));
+                    assertEquals(4, results.size());
+                    assertEquals(size, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM employee", Long.class));
+                }
+            }
+            finally {
+                if (proxy != null) {
+                    System.out.println("proxy: " + proxy.stats());
+                    proxy.close();
+                }
+                if (dbServer != null) {
+                    dbServer.stop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts the application on a random port with a fresh schema and without the Spring cache
+     */
+    private ConfigurableApplicationContext start(String url) {
+        return new SpringApplicationBuilder(ReactAndSpringDataRestApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=" + url,
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--spring.jpa.show-sql=false",
+                "--spring.cache.type=none");
+    }
+
+    /**
+     * Grows the table from {@code from} to {@code to} employees with statements run by the database itself, so
+     * even a million rows over TCP take seconds rather than a million round trips. Each statement inserts at most
+     * {@link #SEED_CHUNK} rows to stay within the statement timeout.
+     */
+    static void seed(JdbcTemplate jdbcTemplate, int from, int to) {
+        for (int first = from + 1; first <= to; first += SEED_CHUNK) {
+            jdbcTemplate.update("INSERT INTO employee (id, first_name, last_name, description, job_years, email, version) "
+                    + "SELECT ? + x, 'First' || x, 'Last' || x, 'description ' || x, MOD(x, 40), 'user' || x || '@example.com', 0 "
+                    + "FROM SYSTEM_RANGE(?, ?)", SEED_BASE, first, Math.min(to, first + SEED_CHUNK - 1));
+        }
+        jdbcTemplate.execute("ANALYZE TABLE employee");
+    }
+
+    private List<Result> measure(EmployeeRepository repository, int size) {
+        Random random = new Random(size);
+        List<Result> results = new ArrayList<>();
+
+        results.add(run("findById", i -> repository.findById(SEED_BASE + 1 + random.nextInt(size)).orElseThrow()));
+        results.add(run("findAll", i -> repository.findAll(PageRequest.of(random.nextInt(Math.min(PAGES, size / PAGE_SIZE)), PAGE_SIZE))));
+
+        Long[] savedIds = new Long[WARM_UP + OPERATIONS];
+        results.add(run("save", i -> savedIds[(int) i] = repository.save(
+                new Employee("Bench", "Mark" + i, "saved", 1, "bench" + i + "@example.com")).getId()));
+        results.add(run("deleteById", i -> {
+            if (savedIds[(int) i] != null) {
+                repository.deleteById(savedIds[(int) i]);
+            }
+        }));
+        return results;
+    }
+
+    /**
+     * Calls {@code operation} {@link #WARM_UP} times untimed, then {@link #OPERATIONS} times timed; each call is
+     * given its sequence number
+     */
+    private Result run(String name, LongConsumer operation) {
+        int errors = 0;
+        for (int i = 0; i < WARM_UP; i++) {
+            errors += call(operation, i);
+        }
+        long[] latencies = new long[OPERATIONS];
+        long start = System.nanoTime();
+        for (int i = 0; i < OPERATIONS; i++) {
+            long callStart = System.nanoTime();
+            errors += call(operation, WARM_UP + i);
+            latencies[i] = System.nanoTime() - callStart;
+        }
+        long elapsed = System.nanoTime() - start;
+        Arrays.sort(latencies);
+        assertTrue(elapsed > 0);
+        return new Result(name, OPERATIONS * 1e9 / elapsed, latencies, errors);
+    }
+
+    /**
+     * @return 1 if the call failed, 0 otherwise
+     */
+    private static int call(LongConsumer operation, long i) {
+        try {
+            operation.accept(i);
+            return 0;
+        }
+        catch (RuntimeException e) {
+            return 1;
+        }
+    }
+
+    record Result(String operation, double throughput, long[] sortedLatencies, int errors) {
+
+        long percentile(int percent) {
+            return sortedLatencies[Math.min(sortedLatencies.length - 1, sortedLatencies.length * percent / 100)];
+        }
+
+        void print(Mode mode, int size) {
+            System.out.printf("%-5s %,9d %-10s %,10.0f %,9.1f %,9.1f %,9.1f %,9.1f %7d%n",
+                    mode.name().toLowerCase(), size, operation, throughput, percentile(50) / 1e3, percentile(90) / 1e3,
+                    percentile(99) / 1e3, sortedLatencies[sortedLatencies.length - 1] / 1e3, errors);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.greglturnquist.payroll;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks with H2's EXPLAIN that the SQL Hibernate issues for the EmployeeRepository finders seeks the indexes
+ * declared on Employee instead of scanning the table. The SQL is captured by a StatementInspector.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class EmployeeRepositoryIndexTest {
+
+    @Autowired
+    EmployeeRepository repository;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        CapturedStatements.sql.clear();
+    }
+
+    /**
+     * This method tests the plan of the SQL issued by findByEmail
+     * The expected result is a lookup on the email index
+     */
+    @Test
+    void testFindByEmailUsesIndex() {
+        // Arrange
+        repository.findByEmail("frodo123@gmail.com");
+        // Act
+        String plan = explain(CapturedStatements.last(), "frodo123@gmail.com");
+        // Assert
+        assertTrue(plan.contains("IDX_EMPLOYEE_EMAIL"), plan);
+    }
+
+    /**
+     * This method tests findByEmail on an address shared by two employees
+     * The expected result is both employees, instead of an exception for a non-unique result
+     */
+    @Test
+    void testFindByEmailReturnsEveryDuplicate() {
+        // Arrange
+        List<Employee> saved = List.of(
+                repository.save(new Employee("Twin", "One", "duplicate", 1, "twin@example.com")),
+                repository.save(new Employee("Twin", "Two", "duplicate", 2, "twin@example.com")));
+        try {
+            // Act
+            List<Employee> found = repository.findByEmail("twin@example.com");
+            // Assert
+            assertEquals(2, found.size());
+            assertTrue(found.containsAll(saved));
+        }
+        finally {
+            repository.deleteAll(saved);
+        }
+    }
+
+    /**
+     * This method tests the plan of the SQL issued by findByLastNameStartingWith
+     * The expected result is a range scan on the last name index
+     */
+    @Test
+    void testFindByLastNameStartingWithUsesIndex() {
+        // Arrange
+        repository.findByLastNameStartingWith("Bag", PageRequest.of(0, 20, Sort.by("lastName")));
+        // Act
+        String plan = explain(CapturedStatements.last(), "Bag%", 0, 20);
+        // Assert
+        assertTrue(plan.contains("IDX_EMPLOYEE_LAST_NAME"), plan);
+    }
+
+    /**
+     * This method tests the plan of the SQL issued by findByJobYearsBetween
+     * The expected result is a range scan on the job years index
+     */
+    @Test
+    void testFindByJobYearsBetweenUsesIndex() {
+        // Arrange
+        repository.findByJobYearsBetween(1, 5, PageRequest.of(0, 20, Sort.by("jobYears")));
+        // Act
+        String plan = explain(CapturedStatements.last(), 1, 5, 0, 20);
+        // Assert
+        assertTrue(plan.contains("IDX_EMPLOYEE_JOB_YEARS"), plan);
+    }
+
+    private String explain(String sql, Object... args) {
+        List<String> plan = jdbcTemplate.queryForList("EXPLAIN " + sql, String.class, args);
+        return sql + "\n" + String.join("\n", plan);
+    }
+
+    @TestConfiguration
+    static class CapturedStatements {
+
+        static final List<String> sql = new CopyOnWriteArrayList<>();
+
+        /**
+         * The last query Hibernate issued on the employee table
+         */
+        static String last() {
+            for (int i = sql.size() - 1; i >= 0; i--) {
+                if (sql.get(i).startsWith("select") && sql.get(i).contains(" from employee ")) {
+                    return sql.get(i);
+                }
+            }
+            throw new AssertionError("no query on employee was issued: " + sql);
+        }
+
+        @Bean
+        HibernatePropertiesCustomizer statementInspector() {
+            return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, (StatementInspector) statement -> {
+                sql.add(statement);
+                return statement;
+            });
+        }
+    }
+}
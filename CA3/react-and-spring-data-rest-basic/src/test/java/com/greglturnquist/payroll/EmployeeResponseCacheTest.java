@@ -0,0 +1,139 @@
+package com.greglturnquist.payroll;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Rendered employee responses served from {@link EmployeeResponseCache}, with the item cache small enough
+ * to hold only a handful of employees.
+ */
+@SpringBootTest(properties = "payroll.response-cache.item-bytes=4KB")
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class EmployeeResponseCacheTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    EmployeeRepository repository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    Employee employee;
+
+    @BeforeEach
+    void createEmployee() {
+        employee = repository.save(new Employee("Ada", "Lovelace", "analyst", 3, "ada@example.com"));
+    }
+
+    /**
+     * This method tests reading the same employee twice
+     * The expected result is the same body, content type and ETag, the second one served without a repository call
+     */
+    @Test
+    void secondReadIsServedFromTheCache() throws Exception {
+        // Arrange
+        String location = "/api/employees/" + employee.getId();
+        MvcResult first = mvc.perform(get(location)).andExpect(status().isOk()).andReturn();
+        double hits = hits("employee-responses");
+
+        // Act
+        MvcResult second = mvc.perform(get(location)).andExpect(status().isOk()).andReturn();
+
+        // Assert
+        assertEquals(hits + 1, hits("employee-responses"));
+        assertEquals(first.getResponse().getContentAsString(), second.getResponse().getContentAsString());
+        assertEquals(first.getResponse().getContentType(), second.getResponse().getContentType());
+        assertEquals(first.getResponse().getHeader(HttpHeaders.ETAG), second.getResponse().getHeader(HttpHeaders.ETAG));
+        assertNotNull(second.getResponse().getHeader(HttpHeaders.ETAG));
+    }
+
+    /**
+     * This method tests a conditional read carrying the ETag of the cached response
+     * The expected result is 304 Not Modified with the same ETag
+     */
+    @Test
+    void matchingETagIsNotModified() throws Exception {
+        // Arrange
+        String location = "/api/employees/" + employee.getId();
+        String etag = mvc.perform(get(location)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // Act
+        MvcResult result = mvc.perform(get(location).header(HttpHeaders.IF_NONE_MATCH, etag)).andReturn();
+
+        // Assert
+        assertEquals(304, result.getResponse().getStatus());
+        assertEquals(etag, result.getResponse().getHeader(HttpHeaders.ETAG));
+        assertEquals(0, result.getResponse().getContentLength());
+    }
+
+    /**
+     * This method tests reading an employee and the collection, patching the employee, then reading both again
+     * The expected result is that both reads show the update and the employee's ETag has changed
+     */
+    @Test
+    void writesThroughTheApiInvalidate() throws Exception {
+        // Arrange
+        String location = "/api/employees/" + employee.getId();
+        String etag = mvc.perform(get(location)).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mvc.perform(get("/api/employees?size=100")).andExpect(status().isOk());
+
+        // Act
+        mvc.perform(patch(location).contentType(MediaType.APPLICATION_JSON).content("{\"jobYears\":4}"))
+                .andExpect(status().is2xxSuccessful());
+        mvc.perform(post("/api/employees").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"Charles\",\"lastName\":\"Babbage\",\"description\":\"inventor\","
+                                + "\"jobYears\":9,\"email\":\"charles@example.com\"}"))
+                .andExpect(status().isCreated());
+
+        // Assert
+        MvcResult item = mvc.perform(get(location))
+                .andExpect(jsonPath("$.jobYears").value(4))
+                .andReturn();
+        assertNotEquals(etag, item.getResponse().getHeader(HttpHeaders.ETAG));
+        String page = mvc.perform(get("/api/employees?size=100")).andReturn().getResponse().getContentAsString();
+        assertTrue(page.contains("Babbage"));
+    }
+
+    /**
+     * This method tests reading more employees than the 4KB item cache can hold
+     * The expected result is that the bytes held stay under 4KB
+     */
+    @Test
+    void memoryIsBoundedByBytes() throws Exception {
+        // Arrange
+        for (int i = 0; i < 20; i++) {
+            Employee other = repository.save(new Employee("Bulk", "Employee" + i, "filler", 1, "bulk" + i + "@example.com"));
+
+            // Act
+            mvc.perform(get("/api/employees/" + other.getId())).andExpect(status().isOk());
+        }
+
+        // Assert
+        double bytes = meterRegistry.get("payroll.response_cache.bytes").tag("cache", "employee-responses").gauge().value();
+        assertTrue(bytes > 0 && bytes <= 4096, "bytes held: " + bytes);
+    }
+
+    private double hits(String cache) {
+        return meterRegistry.get("cache.gets").tag("cache", cache).tag("result", "hit").functionCounter().count();
+    }
+
+}
@@ -0,0 +1,101 @@
+package com.greglturnquist.payroll;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Full-text search at /api/employees/search?q= over five indexed employees.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class EmployeeSearchControllerTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    EmployeeRepository repository;
+
+    @Autowired
+    EmployeeSearchIndex searchIndex;
+
+    final List<Employee> employees = new ArrayList<>();
+
+    @BeforeEach
+    void createEmployees() {
+        for (int i = 0; i < 5; i++) {
+            Employee employee = repository.save(new Employee("Searched" + i, "Lovelace", "cartographer", i,
+                    "searched" + i + "@example.com"));
+            searchIndex.index(employee);
+            employees.add(employee);
+        }
+    }
+
+    @AfterEach
+    void deleteEmployees() {
+        employees.forEach(employee -> searchIndex.remove(employee.getId()));
+        repository.deleteAll(employees);
+    }
+
+    /**
+     * This method tests a page whose offset, page times size, does not fit in an int
+     * The expected result is an empty page with the total hit count and a prev link to the last page
+     */
+    @Test
+    void pagePastTheLastHitIsEmpty() throws Exception {
+        // Arrange
+        int page = Integer.MAX_VALUE / 2;
+
+        // Act / Assert
+        mvc.perform(get("/api/employees/search").param("q", "cartographer")
+                        .param("page", String.valueOf(page)).param("size", "4"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded").doesNotExist())
+                .andExpect(jsonPath("$.page.totalElements").value(5))
+                .andExpect(jsonPath("$._links.prev.href").value(containsString("page=1&size=4")))
+                .andExpect(jsonPath("$._links.next").doesNotExist());
+    }
+
+    /**
+     * This method tests the largest page number, whose next page number would not fit in an int
+     * The expected result is an empty page without a next link
+     */
+    @Test
+    void lastPageNumberHasNoNextLink() throws Exception {
+        // Act / Assert
+        mvc.perform(get("/api/employees/search").param("q", "cartographer")
+                        .param("page", String.valueOf(Integer.MAX_VALUE)).param("size", "1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded").doesNotExist())
+                .andExpect(jsonPath("$._links.next").doesNotExist());
+    }
+
+    /**
+     * This method tests the last page of the hits
+     * The expected result is the one remaining employee and no next link
+     */
+    @Test
+    void lastPageHoldsTheRemainingHit() throws Exception {
+        // Act / Assert
+        mvc.perform(get("/api/employees/search").param("q", "cartographer").param("page", "2").param("size", "2"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.employees.length()").value(1))
+                .andExpect(jsonPath("$.page.totalElements").value(5))
+                .andExpect(jsonPath("$._links.next").doesNotExist());
+    }
+}
@@ -0,0 +1,157 @@
+package com.greglturnquist.payroll;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EmployeeValidatorTest {
+
+    /**
+     * Characters the fuzzed strings are drawn from: separators, whitespace, every line terminator and both
+     * halves of a surrogate pair
+     */
+    static final char[] ALPHABET = { 'a', 'Z', '.', '@', '@', ' ', '\t', '\n', '\r', '\u0085', '\u2028', '\u2029',
+            '\u00a0', '\ud83d', '\ude00' };
+
+    /**
+     * The rules Employee enforced before EmployeeValidator, kept here as the reference
+     */
+    static boolean legacyHasText(String s) {
+        return s != null && !s.trim().isEmpty();
+    }
+
+    static boolean legacyIsValidEmail(String email) {
+        return email != null && !email.trim().isEmpty() && email.matches("^.+@.+.$");
+    }
+
+    /**
+     * This method tests the email and text rules against the previous trim and regex rules on random strings
+     * The expected result is the same verdict for every string
+     */
+    @Test
+    void fuzzAgreesWithLegacyRules() {
+        // Arrange
+        Random random = new Random(7);
+
+        for (int n = 0; n < 200_000; n++) {
+            char[] chars = new char[random.nextInt(9)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+            }
+            String s = new String(chars);
+
+            // Act
+            boolean email = EmployeeValidator.validateEmail(s) == null;
+            boolean text = EmployeeValidator.validateText(s, EmployeeValidator.Code.FIRST_NAME_BLANK) == null;
+
+            // Assert
+            assertEquals(legacyIsValidEmail(s), email, () -> "email " + escape(s));
+            assertEquals(legacyHasText(s), text, () -> "text " + escape(s));
+        }
+    }
+
+    /**
+     * This method tests inputs of a million characters that make the previous regex backtrack
+     * The expected result is that each one is validated well within 100 ms
+     */
+    @Test
+    void worstCaseInputIsLinear() {
+        // Arrange
+        int length = 1_000_000;
+        List<String> inputs = List.of(
+                "a" + "@".repeat(length) + "\n",
+                "a".repeat(length) + "@",
+                " ".repeat(length),
+                "a".repeat(length) + "@\ud83d\ude00");
+        for (int warmup = 0; warmup < 5; warmup++) {
+            inputs.forEach(EmployeeValidator::validateEmail);
+        }
+
+        for (String input : inputs) {
+            // Act
+            long start = System.nanoTime();
+            EmployeeValidator.Code code = EmployeeValidator.validateEmail(input);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Assert
+            assertNotNull(code);
+            assertTrue(elapsedMillis < 100, elapsedMillis + " ms for " + escape(input.substring(0, 3)) + "...");
+        }
+    }
+
+    /**
+     * This method tests each field rule in turn
+     * The expected result is the code of the first broken field, in field order, and null for a valid employee
+     */
+    @Test
+    void validateReturnsFirstBrokenRule() {
+        // Arrange
+        String email = "gandalf123@gmail.com";
+
+        // Act & Assert
+        assertNull(EmployeeValidator.validate("Gandalf", "The Grey", "Wizard", 1000, email));
+        assertEquals(EmployeeValidator.Code.FIRST_NAME_BLANK, EmployeeValidator.validate(" ", null, null, null, null));
+        assertEquals(EmployeeValidator.Code.LAST_NAME_BLANK, EmployeeValidator.validate("G", "", "W", 1, email));
+        assertEquals(EmployeeValidator.Code.DESCRIPTION_BLANK, EmployeeValidator.validate("G", "T", null, 1, email));
+        assertEquals(EmployeeValidator.Code.JOB_YEARS_MISSING, EmployeeValidator.validate("G", "T", "W", null, email));
+        assertEquals(EmployeeValidator.Code.EMAIL_BLANK, EmployeeValidator.validate("G", "T", "W", 1, "\t"));
+        assertEquals(EmployeeValidator.Code.EMAIL_MALFORMED, EmployeeValidator.validate("G", "T", "W", 1, "@gmail.com"));
+        String tooLong = "x".repeat(EmployeeValidator.MAX_LENGTH + 1);
+        assertNull(EmployeeValidator.validate(tooLong.substring(1), "T", "W", 1, email));
+        assertEquals(EmployeeValidator.Code.FIRST_NAME_TOO_LONG, EmployeeValidator.validate(tooLong, "T", "W", 1, email));
+        assertEquals(EmployeeValidator.Code.LAST_NAME_TOO_LONG, EmployeeValidator.validate("G", tooLong, "W", 1, email));
+        assertEquals(EmployeeValidator.Code.DESCRIPTION_TOO_LONG, EmployeeValidator.validate("G", "T", tooLong, 1, email));
+        assertEquals(EmployeeValidator.Code.EMAIL_TOO_LONG, EmployeeValidator.validate("G", "T", "W", 1, tooLong + email));
+    }
+
+    /**
+     * This method tests an employee built with a malformed email
+     * The expected result is an InvalidEmployeeException, still an IllegalArgumentException, naming the field
+     */
+    @Test
+    void constructorThrowsCode() {
+        // Act
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                () -> new Employee("Gandalf", "The Grey", "Wizard", 1000, "gandalf@"));
+
+        // Assert
+        InvalidEmployeeException invalid = assertInstanceOf(InvalidEmployeeException.class, e);
+        assertEquals(EmployeeValidator.Code.EMAIL_MALFORMED, invalid.getCode());
+        assertEquals("email", invalid.getField());
+    }
+
+    /**
+     * This method tests a batch large enough to be validated in parallel, with every hundredth candidate invalid
+     * The expected result is exactly those candidates reported, in index order
+     */
+    @Test
+    void validateAllReportsViolationsInOrder() {
+        // Arrange
+        List<EmployeeImportService.Row> rows = new ArrayList<>();
+        for (int i = 0; i < EmployeeValidator.PARALLEL_THRESHOLD * 2; i++) {
+            String email = i % 100 == 0 ? "employee" + i : "employee" + i + "@example.com";
+            rows.add(new EmployeeImportService.Row("First", "Last", "role", i, email));
+        }
+
+        // Act
+        List<EmployeeValidator.Violation> violations = EmployeeValidator.validateAll(rows);
+
+        // Assert
+        assertEquals((rows.size() + 99) / 100, violations.size());
+        for (int v = 0; v < violations.size(); v++) {
+            assertEquals(v * 100, violations.get(v).index());
+            assertEquals(EmployeeValidator.Code.EMAIL_MALFORMED, violations.get(v).code());
+        }
+    }
+
+    private static String escape(String s) {
+        StringBuilder escaped = new StringBuilder();
+        s.chars().forEach(c -> escaped.append(c < 0x20 || c > 0x7e ? String.format("\\u%04x", c) : String.valueOf((char) c)));
+        return escaped.toString();
+    }
+
+}
@@ -0,0 +1,90 @@
+package com.greglturnquist.payroll;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Measures the heap held by a {@link NameTrie} of one million names and the latency percentiles of prefix lookups.
+ * Run with ./gradlew benchmark
+ */
+@Tag("benchmark")
+class NameTrieBenchmark {
+
+    /**
+     * Number of names added to the trie
+     */
+    static final int NAMES = 1_000_000;
+
+    /**
+     * Number of timed lookups
+     */
+    static final int LOOKUPS = 200_000;
+
+    /**
+     * Syllables used to build realistic, prefix-sharing names
+     */
+    static final String[] SYLLABLES = { "an", "bar", "bel", "cor", "dan", "el", "fin", "gar", "hal", "is", "jor",
+            "kel", "lin", "mar", "nor", "or", "per", "quin", "ros", "sam", "tor", "ul", "van", "wil", "yor", "zan" };
+
+    /**
+     * Builds the trie, then times random prefix lookups of one to four characters
+     * The expected result is a p99 well below one millisecond
+     */
+    @Test
+    void memoryAndLatency() {
+        // Arrange
+        Random random = new Random(42);
+        String[] names = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = name(random);
+        }
+        long before = usedHeap();
+        NameTrie trie = new NameTrie();
+        for (int i = 0; i < NAMES; i++) {
+            trie.add(names[i], i);
+        }
+        long after = usedHeap();
+
+        // Act
+        long[] latencies = new long[LOOKUPS];
+        int found = 0;
+        for (int i = 0; i < LOOKUPS; i++) {
+            String name = names[random.nextInt(NAMES)];
+            String prefix = name.substring(0, Math.min(name.length(), 1 + random.nextInt(4)));
+            long start = System.nanoTime();
+            found += trie.prefixed(prefix, 10).size();
+            latencies[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(latencies);
+
+        // Assert
+        System.out.printf("names             : %,d (%,d keys)%n", NAMES, trie.size());
+        System.out.printf("heap              : %,d bytes (%.1f bytes/name, names themselves excluded)%n",
+                after - before, (after - before) / (double) NAMES);
+        System.out.printf("lookup p50/p99/max: %,d / %,d / %,d ns%n",
+                latencies[LOOKUPS / 2], latencies[LOOKUPS * 99 / 100], latencies[LOOKUPS - 1]);
+        assertTrue(found > 0);
+        assertTrue(latencies[LOOKUPS * 99 / 100] < 1_000_000);
+    }
+
+    private static String name(Random random) {
+        StringBuilder name = new StringBuilder();
+        for (int syllables = 2 + random.nextInt(3); syllables > 0; syllables--) {
+            name.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return name.toString();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
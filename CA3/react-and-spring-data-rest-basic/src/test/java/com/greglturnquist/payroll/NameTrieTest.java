@@ -0,0 +1,117 @@
+package com.greglturnquist.payroll;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameTrieTest {
+
+    /**
+     * Trie to be used in the tests
+     * This object is initialized in the setUp method
+     */
+    NameTrie trie;
+
+    /**
+     * Sets up a trie holding names that share prefixes with each other
+     * This method is executed before each test
+     */
+    @BeforeEach
+    void setUp() {
+        trie = new NameTrie();
+        trie.add("baggins", 1);
+        trie.add("bagshot", 2);
+        trie.add("bag", 3);
+        trie.add("brandybuck", 4);
+        trie.add("baggins", 5);
+    }
+
+    /**
+     * This method tests a lookup with a prefix shared by several keys
+     * The expected result is every matching id, in key order
+     */
+    @Test
+    void testPrefixedSharedPrefix() {
+        // Arrange
+        List<Long> expected = List.of(3L, 1L, 5L, 2L);
+        // Act
+        List<Long> result = List.copyOf(trie.prefixed("bag", 10));
+        // Assert
+        assertEquals(expected, result);
+    }
+
+    /**
+     * This method tests a lookup with a prefix that ends in the middle of an edge
+     * The expected result is the ids below that edge
+     */
+    @Test
+    void testPrefixedInsideEdge() {
+        // Arrange
+        List<Long> expected = List.of(4L);
+        // Act
+        List<Long> result = List.copyOf(trie.prefixed("bran", 10));
+        // Assert
+        assertEquals(expected, result);
+    }
+
+    /**
+     * This method tests a lookup with a prefix that leaves the trie
+     * The expected result is no ids
+     */
+    @Test
+    void testPrefixedNoMatch() {
+        // Arrange & Act
+        List<Long> result = List.copyOf(trie.prefixed("bagz", 10));
+        // Assert
+        assertTrue(result.isEmpty());
+    }
+
+    /**
+     * This method tests that a lookup stops at the limit
+     * The expected result is the first ids in key order
+     */
+    @Test
+    void testPrefixedLimit() {
+        // Arrange
+        List<Long> expected = List.of(3L, 1L);
+        // Act
+        List<Long> result = List.copyOf(trie.prefixed("b", 2));
+        // Assert
+        assertEquals(expected, result);
+    }
+
+    /**
+     * This method tests removing keys, including one whose node is then merged with its parent
+     * The expected result is that only the remaining ids are found
+     */
+    @Test
+    void testRemove() {
+        // Arrange
+        List<Long> expected = List.of(1L, 5L);
+        // Act
+        boolean removedBagshot = trie.remove("bagshot", 2);
+        boolean removedBag = trie.remove("bag", 3);
+        List<Long> result = List.copyOf(trie.prefixed("bag", 10));
+        // Assert
+        assertTrue(removedBagshot);
+        assertTrue(removedBag);
+        assertEquals(expected, result);
+        assertEquals(3, trie.size());
+    }
+
+    /**
+     * This method tests removing an id that was never added under that key
+     * The expected result is false and an unchanged trie
+     */
+    @Test
+    void testRemoveUnknown() {
+        // Arrange & Act
+        boolean result = trie.remove("baggins", 2);
+        // Assert
+        assertFalse(result);
+        assertEquals(5, trie.size());
+    }
+}
@@ -0,0 +1,239 @@
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.boot.convert.DurationStyle;
+
+/**
+ * TCP proxy that stands in for the network between the web VM and the db VM: put it in front of a local H2 server
+ * and point the JDBC url at {@link #getPort()}.
+ *
+ * <p>Every chunk read from one side is delivered to the other after the configured latency plus a random jitter,
+ * in order, and no faster than the configured bandwidth. Independently per chunk, a connection may be reset (both
+ * sockets closed with {@code SO_LINGER 0}, so the peers see a connection reset) or stall, holding that chunk and
+ * everything behind it for the stall duration. Latency is applied on the way in and on the way out, so a round
+ * trip costs twice the latency.
+ */
+class NetworkFaultProxy implements AutoCloseable {
+
+    /**
+     * What the proxy does to the traffic; read from {@code payroll.proxy.*} system properties by {@link #fromSystemProperties()}
+     *
+     * @param latency one-way delay of every chunk
+     * @param jitter upper bound of the random delay added to the latency
+     * @param bytesPerSecond bandwidth of each direction of each connection, 0 for unlimited
+     * @param resetProbability chance that a chunk resets its connection instead of being delivered
+     * @param stallProbability chance that a chunk is held for {@code stall} before being delivered
+     * @param stall how long a stalled chunk is held
+     */
+    record Faults(Duration latency, Duration jitter, long bytesPerSecond, double resetProbability,
+            double stallProbability, Duration stall) {
+
+        /**
+         * Defaults to a link across a local network, with no resets or stalls
+         */
+        static Faults fromSystemProperties() {
+            return new Faults(
+                    DurationStyle.detectAndParse(System.getProperty("payroll.proxy.latency", "1ms")),
+                    DurationStyle.detectAndParse(System.getProperty("payroll.proxy.jitter", "500us")),
+                    Long.getLong("payroll.proxy.bytes-per-second", 0),
+                    Double.parseDouble(System.getProperty("payroll.proxy.reset-probability", "0")),
+                    Double.parseDouble(System.getProperty("payroll.proxy.stall-probability", "0")),
+                    DurationStyle.detectAndParse(System.getProperty("payroll.proxy.stall", "2s")));
+        }
+
+        @Override
+        public String toString() {
+            return "latency " + latency.toNanos() / 1e6 + " ms + jitter " + jitter.toNanos() / 1e6 + " ms, "
+                    + (bytesPerSecond > 0 ? bytesPerSecond + " B/s" : "unlimited bandwidth") + ", reset p="
+                    + resetProbability + ", stall p=" + stallProbability + " for " + stall.toMillis() + " ms";
+        }
+    }
+
+    /**
+     * Size of the buffer each chunk is read into
+     */
+    static final int CHUNK = 16 * 1024;
+
+    private final ServerSocket serverSocket;
+    private final InetSocketAddress target;
+    private final Faults faults;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+    private volatile boolean closed;
+
+    NetworkFaultProxy(int targetPort, Faults faults) throws IOException {
+        this.serverSocket = new ServerSocket(0);
+        this.target = new InetSocketAddress("localhost", targetPort);
+        this.faults = faults;
+        daemon("fault-proxy-accept", this::accept).start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    Faults getFaults() {
+        return faults;
+    }
+
+    /**
+     * Connections accepted, connections reset and chunks stalled so far
+     */
+    String stats() {
+        return connections.get() + " connections, " + resets.get() + " resets, " + stalls.get() + " stalls";
+    }
+
+    /**
+     * Resets every open connection at once, as a brief network outage would; new connections go through as before
+     */
+    void resetConnections() {
+        resets.addAndGet(sockets.size() / 2);
+        sockets.forEach(socket -> reset(socket));
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server = new Socket();
+                server.connect(target);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                sockets.add(client);
+                sockets.add(server);
+                connections.incrementAndGet();
+                AtomicInteger openDirections = new AtomicInteger(2);
+                pipe(client, server, openDirections);
+                pipe(server, client, openDirections);
+            }
+            catch (IOException e) {
+                if (!closed) {
+                    System.err.println("fault proxy: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * One thread reads and stamps each chunk with its delivery time, another delivers it then. The sockets are
+     * closed once both directions of the connection have ended.
+     */
+    private void pipe(Socket from, Socket to, AtomicInteger openDirections) {
+        BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+        String name = "fault-proxy-" + from.getPort() + "-" + to.getPort();
+
+        daemon(name + "-read", () -> {
+            long lastDelivery = Long.MIN_VALUE;
+            try {
+                InputStream in = from.getInputStream();
+                byte[] buffer = new byte[CHUNK];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    long jitter = faults.jitter().isZero() ? 0 : ThreadLocalRandom.current().nextLong(faults.jitter().toNanos());
+                    // Never before the previous chunk, so the stream stays in order
+                    lastDelivery = Math.max(lastDelivery, System.nanoTime() + faults.latency().toNanos() + jitter);
+                    queue.put(new Chunk(Arrays.copyOf(buffer, read), lastDelivery));
+                }
+            }
+            catch (IOException | InterruptedException e) {
+                // Closed by the other side or by a reset
+            }
+            queue.add(Chunk.END);
+        }).start();
+
+        daemon(name + "-write", () -> {
+            try {
+                OutputStream out = to.getOutputStream();
+                while (true) {
+                    Chunk chunk = queue.take();
+                    if (chunk == Chunk.END) {
+                        to.shutdownOutput();
+                        if (openDirections.decrementAndGet() == 0) {
+                            reset(from, to);
+                        }
+                        return;
+                    }
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    if (random.nextDouble() < faults.resetProbability()) {
+                        resets.incrementAndGet();
+                        reset(from, to);
+                        return;
+                    }
+                    if (random.nextDouble() < faults.stallProbability()) {
+                        stalls.incrementAndGet();
+                        sleepNanos(faults.stall().toNanos());
+                    }
+                    sleepNanos(chunk.deliverAt() - System.nanoTime());
+                    if (faults.bytesPerSecond() > 0) {
+                        // The time the chunk takes to cross the link
+                        sleepNanos(TimeUnit.SECONDS.toNanos(chunk.bytes().length) / faults.bytesPerSecond());
+                    }
+                    out.write(chunk.bytes());
+                    out.flush();
+                }
+            }
+            catch (IOException | InterruptedException e) {
+                reset(from, to);
+            }
+        }).start();
+    }
+
+    private void reset(Socket... pair) {
+        for (Socket socket : pair) {
+            try {
+                socket.setSoLinger(true, 0);
+                socket.close();
+            }
+            catch (SocketException e) {
+                // Already closed
+            }
+            catch (IOException e) {
+                // Nothing left to reset
+            }
+            sockets.remove(socket);
+        }
+    }
+
+    private static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    private static Thread daemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        sockets.forEach(socket -> reset(socket));
+    }
+
+    private record Chunk(byte[] bytes, long deliverAt) {
+
+        static final Chunk END = new Chunk(new byte[0], 0);
+    }
+}
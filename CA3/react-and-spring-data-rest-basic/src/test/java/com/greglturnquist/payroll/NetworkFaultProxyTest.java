@@ -0,0 +1,141 @@
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * {@link NetworkFaultProxy} in front of a server that echoes every byte back.
+ */
+class NetworkFaultProxyTest {
+
+    ServerSocket echoServer;
+
+    @BeforeEach
+    void startEchoServer() throws IOException {
+        echoServer = new ServerSocket(0);
+        Thread acceptor = new Thread(() -> {
+            while (!echoServer.isClosed()) {
+                try {
+                    Socket socket = echoServer.accept();
+                    Thread echo = new Thread(() -> {
+                        try (socket) {
+                            socket.getInputStream().transferTo(socket.getOutputStream());
+                        }
+                        catch (IOException e) {
+                            // Connection reset by the proxy
+                        }
+                    });
+                    echo.setDaemon(true);
+                    echo.start();
+                }
+                catch (IOException e) {
+                    // Server closed
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void stopEchoServer() throws IOException {
+        echoServer.close();
+    }
+
+    /**
+     * This method tests a round trip through a proxy adding 50 ms of latency each way
+     * The expected result is the same bytes back, after at least 100 ms
+     */
+    @Test
+    void roundTripPaysLatencyBothWays() throws IOException {
+        // Arrange
+        NetworkFaultProxy.Faults faults = new NetworkFaultProxy.Faults(Duration.ofMillis(50), Duration.ZERO, 0, 0, 0,
+                Duration.ZERO);
+
+        try (NetworkFaultProxy proxy = new NetworkFaultProxy(echoServer.getLocalPort(), faults);
+             Socket socket = new Socket("localhost", proxy.getPort())) {
+            // Act
+            long start = System.nanoTime();
+            socket.getOutputStream().write("ping".getBytes());
+            byte[] echoed = socket.getInputStream().readNBytes(4);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Assert
+            assertEquals("ping", new String(echoed));
+            assertTrue(elapsedMillis >= 100, elapsedMillis + " ms");
+        }
+    }
+
+    /**
+     * This method tests sending 64 KB through a proxy limited to 256 KB/s
+     * The expected result is all bytes back in order, after at least the 250 ms the bandwidth allows
+     */
+    @Test
+    void bandwidthIsLimited() throws IOException {
+        // Arrange
+        NetworkFaultProxy.Faults faults = new NetworkFaultProxy.Faults(Duration.ZERO, Duration.ZERO, 256 * 1024, 0, 0,
+                Duration.ZERO);
+        byte[] payload = new byte[64 * 1024];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+
+        try (NetworkFaultProxy proxy = new NetworkFaultProxy(echoServer.getLocalPort(), faults);
+             Socket socket = new Socket("localhost", proxy.getPort())) {
+            // Act
+            long start = System.nanoTime();
+            OutputStream out = socket.getOutputStream();
+            Thread writer = new Thread(() -> {
+                try {
+                    out.write(payload);
+                }
+                catch (IOException e) {
+                    // Reported by the read below
+                }
+            });
+            writer.start();
+            byte[] echoed = socket.getInputStream().readNBytes(payload.length);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Assert
+            assertArrayEquals(payload, echoed);
+            assertTrue(elapsedMillis >= 250, elapsedMillis + " ms");
+        }
+    }
+
+    /**
+     * This method tests a proxy that resets every connection on its first chunk
+     * The expected result is that the client sees the connection end instead of an echo
+     */
+    @Test
+    void resetEndsTheConnection() throws IOException {
+        // Arrange
+        NetworkFaultProxy.Faults faults = new NetworkFaultProxy.Faults(Duration.ZERO, Duration.ZERO, 0, 1, 0,
+                Duration.ZERO);
+
+        try (NetworkFaultProxy proxy = new NetworkFaultProxy(echoServer.getLocalPort(), faults);
+             Socket socket = new Socket("localhost", proxy.getPort())) {
+            // Act
+            socket.getOutputStream().write("ping".getBytes());
+            InputStream in = socket.getInputStream();
+
+            // Assert
+            assertThrows(IOException.class, () -> {
+                if (in.read() == -1) {
+                    throw new IOException("closed");
+                }
+            });
+            assertTrue(proxy.stats().contains("1 resets"), proxy.stats());
+        }
+    }
+}
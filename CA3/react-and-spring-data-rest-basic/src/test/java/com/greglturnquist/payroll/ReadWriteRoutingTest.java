@@ -0,0 +1,154 @@
+package com.greglturnquist.payroll;
+
+import java.sql.SQLException;
+
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Read/write splitting against two in-memory H2 databases, the replica being filled by the ReplicaCopier stand-in.
+ * Copies and health checks are triggered by the tests instead of the schedulers.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({"test", "replicated"})
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1",
+        "payroll.replicas.urls=jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1",
+        "payroll.replicas.check-interval=1h",
+        "payroll.replicas.copy-interval=1h",
+        "payroll.replicas.max-lag=1m"
+})
+class ReadWriteRoutingTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    ReplicatedDataSourceConfiguration.DataSources dataSources;
+
+    @Autowired
+    ReplicaCopier copier;
+
+    @Autowired
+    ReplicaMonitor monitor;
+
+    /**
+     * Brings the replica up to date and marks it healthy
+     */
+    @BeforeEach
+    void replicate() throws SQLException {
+        copier.copy();
+        monitor.check();
+    }
+
+    /**
+     * Checks the database each kind of transaction is connected to
+     * The expected result is the replica for read-only transactions and the primary otherwise
+     */
+    @Test
+    void readOnlyTransactionsGoToTheReplica() {
+        // Arrange / Act
+        String readOnly = databaseName(true);
+        String readWrite = databaseName(false);
+
+        // Assert
+        assertEquals("REPLICA", readOnly);
+        assertEquals("PRIMARY", readWrite);
+    }
+
+    /**
+     * Makes the replica's heartbeat an hour old and runs a health check
+     * The expected result is that read-only transactions fall back to the primary
+     */
+    @Test
+    void laggingReplicaFallsBackToPrimary() {
+        // Arrange
+        new JdbcTemplate(dataSources.replicas().get("replica-0")).update("UPDATE replication_heartbeat SET beat_at = beat_at - 3600000");
+
+        // Act
+        monitor.check();
+
+        // Assert
+        assertEquals("PRIMARY", databaseName(true));
+    }
+
+    /**
+     * Creates an employee, then reads it back before and after the replica has copied it
+     * The expected result is that only the client holding the write's cookie sees it before the copy
+     */
+    @Test
+    void clientReadsItsOwnWrite() throws Exception {
+        // Arrange
+        MvcResult created = mvc.perform(post("/api/employees").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"Ada\",\"lastName\":\"Lovelace\",\"description\":\"analyst\",\"jobYears\":3,\"email\":\"ada@example.com\"}"))
+                .andExpect(status().isCreated())
+                .andReturn();
+        String location = created.getResponse().getHeader(HttpHeaders.LOCATION);
+        Cookie cookie = created.getResponse().getCookie(ReadYourWritesFilter.COOKIE);
+        assertNotNull(cookie);
+
+        // Act / Assert
+        mvc.perform(get(location)).andExpect(status().isNotFound());
+        mvc.perform(get(location).cookie(cookie)).andExpect(status().isOk());
+
+        copier.copy();
+        mvc.perform(get(location)).andExpect(status().isOk());
+    }
+
+    /**
+     * Updates a copied employee, reads it from the lagging replica without the write's cookie, then with it
+     * The expected result is that the stale read is not served back to the client holding the cookie
+     */
+    @Test
+    void staleReadIsNotServedToTheWriter() throws Exception {
+        // Arrange
+        String location = mvc.perform(post("/api/employees").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"Grace\",\"lastName\":\"Hopper\",\"description\":\"admiral\",\"jobYears\":3,\"email\":\"grace@example.com\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+        copier.copy();
+        MvcResult updated = mvc.perform(patch(location).contentType(MediaType.APPLICATION_JSON).content("{\"jobYears\":9}"))
+                .andExpect(status().is2xxSuccessful())
+                .andReturn();
+        Cookie cookie = updated.getResponse().getCookie(ReadYourWritesFilter.COOKIE);
+        assertNotNull(cookie);
+
+        // Act / Assert
+        mvc.perform(get(location)).andExpect(status().isOk()).andExpect(jsonPath("$.jobYears").value(3));
+        mvc.perform(get(location).cookie(cookie)).andExpect(status().isOk()).andExpect(jsonPath("$.jobYears").value(9));
+    }
+
+    private String databaseName(boolean readOnly) {
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        transaction.setReadOnly(readOnly);
+        return transaction.execute(status -> jdbcTemplate.queryForObject("SELECT DATABASE()", String.class));
+    }
+}
@@ -0,0 +1,126 @@
+package com.greglturnquist.payroll;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Request classification, per-class queues and connection budgets, with a short connection timeout so that an
+ * exhausted budget fails quickly.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@TestPropertySource(properties = "spring.datasource.hikari.connection-timeout=250")
+class RequestClassTest {
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    DataSource dataSource;
+
+    /**
+     * Connections taken by the tests, closed after each test
+     */
+    final List<Connection> held = new ArrayList<>();
+
+    @AfterEach
+    void closeHeld() throws SQLException {
+        RequestClass.clear();
+        for (Connection connection : held) {
+            connection.close();
+        }
+    }
+
+    /**
+     * This method tests the class given to requests by path and by header
+     * The expected result is bulk for the export path, and a header that can lower a class but not raise it
+     */
+    @Test
+    void testClassify() {
+        // Arrange
+        RequestClassFilter filter = new RequestClassFilter(Set.of("/api/employees/export"), Map.of(), Map.of(), Map.of());
+
+        // Act / Assert
+        assertEquals(RequestClass.INTERACTIVE, filter.classify(request("/api/employees/1", null)));
+        assertEquals(RequestClass.BULK, filter.classify(request("/api/employees/export", null)));
+        assertEquals(RequestClass.BACKGROUND, filter.classify(request("/api/employees/1", "Background")));
+        assertEquals(RequestClass.BULK, filter.classify(request("/api/employees/export", "interactive")));
+    }
+
+    /**
+     * This method tests a bulkhead of one place with room for one waiting caller
+     * The expected result is that the second caller waits, the third is refused at once, and the waiting caller
+     * gets the place when it is released
+     */
+    @Test
+    void testBulkheadQueue() throws Exception {
+        // Arrange
+        Bulkhead bulkhead = new Bulkhead(1, 1, Duration.ofSeconds(10));
+        assertTrue(bulkhead.acquire());
+        CompletableFuture<Boolean> waiting = CompletableFuture.supplyAsync(bulkhead::acquire);
+        while (bulkhead.getQueued() == 0) {
+            Thread.onSpinWait();
+        }
+
+        // Act
+        boolean third = bulkhead.acquire();
+        bulkhead.release();
+
+        // Assert
+        assertFalse(third);
+        assertTrue(waiting.get(5, TimeUnit.SECONDS));
+        assertEquals(1, bulkhead.getActive());
+        assertEquals(0, bulkhead.getQueued());
+    }
+
+    /**
+     * This method tests bulk work holding every connection of its budget
+     * The expected result is that one more bulk connection is refused while interactive requests are still served
+     */
+    @Test
+    void testBulkBudgetLeavesConnectionsForInteractiveRequests() throws Exception {
+        // Arrange
+        RequestClass.set(RequestClass.BULK);
+        for (int i = 0; i < 3; i++) {
+            held.add(dataSource.getConnection());
+        }
+
+        // Act / Assert
+        assertThrows(ConnectionBudgetExhaustedException.class, dataSource::getConnection);
+        RequestClass.clear();
+        mvc.perform(get("/api/employees/1")).andExpect(status().isOk());
+        mvc.perform(get("/api/employees")).andExpect(status().isOk());
+    }
+
+    private static MockHttpServletRequest request(String uri, String requestClass) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", uri);
+        if (requestClass != null) {
+            request.addHeader(RequestClass.HEADER, requestClass);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,197 @@
+package com.greglturnquist.payroll;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * EmployeeRepository served by the sharded store over three in-memory H2 databases.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({"test", "sharded"})
+@TestPropertySource(properties = {
+        "spring.datasource.url=jdbc:h2:mem:shard0;DB_CLOSE_DELAY=-1",
+        "payroll.shards.urls=jdbc:h2:mem:shard0;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard1;DB_CLOSE_DELAY=-1,jdbc:h2:mem:shard2;DB_CLOSE_DELAY=-1"
+})
+class ShardedEmployeeRepositoryTest {
+
+    static final int SHARDS = 3;
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    EmployeeRepository repository;
+
+    @Autowired
+    ShardedEmployeeStore store;
+
+    /**
+     * Saves employees through the repository and looks at every shard directly
+     * The expected result is that every shard holds some employees, each on the shard given by its id
+     */
+    @Test
+    void employeesAreSpreadByIdHash() {
+        // Arrange
+        List<Employee> saved = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            saved.add(repository.save(new Employee("First" + i, "Last" + i, "spread", i % 40, "spread" + i + "@example.com")));
+        }
+
+        // Act
+        List<List<Long>> idsByShard = new ArrayList<>();
+        for (int shard = 0; shard < SHARDS; shard++) {
+            idsByShard.add(shard(shard).queryForList("SELECT id FROM employee WHERE description = 'spread'", Long.class));
+        }
+
+        // Assert
+        int total = 0;
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertTrue(idsByShard.get(shard).size() > 50);
+            for (Long id : idsByShard.get(shard)) {
+                assertEquals(shard, store.shardOf(id));
+            }
+            total += idsByShard.get(shard).size();
+        }
+        assertEquals(saved.size(), total);
+        assertEquals(saved.get(123), repository.findById(saved.get(123).getId()).orElseThrow());
+    }
+
+    /**
+     * Reads one page sorted by last name descending and compares it with sorting every employee in memory
+     * The expected result is the same employees in the same order, and the total count over all shards
+     */
+    @Test
+    void pagesAreMergedInSortOrder() {
+        // Arrange
+        for (int i = 0; i < 50; i++) {
+            repository.save(new Employee("Merge" + i, "Name" + (i * 7919 % 50), "merge", i, "merge" + i + "@example.com"));
+        }
+        List<Employee> all = new ArrayList<>();
+        repository.findAll().forEach(all::add);
+        all.sort(Comparator.comparing(Employee::getLastName).reversed().thenComparing(Employee::getId));
+
+        // Act
+        Page<Employee> page = repository.findAll(PageRequest.of(2, 7, Sort.by(Sort.Direction.DESC, "lastName")));
+
+        // Assert
+        assertEquals(all.subList(14, 21), page.getContent());
+        assertEquals(all.size(), page.getTotalElements());
+        assertEquals(all.size(), repository.count());
+    }
+
+    /**
+     * Creates, updates and deletes an employee through the REST API
+     * The expected result is that each step is visible on the employee's shard and a stale ETag is rejected
+     */
+    @Test
+    void restApiWritesToTheOwningShard() throws Exception {
+        // Arrange
+        MvcResult created = mvc.perform(post("/api/employees").contentType(MediaType.APPLICATION_JSON)
+                        .content(json("Ada", "ada@example.com")))
+                .andExpect(status().isCreated())
+                .andReturn();
+        String location = created.getResponse().getHeader(HttpHeaders.LOCATION);
+        long id = Long.parseLong(location.substring(location.lastIndexOf('/') + 1));
+        JdbcTemplate owner = shard(store.shardOf(id));
+
+        // Act / Assert
+        mvc.perform(put(location).contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, "\"0\"")
+                        .content(json("Ada", "countess@example.com")))
+                .andExpect(status().is2xxSuccessful());
+        assertEquals("countess@example.com", owner.queryForObject("SELECT email FROM employee WHERE id = ?", String.class, id));
+
+        mvc.perform(put(location).contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, "\"0\"")
+                        .content(json("Ada", "stale@example.com")))
+                .andExpect(status().isPreconditionFailed());
+
+        mvc.perform(get("/api/employees/search/findByEmail").param("email", "countess@example.com"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.employees[0].firstName").value("Ada"));
+
+        mvc.perform(delete(location)).andExpect(status().isNoContent());
+        assertEquals(0, owner.queryForObject("SELECT COUNT(*) FROM employee WHERE id = ?", Integer.class, id));
+    }
+
+    /**
+     * Deletes employees through deleteAllById, deleteAll(Iterable) and deleteAll()
+     * The expected result is that each call removes exactly the given employees from whichever shard holds them
+     */
+    @Test
+    void bulkDeletesReachEveryShard() {
+        // Arrange
+        List<Employee> saved = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            saved.add(repository.save(new Employee("Delete" + i, "Last" + i, "bulk delete", i, "delete" + i + "@example.com")));
+        }
+        long before = repository.count();
+
+        // Act / Assert
+        repository.deleteAllById(saved.subList(0, 10).stream().map(Employee::getId).toList());
+        assertEquals(before - 10, repository.count());
+        assertTrue(repository.findById(saved.get(0).getId()).isEmpty());
+
+        repository.deleteAll(saved.subList(10, 20));
+        assertEquals(before - 20, repository.count());
+        assertTrue(repository.findById(saved.get(10).getId()).isEmpty());
+        assertEquals(saved.get(20), repository.findById(saved.get(20).getId()).orElseThrow());
+
+        repository.deleteAll();
+        assertEquals(0, repository.count());
+        for (int shard = 0; shard < SHARDS; shard++) {
+            assertEquals(0, shard(shard).queryForObject("SELECT COUNT(*) FROM employee", Integer.class));
+        }
+    }
+
+    /**
+     * Reads back an employee whose job_years was set to NULL directly on its shard
+     * The expected result is a null jobYears rather than 0
+     */
+    @Test
+    void nullJobYearsIsReadAsNull() {
+        // Arrange
+        Employee saved = repository.save(new Employee("Null", "Years", "null years", 5, "null.years@example.com"));
+        shard(store.shardOf(saved.getId())).update("UPDATE employee SET job_years = NULL WHERE id = ?", saved.getId());
+
+        // Act
+        Employee found = repository.findById(saved.getId()).orElseThrow();
+
+        // Assert
+        assertNull(found.getJobYears());
+    }
+
+    private static JdbcTemplate shard(int shard) {
+        return new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:shard" + shard + ";DB_CLOSE_DELAY=-1", "sa", ""));
+    }
+
+    private static String json(String firstName, String email) {
+        return "{\"firstName\":\"" + firstName + "\",\"lastName\":\"Lovelace\",\"description\":\"analyst\",\"jobYears\":3,\"email\":\"" + email + "\"}";
+    }
+}
@@ -0,0 +1,124 @@
+package com.greglturnquist.payroll;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.h2.tools.Server;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Throughput of the sharded store with 1, 2 and 4 shards, each shard behind its own H2 TCP server.
+ * All servers share this machine, so the numbers show the overhead and the spread of the work, not the
+ * capacity of separate database hosts.
+ * Run with ./gradlew benchmark
+ */
+@Tag("benchmark")
+class ShardedEmployeeStoreBenchmark {
+
+    /**
+     * Number of client threads
+     */
+    static final int CLIENTS = 16;
+
+    /**
+     * Employees inserted, then read back by id, per run
+     */
+    static final int EMPLOYEES = 40_000;
+
+    /**
+     * Number of timed sorted page reads per run
+     */
+    static final int PAGES = 200;
+
+    /**
+     * Runs the same workload with 1, 2 and 4 shards and prints operations per second
+     * The expected result is that every employee is stored exactly once whatever the number of shards
+     */
+    @Test
+    void throughputByShardCount() throws Exception {
+        for (int shards : new int[] { 1, 2, 4 }) {
+            // Arrange
+            List<Server> servers = new ArrayList<>();
+            List<DataSource> dataSources = new ArrayList<>();
+            for (int i = 0; i < shards; i++) {
+                Server server = Server.createTcpServer("-tcpPort", "0", "-tcpDaemon", "-ifNotExists").start();
+                servers.add(server);
+                HikariDataSource dataSource = new HikariDataSource();
+                dataSource.setJdbcUrl("jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:shard" + shards + "_" + i + ";DB_CLOSE_DELAY=-1");
+                dataSource.setUsername("sa");
+                dataSource.setMaximumPoolSize(CLIENTS);
+                dataSources.add(dataSource);
+            }
+            try (ShardedEmployeeStore store = new ShardedEmployeeStore(dataSources, 4 * shards)) {
+                store.createSchema();
+                ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+
+                // Act
+                long start = System.nanoTime();
+                List<Long> ids = run(clients, EMPLOYEES, i -> store.save(employee(i)).getId());
+                double insertRate = EMPLOYEES / seconds(start);
+
+                start = System.nanoTime();
+                run(clients, EMPLOYEES, i -> store.findById(ids.get(ThreadLocalRandom.current().nextInt(ids.size()))).orElseThrow().getId());
+                double findRate = EMPLOYEES / seconds(start);
+
+                start = System.nanoTime();
+                run(clients, PAGES, i -> (long) store.findAll(PageRequest.of(i % 50, 20, Sort.by("lastName"))).getNumberOfElements());
+                double pageRate = PAGES / seconds(start);
+                clients.shutdown();
+
+                // Assert
+                System.out.printf("%d shard(s): save %,8.0f/s  findById %,8.0f/s  sorted page %,6.0f/s%n",
+                        shards, insertRate, findRate, pageRate);
+                assertEquals(EMPLOYEES, store.count());
+            }
+            finally {
+                servers.forEach(Server::stop);
+            }
+        }
+    }
+
+    interface Operation {
+        Long apply(int i) throws SQLException;
+    }
+
+    private static List<Long> run(ExecutorService clients, int operations, Operation operation) throws Exception {
+        List<Future<List<Long>>> futures = new ArrayList<>();
+        for (int client = 0; client < CLIENTS; client++) {
+            int first = client;
+            futures.add(clients.submit(() -> {
+                List<Long> results = new ArrayList<>();
+                for (int i = first; i < operations; i += CLIENTS) {
+                    results.add(operation.apply(i));
+                }
+                return results;
+            }));
+        }
+        List<Long> results = new ArrayList<>(operations);
+        for (Future<List<Long>> future : futures) {
+            results.addAll(future.get());
+        }
+        return results;
+    }
+
+    private static Employee employee(int i) {
+        return new Employee("First" + i, "Last" + (i * 7919 % 10_000), "benchmark", i % 40, "user" + i + "@example.com");
+    }
+
+    private static double seconds(long start) {
+        return (System.nanoTime() - start) / 1e9;
+    }
+}
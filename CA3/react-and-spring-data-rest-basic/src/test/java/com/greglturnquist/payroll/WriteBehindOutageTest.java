@@ -0,0 +1,167 @@
+package com.greglturnquist.payroll;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.h2.tools.Server;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Write-behind profile against a file-backed H2 TCP server standing in for the db VM, which the test stops and
+ * restarts. The read cache is off so that every read reaches the repository.
+ */
+@SpringBootTest(properties = {
+        "spring.cache.type=none",
+        "payroll.write-behind.flush-interval=100ms",
+        "spring.datasource.hikari.connection-timeout=500"
+})
+@AutoConfigureMockMvc
+@ActiveProfiles({"test", "write-behind"})
+@DirtiesContext
+class WriteBehindOutageTest {
+
+    static Path baseDirectory;
+    static int port;
+    static Server server;
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    WriteBehindWriter writer;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException, SQLException {
+        baseDirectory = Files.createTempDirectory("h2-outage");
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        startServer();
+        registry.add("spring.datasource.url", () -> "jdbc:h2:tcp://localhost:" + port + "/./payroll");
+        registry.add("payroll.write-behind.journal-dir", () -> baseDirectory.resolve("journal").toString());
+    }
+
+    static void startServer() throws SQLException {
+        server = Server.createTcpServer("-tcpPort", String.valueOf(port), "-baseDir", baseDirectory.toString(),
+                "-ifNotExists").start();
+    }
+
+    /**
+     * Creates employees, stops the database server, keeps creating, updating, deleting and reading, then
+     * restarts it
+     * The expected result is that every write is acknowledged during the outage, reads are marked stale, a row
+     * with a NULL job_years is still served from the snapshot, and once the server is back every write is stored
+     * in H2
+     */
+    @Test
+    void noWriteIsLostWhileTheDatabaseIsDown() throws Exception {
+        // Arrange
+        awaitFlushed();
+        int seeded = count();
+        List<Long> before = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            before.add(create("before" + i));
+        }
+        awaitFlushed();
+        jdbcTemplate.update("UPDATE employee SET job_years = NULL WHERE id = ?", before.get(3));
+        writer.loadSnapshot();
+
+        // Act
+        server.stop();
+        List<Long> during = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            during.add(create("during" + i));
+        }
+        mvc.perform(patch("/api/employees/" + before.get(0)).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"jobYears\":99}"))
+                .andExpect(status().is2xxSuccessful());
+        mvc.perform(patch("/api/employees/" + during.get(0)).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"description\":\"patched while down\"}"))
+                .andExpect(status().is2xxSuccessful());
+        mvc.perform(delete("/api/employees/" + before.get(1))).andExpect(status().isNoContent());
+        mvc.perform(get("/api/employees/" + before.get(2)))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Warning", WriteBehindRepositoryInterceptor.STALE));
+        mvc.perform(get("/api/employees/" + before.get(3)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.jobYears").value(nullValue()));
+        mvc.perform(get("/api/employees?after=0&size=100"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.employees.length()").value(seeded + 24));
+        mvc.perform(get("/api/employees").param("size", "100"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Warning", WriteBehindRepositoryInterceptor.STALE))
+                .andExpect(jsonPath("$.page.totalElements").value(seeded + 24));
+        assertTrue(writer.isDegraded() || writer.getPendingCount() > 0);
+        startServer();
+        awaitFlushed();
+
+        // Assert
+        assertFalse(writer.isDegraded());
+        for (long id : during) {
+            assertEquals(1, rows(id), () -> "employee " + id);
+        }
+        assertEquals(0, rows(before.get(1)));
+        assertEquals(99, jdbcTemplate.queryForObject("SELECT job_years FROM employee WHERE id = ?", Integer.class,
+                before.get(0)));
+        assertEquals("patched while down", jdbcTemplate.queryForObject(
+                "SELECT description FROM employee WHERE id = ?", String.class, during.get(0)));
+        assertEquals(seeded + 24, count());
+    }
+
+    private long create(String firstName) throws Exception {
+        String location = mvc.perform(post("/api/employees").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"" + firstName + "\",\"lastName\":\"Tester\",\"description\":\"test\","
+                                + "\"jobYears\":1,\"email\":\"" + firstName + "@example.com\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+        return Long.parseLong(location.substring(location.lastIndexOf('/') + 1));
+    }
+
+    private void awaitFlushed() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (writer.getPendingCount() > 0 || writer.isDegraded()) {
+            assertTrue(System.currentTimeMillis() < deadline, "journal not flushed in time");
+            Thread.sleep(50);
+        }
+    }
+
+    private int count() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM employee", Integer.class);
+    }
+
+    private int rows(long id) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM employee WHERE id = ?", Integer.class, id);
+    }
+}
@@ -0,0 +1,383 @@
+package com.greglturnquist.payroll;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Write-behind profile with the background flush switched off, so the tests decide when writes reach H2.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles({"test", "write-behind"})
+class WriteBehindTest {
+
+    static Path journalDirectory;
+
+    @Autowired
+    MockMvc mvc;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    EmployeeRepository repository;
+
+    @Autowired
+    WriteBehindWriter writer;
+
+    @Autowired
+    EmployeeSnapshot snapshot;
+
+    @Autowired
+    EmployeeImportService importService;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Autowired
+    PlatformTransactionManager transactionManager;
+
+    @Autowired
+    EntityManagerFactory entityManagerFactory;
+
+    Employee employee;
+
+    @DynamicPropertySource
+    static void journal(DynamicPropertyRegistry registry) throws IOException {
+        journalDirectory = Files.createTempDirectory("employee-journal");
+        registry.add("payroll.write-behind.journal-dir", journalDirectory::toString);
+        registry.add("payroll.write-behind.flush-interval", () -> "1h");
+    }
+
+    @BeforeEach
+    void createEmployee() throws IOException {
+        writer.flush();
+        employee = repository.save(new Employee("Grace", "Hopper", "admiral", 40, "grace@example.com"));
+        writer.flush();
+    }
+
+    /**
+     * Patches an employee and reads it back before and after a flush
+     * The expected result is that the API sees the update at once and H2 only after the flush
+     */
+    @Test
+    void updateIsAcknowledgedBeforeReachingTheDatabase() throws Exception {
+        // Arrange
+        String location = "/api/employees/" + employee.getId();
+
+        // Act
+        mvc.perform(patch(location).contentType(MediaType.APPLICATION_JSON).content("{\"jobYears\":41}"))
+                .andExpect(status().is2xxSuccessful());
+
+        // Assert
+        assertEquals(40, jobYearsInDatabase());
+        mvc.perform(get(location))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.jobYears").value(41));
+        assertEquals(1, writer.flush());
+        assertEquals(41, jobYearsInDatabase());
+    }
+
+    /**
+     * Patches the same employee three times, then flushes
+     * The expected result is one row written, holding the last update and a version bumped three times
+     */
+    @Test
+    void repeatedUpdatesAreCoalesced() throws Exception {
+        // Arrange
+        String location = "/api/employees/" + employee.getId();
+
+        // Act
+        for (int years = 41; years <= 43; years++) {
+            mvc.perform(patch(location).contentType(MediaType.APPLICATION_JSON).content("{\"jobYears\":" + years + "}"))
+                    .andExpect(status().is2xxSuccessful());
+        }
+        int written = writer.flush();
+
+        // Assert
+        assertEquals(1, written);
+        assertEquals(43, jobYearsInDatabase());
+        assertEquals(3L, jdbcTemplate.queryForObject("SELECT version FROM employee WHERE id = ?", Long.class, employee.getId()));
+        try (var segments = Files.list(journalDirectory)) {
+            assertEquals(1, segments.count());
+        }
+    }
+
+    /**
+     * Sends an update carrying the ETag that was current before the previous, still unflushed, update
+     * The expected result is 412 Precondition Failed
+     */
+    @Test
+    void staleETagIsRejectedBeforeFlush() throws Exception {
+        // Arrange
+        String location = "/api/employees/" + employee.getId();
+        mvc.perform(patch(location).contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, "\"0\"")
+                        .content("{\"jobYears\":41}"))
+                .andExpect(status().is2xxSuccessful());
+
+        // Act / Assert
+        mvc.perform(patch(location).contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.IF_MATCH, "\"0\"")
+                        .content("{\"jobYears\":42}"))
+                .andExpect(status().isPreconditionFailed());
+    }
+
+    /**
+     * Creates an employee and deletes another one through the API, then flushes
+     * The expected result is that the API sees both writes at once and H2 only after the flush
+     */
+    @Test
+    void createAndDeleteAreAcknowledgedBeforeReachingTheDatabase() throws Exception {
+        // Arrange
+        String location = "/api/employees/" + employee.getId();
+
+        // Act
+        String created = mvc.perform(post("/api/employees").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"Ada\",\"lastName\":\"Lovelace\",\"description\":\"analyst\","
+                                + "\"jobYears\":10,\"email\":\"ada@example.com\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+        mvc.perform(delete(location)).andExpect(status().isNoContent());
+
+        // Assert
+        long createdId = Long.parseLong(created.substring(created.lastIndexOf('/') + 1));
+        assertEquals(0, rows(createdId));
+        assertEquals(1, rows(employee.getId()));
+        mvc.perform(get(created)).andExpect(status().isOk()).andExpect(jsonPath("$.firstName").value("Ada"));
+        mvc.perform(get(location)).andExpect(status().isNotFound());
+        assertEquals(2, writer.flush());
+        assertEquals(1, rows(createdId));
+        assertEquals(0, rows(employee.getId()));
+    }
+
+    /**
+     * Creates an employee and deletes another, then reads the keyset page and the summaries before a flush
+     * The expected result is that both lists already hold the created employee and not the deleted one
+     */
+    @Test
+    void listsSeeWritesBeforeTheyReachTheDatabase() throws Exception {
+        // Arrange
+        String created = mvc.perform(post("/api/employees").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"firstName\":\"Ada\",\"lastName\":\"Lovelace\",\"description\":\"analyst\","
+                                + "\"jobYears\":10,\"email\":\"ada@example.com\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getHeader(HttpHeaders.LOCATION);
+        int createdId = Integer.parseInt(created.substring(created.lastIndexOf('/') + 1));
+        mvc.perform(delete("/api/employees/" + employee.getId())).andExpect(status().isNoContent());
+
+        // Act / Assert
+        mvc.perform(get("/api/employees?after=0&size=1000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.employees[*].id", hasItem(createdId)))
+                .andExpect(jsonPath("$._embedded.employees[*].id", not(hasItem(employee.getId().intValue()))));
+        mvc.perform(get("/api/employees/summaries?size=1000"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$._embedded.*[*].id", hasItem(createdId)))
+                .andExpect(jsonPath("$._embedded.*[*].id", not(hasItem(employee.getId().intValue()))));
+        assertEquals(0, rows(createdId));
+        writer.flush();
+    }
+
+    /**
+     * Saves two employees with saveAll and deletes one of them with deleteAllById, then flushes
+     * The expected result is that both calls are journaled, with nothing in H2 until the flush
+     */
+    @Test
+    void bulkWritesAreJournaled() throws Exception {
+        // Arrange
+        List<Employee> saved = new ArrayList<>();
+        repository.saveAll(List.of(new Employee("Alan", "Turing", "bulk", 5, "alan@example.com"),
+                new Employee("Joan", "Clarke", "bulk", 6, "joan@example.com"))).forEach(saved::add);
+
+        // Act
+        repository.deleteAllById(List.of(saved.get(0).getId()));
+
+        // Assert
+        assertEquals(0, rows(saved.get(1).getId()));
+        assertTrue(repository.findById(saved.get(0).getId()).isEmpty());
+        assertEquals("Joan", repository.findById(saved.get(1).getId()).orElseThrow().getFirstName());
+        writer.flush();
+        assertEquals(0, rows(saved.get(0).getId()));
+        assertEquals(1, rows(saved.get(1).getId()));
+        repository.deleteAll(List.of(saved.get(1)));
+        writer.flush();
+        assertEquals(0, rows(saved.get(1).getId()));
+    }
+
+    /**
+     * Imports an employee, which is stored without going through the journal
+     * The expected result is that the snapshot serving reads during an outage holds it
+     */
+    @Test
+    void importedEmployeesAreAddedToTheSnapshot() throws Exception {
+        // Arrange
+        String ndjson = "{\"firstName\":\"Imported\",\"lastName\":\"Row\",\"description\":\"import\","
+                + "\"jobYears\":2,\"email\":\"imported@example.com\"}\n";
+
+        // Act
+        importService.importEmployees(new ByteArrayInputStream(ndjson.getBytes(StandardCharsets.UTF_8)));
+
+        // Assert
+        List<Employee> found = snapshot.findAll(e -> "imported@example.com".equals(e.getEmail()));
+        assertEquals(1, found.size());
+        repository.delete(found.get(0));
+        writer.flush();
+    }
+
+    /**
+     * Patches an employee with a description longer than its column
+     * The expected result is 400 Bad Request, with nothing acknowledged
+     */
+    @Test
+    void fieldTooLongForItsColumnIsRejectedBeforeAcknowledging() throws Exception {
+        // Arrange
+        String location = "/api/employees/" + employee.getId();
+
+        // Act / Assert
+        mvc.perform(patch(location).contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"description\":\"" + "d".repeat(300) + "\"}"))
+                .andExpect(status().isBadRequest());
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    /**
+     * Patches an employee with a value a database constraint refuses, and another employee with a valid one
+     * The expected result is that the flush stores the valid update, moves the refused one to a dead-letter file
+     * and leaves the first employee as the database holds it
+     */
+    @Test
+    void writeTheDatabaseRefusesIsDeadLettered() throws Exception {
+        // Arrange
+        Employee other = repository.save(new Employee("Ada", "Lovelace", "analyst", 10, "ada@example.com"));
+        writer.flush();
+        jdbcTemplate.execute("ALTER TABLE employee ADD CONSTRAINT job_years_below_100 CHECK (job_years < 100)");
+        try {
+            mvc.perform(patch("/api/employees/" + employee.getId()).contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"jobYears\":100}"))
+                    .andExpect(status().is2xxSuccessful());
+            mvc.perform(patch("/api/employees/" + other.getId()).contentType(MediaType.APPLICATION_JSON)
+                            .content("{\"jobYears\":11}"))
+                    .andExpect(status().is2xxSuccessful());
+
+            // Act
+            int written = writer.flush();
+
+            // Assert
+            assertEquals(1, written);
+            assertEquals(0, writer.getPendingCount());
+            assertEquals(11, jdbcTemplate.queryForObject("SELECT job_years FROM employee WHERE id = ?", Integer.class,
+                    other.getId()));
+            assertEquals(40, jobYearsInDatabase());
+            mvc.perform(get("/api/employees/" + employee.getId()))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.jobYears").value(40));
+            List<Path> deadLetters;
+            try (var files = Files.list(journalDirectory)) {
+                deadLetters = files.filter(file -> file.getFileName().toString().startsWith("employee-dead-letter-"))
+                        .toList();
+            }
+            assertEquals(1, deadLetters.size());
+            List<EmployeeJournal.Entry> refused = new EmployeeJournal(Files.createTempDirectory("employee-journal"),
+                    objectMapper, 4096).read(deadLetters);
+            assertEquals(List.of(employee.getId()), refused.stream().map(EmployeeJournal.Entry::id).toList());
+            assertEquals(100, refused.get(0).jobYears());
+            for (Path deadLetter : deadLetters) {
+                Files.delete(deadLetter);
+            }
+        }
+        finally {
+            jdbcTemplate.execute("ALTER TABLE employee DROP CONSTRAINT job_years_below_100");
+        }
+    }
+
+    /**
+     * Writes journal segments as a crashed instance would have left them, the last frame torn half-way
+     * The expected result is that recovery stores the last complete update of the employee and deletes the segments
+     */
+    @Test
+    void journalIsReplayedAfterACrash(@TempDir Path crashed) throws Exception {
+        // Arrange
+        EmployeeJournal journal = new EmployeeJournal(crashed, objectMapper, 4096);
+        journal.append(update(1, "admiral", 41, 1));
+        journal.append(update(2, "rear admiral", 42, 2));
+        journal.append(update(3, "commodore", 43, 3));
+        Path segment = journal.seal().get(0);
+        tearLastFrame(segment);
+        WriteBehindWriter recovering = new WriteBehindWriter(new EmployeeJournal(crashed, objectMapper, 4096),
+                new EmployeeSnapshot(), new EmployeeIdReserve(entityManagerFactory, 10), jdbcTemplate,
+                transactionManager, Duration.ofHours(1), 100);
+
+        // Act
+        int recovered = recovering.recover();
+        int written = recovering.flush();
+
+        // Assert
+        assertEquals(2, recovered);
+        assertEquals(1, written);
+        assertEquals(42, jobYearsInDatabase());
+        assertFalse(Files.exists(segment));
+    }
+
+    private EmployeeJournal.Entry update(long sequence, String description, int jobYears, long version) {
+        return new EmployeeJournal.Entry(sequence, EmployeeJournal.Type.UPDATE, employee.getId(), "Grace", "Hopper",
+                description, jobYears, "grace@example.com", version);
+    }
+
+    /**
+     * Flips the last byte written to the segment, as if the crash had happened before it reached the disk.
+     */
+    private static void tearLastFrame(Path segment) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+            long last = file.length() - 1;
+            file.seek(last);
+            while (file.read() == 0) {
+                file.seek(--last);
+            }
+            file.seek(last);
+            file.write(0);
+        }
+    }
+
+    private int rows(long id) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM employee WHERE id = ?", Integer.class, id);
+    }
+
+    private int jobYearsInDatabase() {
+        return jdbcTemplate.queryForObject("SELECT job_years FROM employee WHERE id = ?", Integer.class, employee.getId());
+    }
+}